@@ -6,28 +6,46 @@ import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Iterator;
 
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockManager;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.index.CompositeKey;
+import edu.berkeley.cs186.database.io.BufferPool;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.RecordIterator;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -35,12 +53,32 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 
 
 public class Database {
-  private Map<String, Table> tableLookup;
-  private Map<String, BPlusTree> indexLookup;
+  // The number of records Transaction.addRecords adds to a table at a time.
+  private static final int ADD_BATCH_SIZE = 4096;
+  // Orders the index entries that createCompositeIndex sorts by their keys.
+  private static final Comparator<Record> INDEX_ENTRY_ORDER =
+      Record.comparingField(TypeId.BYTES, 0);
+
+  // Tables and indexes are opened the first time they are used (see Lazy).
+  private Map<String, Lazy<Table>> tableLookup;
+  private Map<String, Lazy<BPlusTree>> indexLookup;
+  // The columns of the composite indexes of each table (see createCompositeIndex). A composite
+  // index on columns a and b of table t is named "t,a,b", while an index on column a alone is
+  // named "t,a". A covering index also stores the values of some included
+  // columns (see createCoveringIndex), and its name lists them after a "+":
+  // the covering index on columns a and b of table t that includes columns c
+  // and d is named "t,a,b+c,d".
+  private Map<String, List<List<String>>> compositeIndexes;
+  // The included columns of the covering indexes, by the name the index would
+  // have if it included no columns (e.g. "t,a,b").
+  private Map<String, List<String>> includedColumns;
   private long numTransactions;
   private String fileDir;
   private LockManager lockMan;
   private int numMemoryPages;
+  private BufferPool bufferPool;
+  // How the data pages of the database's tables are read and written.
+  private PageAllocator.Backend backend;
 
   /**
    * Creates a new database.
@@ -62,11 +100,43 @@ public class Database {
    * @throws DatabaseException
    */
   public Database(String fileDir, int numMemoryPages) throws DatabaseException {
+    this(fileDir, numMemoryPages, BufferPool.DEFAULT_NUM_FRAMES);
+  }
+
+  /**
+   * Creates a new database. The tables and indexes already in fileDir are not
+   * opened until they are first used; see warm to open them all up front.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param numBufferFrames the number of pages the database's buffer pool caches
+   * @throws DatabaseException
+   */
+  public Database(String fileDir, int numMemoryPages, int numBufferFrames) throws DatabaseException {
+    this(fileDir, numMemoryPages, numBufferFrames, PageAllocator.Backend.MMAP);
+  }
+
+  /**
+   * Creates a new database whose tables read and write their data pages with the given backend
+   * (see PageAllocator.Backend). Indexes are always memory-mapped.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param numBufferFrames the number of pages the database's buffer pool caches
+   * @param backend how the tables' data pages are read and written
+   * @throws DatabaseException
+   */
+  public Database(String fileDir, int numMemoryPages, int numBufferFrames,
+                  PageAllocator.Backend backend) throws DatabaseException {
     this.numMemoryPages = numMemoryPages;
+    this.bufferPool = new BufferPool(numBufferFrames);
+    this.backend = backend;
     this.fileDir = fileDir;
     numTransactions = 0;
-    tableLookup = new ConcurrentHashMap<String, Table>();
-    indexLookup = new ConcurrentHashMap<String, BPlusTree>();
+    tableLookup = new ConcurrentHashMap<String, Lazy<Table>>();
+    indexLookup = new ConcurrentHashMap<String, Lazy<BPlusTree>>();
+    compositeIndexes = new ConcurrentHashMap<String, List<List<String>>>();
+    includedColumns = new ConcurrentHashMap<String, List<String>>();
 
     File dir = new File(fileDir);
     lockMan = new LockManager();
@@ -82,12 +152,64 @@ public class Database {
       if (fName.endsWith(Table.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(Table.FILENAME_EXTENSION);
         String tableName = fName.substring(0, lastIndex);
-        tableLookup.put(tableName, new Table(tableName, f.toPath().toString()));
+        String path = f.toPath().toString();
+        tableLookup.put(tableName, new Lazy<Table>(() -> new Table(tableName, path, this.bufferPool,
+                                                                    this.backend)));
       } else if (fName.endsWith(BPlusTree.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
         String indexName = fName.substring(0, lastIndex);
-        Path path = Paths.get(f.toPath().toString(), indexName + BPlusTree.FILENAME_EXTENSION);
-        indexLookup.put(indexName, new BPlusTree(path.toString()));
+        String path = f.toPath().toString();
+        indexLookup.put(indexName, new Lazy<BPlusTree>(() -> new BPlusTree(path, this.bufferPool)));
+        String[] parts = indexName.split("\\+", 2);
+        List<String> names = Arrays.asList(parts[0].split(","));
+        List<String> included = parts.length > 1 ? Arrays.asList(parts[1].split(","))
+                                                 : Collections.<String>emptyList();
+        if (names.size() > 2 || !included.isEmpty()) {
+          addCompositeIndex(names.get(0), names.subList(1, names.size()), included);
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens every table and index of this database that has not been opened
+   * yet, in parallel on the common fork-join pool.
+   *
+   * @throws DatabaseException if a table or index could not be opened
+   */
+  public void warm() throws DatabaseException {
+    warm(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Opens every table and index of this database that has not been opened
+   * yet, in parallel on `pool`, and waits for them all to be opened.
+   *
+   * @param pool the pool to open the files on
+   * @throws DatabaseException if a table or index could not be opened
+   */
+  public void warm(ForkJoinPool pool) throws DatabaseException {
+    List<Lazy<?>> files = new ArrayList<Lazy<?>>();
+    files.addAll(this.tableLookup.values());
+    files.addAll(this.indexLookup.values());
+
+    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+    for (Lazy<?> file : files) {
+      if (!file.isOpen()) {
+        tasks.add(pool.submit(() -> file.get()));
+      }
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      try {
+        task.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof DatabaseException) {
+          throw (DatabaseException) e.getCause();
+        }
+        throw new DatabaseException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DatabaseException(e);
       }
     }
   }
@@ -101,12 +223,26 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTable(Schema s, String tableName) throws DatabaseException {
+    createTable(s, tableName, PageFormat.BITMAP);
+  }
+
+  /**
+   * Create a new table in this database whose data pages are laid out in the
+   * given format (see PageFormat).
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param format the format of the table's data pages
+   * @throws DatabaseException
+   */
+  public synchronized void createTable(Schema s, String tableName, PageFormat format) throws DatabaseException {
     if (this.tableLookup.containsKey(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
     Path path = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION);
-    this.tableLookup.put(tableName, new Table(tableName, s, path.toString()));
+    this.tableLookup.put(tableName, new Lazy<Table>(new Table(tableName, s, path.toString(), this.bufferPool,
+                                                              format, this.backend)));
   }
 
   /**
@@ -118,6 +254,21 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTableWithIndices(Schema s, String tableName, List<String> indexColumns) throws DatabaseException {
+    createTableWithIndices(s, tableName, indexColumns, true);
+  }
+
+  /**
+   * Create a new table in this database with an index on each of the given column names. If
+   * unique is false, the indexed columns may hold duplicate values (e.g. foreign keys), and
+   * lookups return every record with a given value.
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param indexColumns the list of columnNames on the maintain an index on
+   * @param unique whether the values of each indexed column are unique
+   * @throws DatabaseException
+   */
+  public synchronized void createTableWithIndices(Schema s, String tableName, List<String> indexColumns,
+                                                  boolean unique) throws DatabaseException {
     if (this.tableLookup.containsKey(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
@@ -140,21 +291,339 @@ public class Database {
     }
 
     Path path = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION);
-    this.tableLookup.put(tableName, new Table(tableName, s, path.toString()));
+    this.tableLookup.put(tableName, new Lazy<Table>(new Table(tableName, s, path.toString(), this.bufferPool,
+                                                              PageFormat.BITMAP, this.backend)));
     for (int i : schemaColIndex) {
       String colName = schemaColNames.get(i);
       Type colType = schemaColType.get(i);
       String indexName = tableName + "," + colName;
       Path p = Paths.get(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION);
       try {
-      this.indexLookup.put(indexName, new BPlusTree(p.toString(), colType,
-                           BPlusTree.maxOrder(Page.pageSize, colType)));
+      this.indexLookup.put(indexName, new Lazy<BPlusTree>(new BPlusTree(p.toString(), colType,
+                           BPlusTree.maxOrder(Page.pageSize, colType), unique,
+                           this.bufferPool)));
       } catch (BPlusTreeException e) {
         throw new DatabaseException(e.getMessage());
       }
     }
   }
 
+  /**
+   * Create an index on the ordered list of columns columnNames of an existing table, and add the
+   * table's records to it. The keys of the index encode the values of the columns (see
+   * CompositeKey), so that it serves lookups on any prefix of the columns, and range scans on the
+   * column after a prefix (see Transaction#lookupPrefix).
+   * @param tableName the name of the table
+   * @param columnNames the columns to index, at least two
+   * @param unique whether the values of the columns are unique, taken together
+   * @throws DatabaseException
+   */
+  public synchronized void createCompositeIndex(String tableName, List<String> columnNames,
+                                                boolean unique) throws DatabaseException {
+    if (columnNames.size() < 2) {
+      throw new DatabaseException("A composite index needs at least two columns");
+    }
+    createCompositeIndex(tableName, columnNames, Collections.<String>emptyList(), unique);
+  }
+
+  /**
+   * Create a covering index on the ordered list of columns columnNames of an existing table,
+   * which also stores the values of the columns includedColumnNames of every record in its
+   * leaves. The index is keyed like a composite index (see createCompositeIndex), even if it has
+   * a single column, and a query that only refers to the indexed and included columns can be
+   * answered from the index alone (see Transaction#lookupCovered), without fetching records.
+   * @param tableName the name of the table
+   * @param columnNames the columns to index, at least one
+   * @param includedColumnNames the columns to store with the index entries, at least one
+   * @param unique whether the values of the indexed columns are unique, taken together
+   * @throws DatabaseException
+   */
+  public synchronized void createCoveringIndex(String tableName, List<String> columnNames,
+                                               List<String> includedColumnNames,
+                                               boolean unique) throws DatabaseException {
+    if (columnNames.isEmpty()) {
+      throw new DatabaseException("A covering index needs at least one column");
+    }
+    if (includedColumnNames.isEmpty()) {
+      throw new DatabaseException("A covering index needs at least one included column");
+    }
+    createCompositeIndex(tableName, columnNames, includedColumnNames, unique);
+  }
+
+  private void createCompositeIndex(String tableName, List<String> columnNames,
+                                    List<String> includedColumnNames,
+                                    boolean unique) throws DatabaseException {
+    if (!this.tableLookup.containsKey(tableName)) {
+      throw new DatabaseException("Table: " + tableName + " does not exist");
+    }
+    String baseName = tableName + "," + String.join(",", columnNames);
+    for (List<String> cols : this.compositeIndexes.getOrDefault(tableName, Collections.emptyList())) {
+      if (cols.equals(columnNames)) {
+        throw new DatabaseException("Index already exists");
+      }
+    }
+    String indexName = compositeIndexName(baseName, includedColumnNames);
+    if (this.indexLookup.containsKey(indexName)) {
+      throw new DatabaseException("Index already exists");
+    }
+
+    Table table = this.tableLookup.get(tableName).get();
+    Schema s = table.getSchema();
+    List<Integer> columnIndices = new ArrayList<Integer>();
+    List<Type> types = new ArrayList<Type>();
+    List<Integer> includedIndices = new ArrayList<Integer>();
+    List<Type> includedTypes = new ArrayList<Type>();
+    for (String col : columnNames) {
+      addIndexColumn(s, col, columnIndices, types, includedIndices);
+    }
+    for (String col : includedColumnNames) {
+      addIndexColumn(s, col, includedIndices, includedTypes, columnIndices);
+    }
+    Type keyType = CompositeKey.type(types);
+    Type payloadType = includedTypes.isEmpty() ? null : CompositeKey.type(includedTypes);
+    int order = payloadType == null ? BPlusTree.maxOrder(Page.pageSize, keyType)
+                                    : BPlusTree.maxOrder(Page.pageSize, keyType, payloadType);
+    if (order < 1) {
+      throw new DatabaseException("Columns desired for index are too wide to index");
+    }
+
+    // The index entries are sorted as records of (key, page number, entry number[, payload]).
+    List<String> entryNames = new ArrayList<String>(Arrays.asList("key", "pageNum", "entryNum"));
+    List<Type> entryTypes = new ArrayList<Type>(Arrays.asList(keyType, Type.intType(),
+                                                              Type.intType()));
+    if (payloadType != null) {
+      entryNames.add("payload");
+      entryTypes.add(payloadType);
+    }
+    Schema entrySchema = new Schema(entryNames, entryTypes);
+
+    Path p = Paths.get(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION);
+    BPlusTree index = null;
+    List<Table> runs = new ArrayList<Table>();
+    boolean created = false;
+    try {
+      index = payloadType == null
+          ? new BPlusTree(p.toString(), keyType, order, unique, this.bufferPool)
+          : new BPlusTree(p.toString(), keyType, payloadType, order, unique, this.bufferPool);
+      Iterator<Record> entries = sortIndexEntries(table, entrySchema, columnIndices,
+                                                  includedIndices, runs);
+      loadIndex(index, entries, unique);
+      created = true;
+    } catch (BPlusTreeException e) {
+      throw new DatabaseException(e.getMessage());
+    } finally {
+      for (Table run : runs) {
+        run.close();
+        new File(run.getFilename()).delete();
+      }
+      if (!created) {
+        // Don't leave a partial index behind to be opened with the database.
+        if (index != null) {
+          index.close();
+        }
+        p.toFile().delete();
+      }
+    }
+    this.indexLookup.put(indexName, new Lazy<BPlusTree>(index));
+    addCompositeIndex(tableName, columnNames, includedColumnNames);
+  }
+
+  // Returns the index entries (see createCompositeIndex) of the records of table, sorted by key.
+  // The table is read in runs of as many entries as fit in numMemoryPages pages, and each run is
+  // sorted. If there is more than one, each run is written to a table of runs, and the runs are
+  // merged as the entries are read.
+  private Iterator<Record> sortIndexEntries(Table table, Schema entrySchema,
+                                            List<Integer> columnIndices,
+                                            List<Integer> includedIndices,
+                                            List<Table> runs) throws DatabaseException {
+    int runSize = Math.max(1, this.numMemoryPages * Page.pageSize / entrySchema.getSizeInBytes());
+    List<Record> run = new ArrayList<Record>();
+    Iterator<RecordView> views = table.viewIterator();
+    while (views.hasNext()) {
+      RecordView view = views.next();
+      RecordId rid = view.getRecordId();
+      List<DataBox> values = new ArrayList<DataBox>(4);
+      values.add(CompositeKey.encode(view.project(columnIndices).getValues()));
+      values.add(new IntDataBox(rid.getPageNum()));
+      values.add(new IntDataBox(rid.getEntryNum()));
+      if (!includedIndices.isEmpty()) {
+        values.add(CompositeKey.encode(view.project(includedIndices).getValues()));
+      }
+      run.add(new Record(values));
+      if (run.size() == runSize && views.hasNext()) {
+        runs.add(writeRun(run, entrySchema, table.getName() + ".run" + runs.size()));
+        run.clear();
+      }
+    }
+    if (runs.isEmpty()) {
+      run.sort(INDEX_ENTRY_ORDER);
+      return run.iterator();
+    }
+    runs.add(writeRun(run, entrySchema, table.getName() + ".run" + runs.size()));
+
+    List<Iterator<Record>> runIterators = new ArrayList<Iterator<Record>>();
+    for (Table r : runs) {
+      runIterators.add(r.iterator());
+    }
+    return new MergingIterator(runIterators, INDEX_ENTRY_ORDER);
+  }
+
+  // Sorts run and writes it to a new table named name in the temp directory.
+  private Table writeRun(List<Record> run, Schema entrySchema, String name)
+      throws DatabaseException {
+    run.sort(INDEX_ENTRY_ORDER);
+    File dir = Paths.get(this.fileDir, "temp").toFile();
+    if (!dir.exists()) {
+      dir.mkdirs();
+    }
+    Path path = Paths.get(this.fileDir, "temp", name + Table.FILENAME_EXTENSION);
+    Table table = new Table(name, entrySchema, path.toString(), this.bufferPool,
+                            PageFormat.BITMAP, this.backend);
+    table.getAllocator().setSequential(true);
+    table.addRecords(run.stream().map(Record::getValues).iterator());
+    return table;
+  }
+
+  // Loads the index entries (see createCompositeIndex), sorted by key, into the empty index.
+  // Entries without payloads are bulk loaded; entries with payloads are put in order, since
+  // B+ trees can only bulk load entries without payloads.
+  private static void loadIndex(BPlusTree index, Iterator<Record> entries, boolean unique)
+      throws DatabaseException, BPlusTreeException {
+    IndexEntries pairs = new IndexEntries(entries, unique);
+    if (!index.getPayloadSchema().isPresent()) {
+      index.bulkLoad(pairs, 1.0f);
+    } else {
+      while (pairs.hasNext()) {
+        Pair<DataBox, RecordId> pair = pairs.next();
+        index.put(pair.getFirst(), pair.getSecond(), pairs.getPayload());
+      }
+    }
+    if (pairs.getDuplicate() != null) {
+      throw new DatabaseException("Duplicate key " + pairs.getDuplicate() + " in a unique index");
+    }
+  }
+
+  // The (key, rid) pairs of a sorted iterator of index entries (see createCompositeIndex). If the
+  // index is unique, the pairs stop before the first duplicate key, which getDuplicate returns.
+  private static class IndexEntries implements Iterator<Pair<DataBox, RecordId>> {
+    private Iterator<Record> entries;
+    private boolean unique;
+    private Record nextEntry;
+    private DataBox lastKey;
+    private DataBox payload;
+    private DataBox duplicate;
+
+    IndexEntries(Iterator<Record> entries, boolean unique) {
+      this.entries = entries;
+      this.unique = unique;
+    }
+
+    public boolean hasNext() {
+      if (this.nextEntry == null && this.duplicate == null && this.entries.hasNext()) {
+        Record entry = this.entries.next();
+        DataBox key = entry.getValues().get(0);
+        if (this.unique && key.equals(this.lastKey)) {
+          this.duplicate = key;
+        } else {
+          this.nextEntry = entry;
+        }
+      }
+      return this.nextEntry != null;
+    }
+
+    public Pair<DataBox, RecordId> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      List<DataBox> values = this.nextEntry.getValues();
+      this.nextEntry = null;
+      this.lastKey = values.get(0);
+      this.payload = values.size() > 3 ? values.get(3) : null;
+      RecordId rid = new RecordId(values.get(1).getInt(), (short) values.get(2).getInt());
+      return new Pair<DataBox, RecordId>(this.lastKey, rid);
+    }
+
+    // The payload of the entry last returned by next, or null if the index includes no columns.
+    DataBox getPayload() {
+      return this.payload;
+    }
+
+    DataBox getDuplicate() {
+      return this.duplicate;
+    }
+  }
+
+  // Merges iterators of records that are each sorted by comparator into one sorted iterator.
+  private static class MergingIterator implements Iterator<Record> {
+    // (next record, index of its iterator) for every iterator that has records left.
+    private PriorityQueue<Pair<Record, Integer>> heads;
+    private List<Iterator<Record>> iterators;
+
+    MergingIterator(List<Iterator<Record>> iterators, Comparator<Record> comparator) {
+      this.iterators = iterators;
+      this.heads = new PriorityQueue<Pair<Record, Integer>>(
+          Math.max(1, iterators.size()), (a, b) -> comparator.compare(a.getFirst(), b.getFirst()));
+      for (int i = 0; i < iterators.size(); i++) {
+        advance(i);
+      }
+    }
+
+    public boolean hasNext() {
+      return !this.heads.isEmpty();
+    }
+
+    public Record next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Pair<Record, Integer> head = this.heads.poll();
+      advance(head.getSecond());
+      return head.getFirst();
+    }
+
+    private void advance(int i) {
+      Iterator<Record> iterator = this.iterators.get(i);
+      if (iterator.hasNext()) {
+        this.heads.add(new Pair<Record, Integer>(iterator.next(), i));
+      }
+    }
+  }
+
+  // Adds column col of schema s to the columns (and types) of an index, unless it is not a
+  // column of s or is one of the columns or otherColumns of the index already.
+  private static void addIndexColumn(Schema s, String col, List<Integer> columns, List<Type> types,
+                                     List<Integer> otherColumns) throws DatabaseException {
+    int i = s.getFieldNames().indexOf(col);
+    if (i == -1) {
+      throw new DatabaseException("Column desired for index does not exist");
+    }
+    if (columns.contains(i) || otherColumns.contains(i)) {
+      throw new DatabaseException("Column desired for index has been duplicated");
+    }
+    columns.add(i);
+    types.add(s.getFieldTypes().get(i));
+  }
+
+  private void addCompositeIndex(String tableName, List<String> columnNames,
+                                 List<String> includedColumnNames) {
+    List<String> cols = Collections.unmodifiableList(new ArrayList<String>(columnNames));
+    if (!includedColumnNames.isEmpty()) {
+      this.includedColumns.put(tableName + "," + String.join(",", cols),
+                               Collections.unmodifiableList(new ArrayList<String>(includedColumnNames)));
+    }
+    this.compositeIndexes.computeIfAbsent(tableName, t -> new CopyOnWriteArrayList<List<String>>())
+        .add(cols);
+  }
+
+  // Returns the name of the index named baseName if it included no columns, which includes
+  // includedColumnNames.
+  private static String compositeIndexName(String baseName, List<String> includedColumnNames) {
+    if (includedColumnNames.isEmpty()) {
+      return baseName;
+    }
+    return baseName + "+" + String.join(",", includedColumnNames);
+  }
+
   /**
    * Delete a table in this database.
    *
@@ -166,8 +635,24 @@ public class Database {
       return false;
     }
 
-    this.tableLookup.get(tableName).close();
-    this.tableLookup.remove(tableName);
+    Table table = this.tableLookup.remove(tableName).getIfOpen();
+    if (table != null) {
+      table.close();
+    }
+    // The composite and covering indexes of the table are dropped with it.
+    for (List<String> cols : this.compositeIndexes.getOrDefault(tableName,
+                                                                Collections.emptyList())) {
+      String baseName = tableName + "," + String.join(",", cols);
+      String indexName = compositeIndexName(
+          baseName, this.includedColumns.getOrDefault(baseName, Collections.emptyList()));
+      Lazy<BPlusTree> index = this.indexLookup.remove(indexName);
+      if (index != null && index.isOpen()) {
+        index.getIfOpen().close();
+      }
+      Paths.get(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION).toFile().delete();
+      this.includedColumns.remove(baseName);
+    }
+    this.compositeIndexes.remove(tableName);
 
     File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
     f.delete();
@@ -186,19 +671,73 @@ public class Database {
     }
   }
 
+  /**
+   * Checkpoint every table of this database (see Table#checkpoint), so that
+   * the tables which are not modified again can be loaded quickly, even if
+   * the database is not closed.
+   */
+  public synchronized void checkpoint() {
+    for (Lazy<Table> t : this.tableLookup.values()) {
+      if (t.isOpen()) {
+        t.getIfOpen().checkpoint();
+      }
+    }
+  }
+
   /**
    * Close this database.
    */
   public synchronized void close() {
-    for (Table t : this.tableLookup.values()) {
-      t.close();
+    for (Lazy<Table> t : this.tableLookup.values()) {
+      if (t.isOpen()) {
+        t.getIfOpen().close();
+      }
+    }
+
+    for (Lazy<BPlusTree> t : this.indexLookup.values()) {
+      if (t.isOpen()) {
+        t.getIfOpen().close();
+      }
     }
 
     this.tableLookup.clear();
+    this.indexLookup.clear();
+    this.compositeIndexes.clear();
+    this.includedColumns.clear();
+    this.bufferPool.close();
   }
 
+  /**
+   * @return the buffer pool caching the pages of this database's tables and indexes
+   */
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
+  /**
+   * Exposes the I/O metrics of this database, and of each of its table and index files, as JMX
+   * MBeans (see BufferPool#registerMBeans). They are unregistered when the database is closed.
+   */
+  public void registerMBeans() {
+    this.bufferPool.registerMBeans(this.fileDir);
+  }
+
+  /**
+   * Returns the table named tableName, opening it if it has not been opened
+   * yet, or null if there is no such table.
+   *
+   * @throws IllegalStateException if the table could not be opened
+   */
   public Table getTable(String tableName) {
-    return tableLookup.get(tableName);
+    Lazy<Table> table = tableLookup.get(tableName);
+    if (table == null) {
+      return null;
+    }
+    try {
+      return table.get();
+    } catch (DatabaseException e) {
+      throw new IllegalStateException("Could not open table " + tableName + ": " + e.getMessage());
+    }
   }
 
   /**
@@ -309,7 +848,12 @@ public class Database {
       }
 
       Path path = Paths.get(Database.this.fileDir, "temp", tempTableName + Table.FILENAME_EXTENSION);
-      this.tempTables.put(tempTableName, new Table(tempTableName, schema, path.toString()));
+      Table tempTable = new Table(tempTableName, schema, path.toString(), Database.this.bufferPool,
+                                  PageFormat.BITMAP, Database.this.backend);
+      // Temporary tables (e.g. sort runs) are written once and then scanned,
+      // so their pages should not displace hot pages in the buffer pool.
+      tempTable.getAllocator().setSequential(true);
+      this.tempTables.put(tempTableName, tempTable);
       return tempTableName;
     }
 
@@ -336,7 +880,12 @@ public class Database {
       }
 
       Path path = Paths.get(Database.this.fileDir, "temp", tempTableName + Table.FILENAME_EXTENSION);
-      this.tempTables.put(tempTableName, new Table(tempTableName, schema, path.toString()));
+      Table tempTable = new Table(tempTableName, schema, path.toString(), Database.this.bufferPool,
+                                  PageFormat.BITMAP, Database.this.backend);
+      // Temporary tables (e.g. sort runs) are written once and then scanned,
+      // so their pages should not displace hot pages in the buffer pool.
+      tempTable.getAllocator().setSequential(true);
+      this.tempTables.put(tempTableName, tempTable);
     }
 
 
@@ -379,11 +928,168 @@ public class Database {
       return index.get(key).isPresent();
     }
 
+    /**
+     * @return whether tableName has a composite index on columnNames (see
+     * Database#createCompositeIndex)
+     */
+    public boolean indexExists(String tableName, List<String> columnNames) {
+      try {
+        resolveIndexFromNames(tableName, columnNames);
+      } catch (DatabaseException e) {
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * @return the columns of each of the composite indexes of tableName
+     */
+    public List<List<String>> getCompositeIndexes(String tableName) {
+      while (aliasMaps.containsKey(tableName)) {
+        tableName = aliasMaps.get(tableName);
+      }
+      return Database.this.compositeIndexes.getOrDefault(tableName, Collections.emptyList());
+    }
+
+    /**
+     * @return the included columns of the composite index on columnNames of tableName, which are
+     * none unless it is a covering index (see Database#createCoveringIndex)
+     */
+    public List<String> getIncludedColumns(String tableName, List<String> columnNames)
+        throws DatabaseException {
+      while (aliasMaps.containsKey(tableName)) {
+        tableName = aliasMaps.get(tableName);
+      }
+      return Database.this.includedColumns.getOrDefault(indexBaseName(tableName, columnNames),
+                                                        Collections.emptyList());
+    }
+
+    /**
+     * Returns the records of tableName whose values of the first prefix.size() columns of
+     * columnNames are the values of prefix, using the composite index on columnNames.
+     */
+    public Iterator<Record> lookupPrefix(String tableName, List<String> columnNames,
+                                         List<DataBox> prefix) throws DatabaseException {
+      return lookupPrefixRange(tableName, columnNames, prefix, null, null);
+    }
+
+    /**
+     * Like lookupPrefix, but only returns the records whose value of the column of columnNames
+     * after the prefix is between from and to, inclusive. A null bound leaves its end of the range
+     * open. The records are returned in ascending order of the indexed columns.
+     */
+    public Iterator<Record> lookupPrefixRange(String tableName, List<String> columnNames,
+                                              List<DataBox> prefix, DataBox from,
+                                              DataBox to) throws DatabaseException {
+      Table tab = getTable(tableName);
+      BPlusTree index = resolveIndexFromNames(tableName, columnNames);
+      List<Type> types = columnTypes(tab, columnNames);
+      try {
+        return new RecordIterator(tab, index.scanRange(lowerBound(prefix, from, types),
+                                                       upperBound(prefix, to, types)));
+      } catch (IllegalArgumentException e) {
+        throw new DatabaseException(e.getMessage());
+      }
+    }
+
+    /**
+     * Like lookupPrefixRange, but answers the lookup from the covering index on columnNames
+     * alone, without fetching any records of the table. The returned records hold only the values
+     * of columnNames followed by those of the index's included columns (see getIncludedColumns).
+     */
+    public Iterator<Record> lookupCovered(String tableName, List<String> columnNames,
+                                          List<DataBox> prefix, DataBox from,
+                                          DataBox to) throws DatabaseException {
+      Table tab = getTable(tableName);
+      BPlusTree index = resolveIndexFromNames(tableName, columnNames);
+      List<String> included = getIncludedColumns(tableName, columnNames);
+      if (included.isEmpty()) {
+        throw new DatabaseException("Index does not include any columns");
+      }
+      List<Type> types = columnTypes(tab, columnNames);
+      List<Type> includedTypes = columnTypes(tab, included);
+      try {
+        Iterator<Pair<DataBox, DataBox>> entries =
+            index.scanPayloads(lowerBound(prefix, from, types), upperBound(prefix, to, types));
+        return new CoveredRecordIterator(entries, types, includedTypes);
+      } catch (IllegalArgumentException e) {
+        throw new DatabaseException(e.getMessage());
+      }
+    }
+
     public RecordId addRecord(String tableName, List<DataBox> values) throws DatabaseException {
       assert(this.active);
         return runAddRecord(tableName, values);
     }
 
+    /**
+     * Adds the records of values to the table, like calling addRecord for each
+     * of them, but ADD_BATCH_SIZE records at a time (see Table#addRecords).
+     * The index entries of each batch are inserted in key order. Each batch
+     * is checked against the schema before any of it is added, so values
+     * that don't match the schema throw an exception with the records of the
+     * earlier batches added and indexed, and none of their own batch added.
+     *
+     * @return the record ids of the new records, in order
+     */
+    public List<RecordId> addRecords(String tableName, Iterator<List<DataBox>> values) throws DatabaseException {
+      assert(this.active);
+      Table tab = getTable(tableName);
+      List<String> colNames = tab.getSchema().getFieldNames();
+      List<Integer> indexedCols = new ArrayList<Integer>();
+      for (int i = 0; i < colNames.size(); i++) {
+        if (indexExists(tableName, colNames.get(i))) {
+          indexedCols.add(i);
+        }
+      }
+
+      List<RecordId> rids = new ArrayList<RecordId>();
+      List<List<DataBox>> batch = new ArrayList<List<DataBox>>();
+      while (values.hasNext()) {
+        batch.clear();
+        while (batch.size() < ADD_BATCH_SIZE && values.hasNext()) {
+          batch.add(values.next());
+        }
+        // A record that Table#addRecords rejected partway through the batch
+        // would leave the records before it in the table but not in the
+        // indexes.
+        for (List<DataBox> recordValues : batch) {
+          tab.verify(recordValues);
+        }
+        List<RecordId> batchRids = tab.addRecords(batch.iterator());
+
+        for (int i : indexedCols) {
+          List<Pair<DataBox, RecordId>> entries = new ArrayList<Pair<DataBox, RecordId>>();
+          for (int j = 0; j < batch.size(); j++) {
+            entries.add(new Pair<DataBox, RecordId>(batch.get(j).get(i), batchRids.get(j)));
+          }
+          entries.sort((a, b) -> a.getFirst().compareTo(b.getFirst()));
+          BPlusTree index = resolveIndexFromName(tableName, colNames.get(i));
+          try {
+            for (Pair<DataBox, RecordId> entry : entries) {
+              index.put(entry.getFirst(), entry.getSecond());
+            }
+          } catch (BPlusTreeException e) {
+            throw new DatabaseException(e.getMessage());
+          }
+        }
+        for (List<String> cols : getCompositeIndexes(tableName)) {
+          // (key, index in batch) for every record of the batch.
+          List<Pair<DataBox, Integer>> entries = new ArrayList<Pair<DataBox, Integer>>();
+          for (int j = 0; j < batch.size(); j++) {
+            entries.add(new Pair<DataBox, Integer>(compositeKey(tab.getSchema(), cols, batch.get(j)), j));
+          }
+          entries.sort((a, b) -> a.getFirst().compareTo(b.getFirst()));
+          for (Pair<DataBox, Integer> entry : entries) {
+            int j = entry.getSecond();
+            putCompositeEntry(tableName, cols, entry.getFirst(), batch.get(j), batchRids.get(j));
+          }
+        }
+        rids.addAll(batchRids);
+      }
+      return rids;
+    }
+
     private RecordId runAddRecord(String tableName, List<DataBox> values) throws DatabaseException {
       assert(this.active);
       Table tab = getTable(tableName);
@@ -401,6 +1107,9 @@ public class Database {
           }
         }
       }
+      for (List<String> cols : getCompositeIndexes(tableName)) {
+        putCompositeEntry(tableName, cols, compositeKey(s, cols, values), values, rid);
+      }
 
       //find(tableName, "string");
 
@@ -432,9 +1141,12 @@ public class Database {
       for (int i = 0; i < colNames.size(); i++) {
         String col = colNames.get(i);
         if (indexExists(tableName, col)) {
-          resolveIndexFromName(tableName, col).remove(values.get(i));
+          resolveIndexFromName(tableName, col).remove(values.get(i), rid);
         }
       }
+      for (List<String> cols : getCompositeIndexes(tableName)) {
+        resolveIndexFromNames(tableName, cols).remove(compositeKey(s, cols, values), rid);
+      }
 
       return rid;
     }
@@ -449,6 +1161,26 @@ public class Database {
       return getTable(tableName).iterator();
     }
 
+    public Stream<Record> getRecordStream(String tableName) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).stream();
+    }
+
+    public Iterator<RecordView> getRecordViewIterator(String tableName) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).viewIterator();
+    }
+
+    public Iterator<RecordView> getRecordViewIterator(String tableName, int fromPage, int toPage) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).viewIterator(fromPage, toPage);
+    }
+
+    public Iterator<RecordView> getBlockViewIterator(String tableName, Page[] block) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).viewIterator(block);
+    }
+
     public BacktrackingIterator<Page> getPageIterator(String tableName) throws DatabaseException {
       assert(this.active);
       return getTable(tableName).getAllocator().iterator();
@@ -512,7 +1244,7 @@ public class Database {
         String col = colNames.get(i);
         if (indexExists(tableName, col)) {
           BPlusTree tree = resolveIndexFromName(tableName, col);
-          tree.remove(oldValues.get(i));
+          tree.remove(oldValues.get(i), rid);
           try {
             tree.put(values.get(i), rid);
           } catch (BPlusTreeException e) {
@@ -520,6 +1252,10 @@ public class Database {
           }
         }
       }
+      for (List<String> cols : getCompositeIndexes(tableName)) {
+        resolveIndexFromNames(tableName, cols).remove(compositeKey(s, cols, oldValues), rid);
+        putCompositeEntry(tableName, cols, compositeKey(s, cols, values), values, rid);
+      }
 
       return rid;
     }
@@ -565,6 +1301,11 @@ public class Database {
       return this.resolveIndexFromName(tableName, columnName).getNumPages();
     }
 
+    public int getNumIndexPages(String tableName, List<String> columnNames) throws DatabaseException {
+      assert(this.active);
+      return this.resolveIndexFromNames(tableName, columnNames).getNumPages();
+    }
+
     public Schema getSchema(String tableName) throws DatabaseException {
       assert(this.active);
       return getTable(tableName).getSchema();
@@ -585,9 +1326,45 @@ public class Database {
     }
 
     private BPlusTree resolveIndexFromName(String tableName, String columnName) throws DatabaseException {
+      return resolveIndex(tableName, Collections.singletonList(columnName), false);
+    }
+
+    // Resolves the composite index on columnNames of tableName (see Database#createCompositeIndex).
+    private BPlusTree resolveIndexFromNames(String tableName, List<String> columnNames) throws DatabaseException {
+      return resolveIndex(tableName, columnNames, true);
+    }
+
+    private BPlusTree resolveIndex(String tableName, List<String> columnNames,
+                                   boolean composite) throws DatabaseException {
       while (aliasMaps.containsKey(tableName)) {
         tableName = aliasMaps.get(tableName);
       }
+      String indexName = indexBaseName(tableName, columnNames);
+      if (composite) {
+        List<String> cols = Arrays.asList(indexName.split(","));
+        if (!getCompositeIndexes(tableName).contains(cols.subList(1, cols.size()))) {
+          throw new DatabaseException("Index does not exist");
+        }
+        indexName = compositeIndexName(indexName, getIncludedColumns(tableName, columnNames));
+      }
+      if (Database.this.indexLookup.containsKey(indexName)) {
+        return Database.this.indexLookup.get(indexName).get();
+      }
+      throw new DatabaseException("Index does not exist");
+    }
+
+    // Returns the name of the index on columnNames of tableName (which must not be an alias),
+    // without its included columns.
+    private String indexBaseName(String tableName, List<String> columnNames) throws DatabaseException {
+      List<String> names = new ArrayList<String>();
+      for (String columnName : columnNames) {
+        names.add(unqualify(tableName, columnName));
+      }
+      return tableName + "," + String.join(",", names);
+    }
+
+    // Strips the table name (or alias) off columnName, which must be a column of tableName.
+    private String unqualify(String tableName, String columnName) throws DatabaseException {
       if (columnName.contains(".")) {
         String columnPrefix = columnName.split("\\.")[0];
         while (aliasMaps.containsKey(columnPrefix)) {
@@ -598,11 +1375,65 @@ public class Database {
         }
         columnName = columnName.split("\\.")[1];
       }
-      String indexName = tableName + "," + columnName;
-      if (Database.this.indexLookup.containsKey(indexName)) {
-        return Database.this.indexLookup.get(indexName);
+      return columnName;
+    }
+
+    // Returns the key of the record with values values in the composite index on columnNames of
+    // a table with schema s.
+    private DataBox compositeKey(Schema s, List<String> columnNames, List<DataBox> values) {
+      List<DataBox> key = new ArrayList<DataBox>();
+      for (String col : columnNames) {
+        key.add(values.get(s.getFieldNames().indexOf(col)));
       }
-      throw new DatabaseException("Index does not exist");
+      return CompositeKey.encode(key);
+    }
+
+    // Puts the entry with key key of the record with values values and record id rid into the
+    // composite index on columnNames of tableName, along with the values of the included
+    // columns if it is a covering index.
+    private void putCompositeEntry(String tableName, List<String> columnNames, DataBox key,
+                                   List<DataBox> values, RecordId rid) throws DatabaseException {
+      BPlusTree index = resolveIndexFromNames(tableName, columnNames);
+      List<String> included = getIncludedColumns(tableName, columnNames);
+      try {
+        if (included.isEmpty()) {
+          index.put(key, rid);
+        } else {
+          index.put(key, rid, compositeKey(getSchema(tableName), included, values));
+        }
+      } catch (BPlusTreeException e) {
+        throw new DatabaseException(e.getMessage());
+      }
+    }
+
+    // Returns the types of the columns columnNames of tab.
+    private List<Type> columnTypes(Table tab, List<String> columnNames) throws DatabaseException {
+      List<Type> types = new ArrayList<Type>();
+      for (String col : columnNames) {
+        int i = tab.getSchema().getFieldNames().indexOf(unqualify(tab.getName(), col));
+        types.add(tab.getSchema().getFieldTypes().get(i));
+      }
+      return types;
+    }
+
+    // Returns the smallest key of a composite index on columns of types types that starts with
+    // the values of prefix, followed by from unless it is null.
+    private DataBox lowerBound(List<DataBox> prefix, DataBox from, List<Type> types) {
+      List<DataBox> low = new ArrayList<DataBox>(prefix);
+      if (from != null) {
+        low.add(from);
+      }
+      return CompositeKey.lowerBound(low, types);
+    }
+
+    // Returns the largest key of a composite index on columns of types types that starts with
+    // the values of prefix, followed by to unless it is null.
+    private DataBox upperBound(List<DataBox> prefix, DataBox to, List<Type> types) {
+      List<DataBox> high = new ArrayList<DataBox>(prefix);
+      if (to != null) {
+        high.add(to);
+      }
+      return CompositeKey.upperBound(high, types);
     }
 
     private Table getTable(String tableName) throws DatabaseException {
@@ -618,7 +1449,7 @@ public class Database {
         throw new DatabaseException("Table: " + tableName + "does not exist");
       }
 
-      return Database.this.tableLookup.get(tableName);
+      return Database.this.tableLookup.get(tableName).get();
     }
 
 
@@ -715,6 +1546,14 @@ public class Database {
     }
 
 
+    //stores the operations for execution in the future
+    public List<RecordId> addRecords(String tableName, Iterator<List<DataBox>> values)  throws DatabaseException {
+        while (values.hasNext()) {
+          addRecord(tableName, values.next());
+        }
+        return null;
+    }
+
     //stores the operation for execution in the future
     public RecordId deleteRecord(String tableName, RecordId rid)  throws DatabaseException {
         Operation op = new Operation();
@@ -751,4 +1590,79 @@ public class Database {
 
   }
 
+
+  /**
+   * Decodes the (key, payload) pairs of a covering index into records of the values of its
+   * columns followed by the values of its included columns (see Transaction#lookupCovered).
+   */
+  private static class CoveredRecordIterator implements Iterator<Record> {
+    private Iterator<Pair<DataBox, DataBox>> entries;
+    private List<Type> types;
+    private List<Type> includedTypes;
+
+    CoveredRecordIterator(Iterator<Pair<DataBox, DataBox>> entries, List<Type> types,
+                          List<Type> includedTypes) {
+      this.entries = entries;
+      this.types = types;
+      this.includedTypes = includedTypes;
+    }
+
+    public boolean hasNext() {
+      return this.entries.hasNext();
+    }
+
+    public Record next() {
+      Pair<DataBox, DataBox> entry = this.entries.next();
+      List<DataBox> values = CompositeKey.decode(entry.getFirst(), this.types);
+      values.addAll(CompositeKey.decode(entry.getSecond(), this.includedTypes));
+      return new Record(values);
+    }
+  }
+
+  /**
+   * A table or index which is opened the first time get is called. Opening
+   * is guarded by the Lazy, so that threads which use a file at the same time
+   * open it only once; if opening fails, the next get tries again.
+   */
+  private static class Lazy<T> {
+    interface Opener<T> {
+      T open() throws DatabaseException;
+    }
+
+    private Opener<T> opener;
+    private volatile T value;
+
+    Lazy(Opener<T> opener) {
+      this.opener = opener;
+    }
+
+    // A Lazy of something which is already open.
+    Lazy(T value) {
+      this.value = value;
+    }
+
+    T get() throws DatabaseException {
+      T v = this.value;
+      if (v == null) {
+        synchronized (this) {
+          v = this.value;
+          if (v == null) {
+            v = this.opener.open();
+            this.value = v;
+            this.opener = null;
+          }
+        }
+      }
+      return v;
+    }
+
+    boolean isOpen() {
+      return this.value != null;
+    }
+
+    // Returns the value if it has been opened, or null.
+    T getIfOpen() {
+      return this.value;
+    }
+  }
 }
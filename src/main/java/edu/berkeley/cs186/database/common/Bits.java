@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.common;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class Bits {
   public enum Bit { ZERO, ONE };
@@ -84,4 +85,70 @@ public class Bits {
     b = setBit(b, i % 8, bit);
     buf.put(buf.position() + (i / 8), b);
   }
+
+  /**
+   * Returns the index of the first ZERO bit among bits [from, numBits) of a
+   * byte buffer, numbering bits like setBit does, or -1 if they are all ONE.
+   * The position of the buffer is left unchanged. The bits are read a long
+   * (64 bits) at a time where possible. For example:
+   *
+   *   ByteBuffer buf = ByteBuffer.wrap(new byte[]{(byte) 0b11111111, 0b01111111});
+   *   firstZeroBit(buf, 0, 16); // 8
+   *   firstZeroBit(buf, 9, 16); // -1
+   */
+  public static int firstZeroBit(ByteBuffer buf, int from, int numBits) {
+    int i = from;
+    // Bit by bit up to a byte boundary...
+    for (; i < numBits && i % 8 != 0; ++i) {
+      if (getBit(buf.get(buf.position() + i / 8), i % 8) == Bit.ZERO) {
+        return i;
+      }
+    }
+    // ...then a long at a time. The 0th bit of a byte is its most significant
+    // bit, so the 0th bit of a big-endian long is its most significant bit
+    // too, and the first ZERO bit is the first leading ONE bit of ~word.
+    for (; i + 64 <= numBits; i += 64) {
+      long word = getLong(buf, buf.position() + i / 8);
+      if (word != -1L) {
+        return i + Long.numberOfLeadingZeros(~word);
+      }
+    }
+    // ...then a byte at a time.
+    for (; i < numBits; i += 8) {
+      int b = ~buf.get(buf.position() + i / 8) & 0xFF;
+      if (b != 0) {
+        int bit = i + Integer.numberOfLeadingZeros(b) - 24;
+        return bit < numBits ? bit : -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of ONE bits among bits [0, numBits) of a byte buffer,
+   * numbering bits like setBit does. The position of the buffer is left
+   * unchanged.
+   */
+  public static int countOnes(ByteBuffer buf, int numBits) {
+    int count = 0;
+    int i = 0;
+    for (; i + 64 <= numBits; i += 64) {
+      count += Long.bitCount(getLong(buf, buf.position() + i / 8));
+    }
+    for (; i + 8 <= numBits; i += 8) {
+      count += Integer.bitCount(buf.get(buf.position() + i / 8) & 0xFF);
+    }
+    if (i < numBits) {
+      // Only the first numBits - i bits of the last byte count.
+      int mask = (0xFF << (8 - (numBits - i))) & 0xFF;
+      count += Integer.bitCount(buf.get(buf.position() + i / 8) & mask);
+    }
+    return count;
+  }
+
+  // buf.getLong(index), read big-endian whatever the order of buf is.
+  private static long getLong(ByteBuffer buf, int index) {
+    long word = buf.getLong(index);
+    return buf.order() == ByteOrder.BIG_ENDIAN ? word : Long.reverseBytes(word);
+  }
 }
@@ -0,0 +1,80 @@
+package edu.berkeley.cs186.database.databox;
+
+import java.util.Arrays;
+
+/**
+ * An n-byte string of raw bytes. Unlike the other DataBoxes, BytesDataBoxes
+ * are not meant to be stored in tables: they are the keys of indexes whose
+ * keys are encoded (see index.CompositeKey). Two BytesDataBoxes of the same
+ * length compare like memcmp, i.e. byte by byte, treating each byte as
+ * unsigned.
+ */
+public class BytesDataBox extends DataBox {
+  private byte[] bytes;
+
+  public BytesDataBox(byte[] bytes) {
+    if (bytes.length == 0) {
+      throw new DataBoxException("Empty byte strings are not supported.");
+    }
+    this.bytes = bytes;
+  }
+
+  @Override
+  public Type type() {
+    return Type.bytesType(bytes.length);
+  }
+
+  @Override
+  public byte[] getBytes() {
+    return bytes.clone();
+  }
+
+  @Override
+  public byte[] toBytes() {
+    return bytes.clone();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b & 0xFF));
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof BytesDataBox)) {
+      return false;
+    }
+    BytesDataBox b = (BytesDataBox) o;
+    return Arrays.equals(this.bytes, b.bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(bytes);
+  }
+
+  @Override
+  public int compareTo(DataBox d) {
+    if (!(d instanceof BytesDataBox)) {
+      String err = String.format("Invalid comparison between %s and %s.",
+                                 toString(), d.toString());
+      throw new DataBoxException(err);
+    }
+    byte[] other = ((BytesDataBox) d).bytes;
+    int n = Math.min(bytes.length, other.length);
+    for (int i = 0; i < n; ++i) {
+      int c = Integer.compare(bytes[i] & 0xFF, other[i] & 0xFF);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return Integer.compare(bytes.length, other.length);
+  }
+}
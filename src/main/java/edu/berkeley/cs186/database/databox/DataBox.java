@@ -10,10 +10,11 @@ import java.nio.charset.Charset;
  *   - booleans with new BoolDataBox(b),
  *   - integers with new IntDataBox(i),
  *   - floats with new FloatDataBox(f), and
- *   - strings with new StringDataBox(s, n).
+ *   - strings with new StringDataBox(s, n), and
+ *   - byte strings with new BytesDataBox(bytes).
  *
  * You can unwrap a databox by first pattern matching on its type and then
- * using one of getBool, getInt, getFloat, and getString:
+ * using one of getBool, getInt, getFloat, getString, and getBytes:
  *
  *   Databox d = DataBox.fromBytes(bytes);
  *   switch (d.type().getTypeId()) {
@@ -21,6 +22,7 @@ import java.nio.charset.Charset;
  *     case INT:    { System.out.println(d.getInt()); }
  *     case FLOAT:  { System.out.println(d.getFloat()); }
  *     case STRING: { System.out.println(d.getString()); }
+ *     case BYTES:  { System.out.println(Arrays.toString(d.getBytes())); }
  *   }
  */
 public abstract class DataBox implements Comparable<DataBox> {
@@ -42,6 +44,10 @@ public abstract class DataBox implements Comparable<DataBox> {
     throw new DataBoxException("not String type");
   }
 
+  public byte[] getBytes() throws DataBoxException {
+    throw new DataBoxException("not bytes type");
+  }
+
   // Databoxes are serialized as follows:
   //
   //   - BoolDataBoxes are serialized to a single byte that is 0 if the
@@ -50,6 +56,7 @@ public abstract class DataBox implements Comparable<DataBox> {
   //     values (e.g. using ByteBuffer::putInt or ByteBuffer::putFloat).
   //   - The first byte of a serialized m-byte StringDataBox is the 4-byte
   //     number m. Then come the m bytes of the string.
+  //   - An n-byte BytesDataBox is serialized to its n bytes.
   //
   // Note that when DataBoxes are serialized, they do not serialize their type.
   // That is, serialized DataBoxes are not self-descriptive; you need the type
@@ -75,6 +82,11 @@ public abstract class DataBox implements Comparable<DataBox> {
         String s = new String(bytes, Charset.forName("UTF-8"));
         return new StringDataBox(s, type.getSizeInBytes());
       }
+      case BYTES: {
+        byte[] bytes = new byte[type.getSizeInBytes()];
+        buf.get(bytes);
+        return new BytesDataBox(bytes);
+      }
       default: {
         String err = String.format("Unhandled TypeId %s.",
                                    type.getTypeId().toString());
@@ -1,3 +1,3 @@
 package edu.berkeley.cs186.database.databox;
 
-public enum TypeId {BOOL, INT, FLOAT, STRING};
+public enum TypeId {BOOL, INT, FLOAT, STRING, BYTES};
@@ -134,7 +134,18 @@ abstract class BPlusNode {
    * duplicate key is inserted, the tree is left unchanged and an exception is
    * raised.
    */
-  public abstract Optional<Pair<DataBox, Integer>> put(DataBox key, RecordId rid)
+  public Optional<Pair<DataBox, Integer>> put(DataBox key, RecordId rid)
+      throws BPlusTreeException {
+    return put(key, rid, Optional.empty());
+  }
+
+  /**
+   * n.put(k, r, p) is like n.put(k, r), except that in a tree whose leaves
+   * store payloads (see BPlusTreeMetadata), p must be the payload of the new
+   * entry, and in any other tree, p must be empty.
+   */
+  public abstract Optional<Pair<DataBox, Integer>> put(DataBox key, RecordId rid,
+                                                       Optional<DataBox> payload)
     throws BPlusTreeException;
 
   /**
@@ -211,6 +222,14 @@ abstract class BPlusNode {
    */
   public abstract void remove(DataBox key);
 
+  /**
+   * n.isFull() returns whether n has 2d keys (or entries), i.e. whether an
+   * insert into n's subtree may split n. A writer descending the tree (see
+   * BPlusTree.put) can release the latches it holds on n's ancestors once it
+   * reaches a node that is not full.
+   */
+  abstract boolean isFull();
+
   // Helpers ///////////////////////////////////////////////////////////////////
   /** Get the page on which this node is persisted. */
   abstract Page getPage();
@@ -254,7 +273,7 @@ abstract class BPlusNode {
    */
   public static BPlusNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
     Page p = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = p.getByteBuffer();
+    ByteBuffer buf = p.getReadOnlyByteBuffer();
     byte b = buf.get();
     if (b == 1) {
       return LeafNode.fromBytes(metadata, pageNum);
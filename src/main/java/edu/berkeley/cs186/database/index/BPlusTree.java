@@ -4,15 +4,22 @@ import java.io.IOException;
 import java.io.FileWriter;
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -51,6 +58,33 @@ import edu.berkeley.cs186.database.table.RecordId;
  *   fromDisk.get(new IntDataBox(0)); // Optional.empty()
  *   fromDisk.get(new IntDataBox(1)); // Optional.of(RecordId(1, 1))
  *   fromDisk.get(new IntDataBox(2)); // Optional.of(RecordId(2, 2))
+ *
+ * By default, a B+ tree is unique: putting a key that is already in the tree
+ * throws a BPlusTreeException. A tree constructed with unique set to false
+ * (e.g. to index a foreign key) may hold any number of entries with the same
+ * key, and scanEqual returns all of their record ids. Entries with equal keys
+ * are kept next to each other in the leaves, but a run of them may span
+ * several leaves, and separator keys of the inner nodes may equal the keys
+ * on both of their sides. So a tree that is not unique descends to the
+ * leftmost leaf that may hold a key, and scans (and removes) move right from
+ * there until they pass the key.
+ *
+ * B+ trees are thread-safe. Every node page has a read/write latch, and
+ * operations descend the tree by latch coupling (or "crabbing"): a thread
+ * latches a child before it unlatches the child's parent, so no node it is
+ * headed for can be split out from under it. Since put splits a leaf only
+ * when the leaf is full, and remove never restructures the tree, writers
+ * first descend optimistically, read-latching the inner nodes and
+ * write-latching only the leaf. Only a put that finds its leaf full descends
+ * again, write-latching the path from the lowest ancestor that will not
+ * split. Scans latch one leaf at a time, and follow right sibling pointers
+ * to the next leaf like in a B-link tree.
+ *
+ * A tree constructed with a payload schema stores a payload of that type
+ * with every entry in its leaves, which put(key, rid, payload) takes and
+ * scanPayloads returns. A covering index stores the values of the columns
+ * it includes this way, so that queries on those columns are answered from
+ * the index alone, without fetching records from the table.
  */
 public class BPlusTree {
     public static final String FILENAME_PREFIX = "db";
@@ -58,7 +92,17 @@ public class BPlusTree {
 
     private BPlusTreeMetadata metadata;
     private Page headerPage;
-    private BPlusNode root;
+
+    // The page number of the root, which is protected by rootLatch. rootLatch
+    // sits above the root's page latch: operations read-latch it to find the
+    // root, and a put that may split the root write-latches it.
+    private int rootPageNum;
+    private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock();
+
+    // The latches of the node pages, created as they are needed. Pages are
+    // never freed, and a node never changes from leaf to inner node or back.
+    private final ConcurrentHashMap<Integer, ReentrantReadWriteLock> latches =
+        new ConcurrentHashMap<>();
 
     // Constructors ////////////////////////////////////////////////////////////
     /**
@@ -77,14 +121,54 @@ public class BPlusTree {
      * page which contains:
      *
      *   - the key schema of the tree,
-     *   - the order of the tree, and
-     *   - the page number of the root of the tree.
+     *   - the order of the tree,
+     *   - the page number of the root of the tree,
+     *   - whether the tree is unique, and
+     *   - the payload schema of the tree, if it has one.
      *
      * All other pages are serializations of inner and leaf nodes. See
      * writeHeader for details.
      */
     public BPlusTree(String filename, Type keySchema, int order)
         throws BPlusTreeException {
+      this(filename, keySchema, order, BufferPool.getDefault());
+    }
+
+    /**
+     * Construct a new B+ tree exactly like BPlusTree(filename, keySchema,
+     * order), except that the pages of the tree are cached in `bufferPool`.
+     */
+    public BPlusTree(String filename, Type keySchema, int order,
+                     BufferPool bufferPool) throws BPlusTreeException {
+      this(filename, keySchema, order, true, bufferPool);
+    }
+
+    /**
+     * Construct a new B+ tree exactly like BPlusTree(filename, keySchema,
+     * order, bufferPool), except that if `unique` is false, the tree may hold
+     * several entries with the same key.
+     */
+    public BPlusTree(String filename, Type keySchema, int order, boolean unique,
+                     BufferPool bufferPool) throws BPlusTreeException {
+      this(filename, keySchema, Optional.empty(), order, unique, bufferPool);
+    }
+
+    /**
+     * Construct a new B+ tree exactly like BPlusTree(filename, keySchema,
+     * order, unique, bufferPool), except that every entry of the tree has a
+     * payload of type `payloadSchema`. Use BPlusTree.maxOrder(pageSize,
+     * keySchema, payloadSchema) to get the largest order such a tree can have.
+     */
+    public BPlusTree(String filename, Type keySchema, Type payloadSchema,
+                     int order, boolean unique, BufferPool bufferPool)
+        throws BPlusTreeException {
+      this(filename, keySchema, Optional.of(payloadSchema), order, unique,
+           bufferPool);
+    }
+
+    private BPlusTree(String filename, Type keySchema,
+                      Optional<Type> payloadSchema, int order, boolean unique,
+                      BufferPool bufferPool) throws BPlusTreeException {
       // Sanity checks.
       if (order < 0) {
         String msg = String.format(
@@ -93,7 +177,8 @@ public class BPlusTree {
         throw new BPlusTreeException(msg);
       }
 
-      int maxOrder = BPlusTree.maxOrder(Page.pageSize, keySchema);
+      int maxOrder = Math.min(LeafNode.maxOrder(Page.pageSize, keySchema, payloadSchema),
+                              InnerNode.maxOrder(Page.pageSize, keySchema));
       if (order > maxOrder) {
         String msg = String.format(
             "You cannot construct a B+ tree with order %d greater than the " +
@@ -103,8 +188,11 @@ public class BPlusTree {
       }
 
       // Initialize the page allocator.
-      PageAllocator allocator = new PageAllocator(filename, true /* wipe */);
-      this.metadata = new BPlusTreeMetadata(allocator, keySchema, order);
+      PageAllocator allocator = new PageAllocator(filename, true /* wipe */,
+                                                  true /* durable */,
+                                                  bufferPool);
+      this.metadata = new BPlusTreeMetadata(allocator, keySchema, order, unique,
+                                            payloadSchema);
 
       // Allocate the header page.
       int headerPageNum = allocator.allocPage();
@@ -115,29 +203,45 @@ public class BPlusTree {
       List<DataBox> keys = new ArrayList<>();
       List<RecordId> rids = new ArrayList<>();
       Optional<Integer> rightSibling = Optional.empty();
-      this.root = new LeafNode(this.metadata, keys, rids, rightSibling);
+      LeafNode root = new LeafNode(this.metadata, keys, rids, rightSibling);
+      this.rootPageNum = root.getPage().getPageNum();
 
       // Initialize the header page.
       writeHeader(headerPage.getByteBuffer());
+      headerPage.markDirty();
     }
 
     /** Read a B+ tree that was previously serialized to filename. */
     public BPlusTree(String filename) {
+      this(filename, BufferPool.getDefault());
+    }
+
+    /**
+     * Read a B+ tree that was previously serialized to filename, caching its
+     * pages in `bufferPool`.
+     */
+    public BPlusTree(String filename, BufferPool bufferPool) {
       // Initialize the page allocator and fetch the header page.
-      PageAllocator allocator = new PageAllocator(filename, false /* wipe */);
+      PageAllocator allocator = new PageAllocator(filename, false /* wipe */,
+                                                  true /* durable */,
+                                                  bufferPool);
       Page headerPage = allocator.fetchPage(0);
-      ByteBuffer buf = headerPage.getByteBuffer();
+      ByteBuffer buf = headerPage.getReadOnlyByteBuffer();
 
       // Read the contents of the header page. See writeHeader for information
       // on exactly what is written to the header page.
       Type keySchema = Type.fromBytes(buf);
       int order = buf.getInt();
       int rootPageNum = buf.getInt();
+      boolean unique = buf.get() == 0;
+      Optional<Type> payloadSchema = buf.get() == 0 ? Optional.empty()
+                                                    : Optional.of(Type.fromBytes(buf));
 
       // Initialize members.
-      this.metadata = new BPlusTreeMetadata(allocator, keySchema, order);
+      this.metadata = new BPlusTreeMetadata(allocator, keySchema, order, unique,
+                                            payloadSchema);
       this.headerPage = allocator.fetchPage(0);
-      this.root = BPlusNode.fromBytes( this.metadata, rootPageNum);
+      this.rootPageNum = rootPageNum;
     }
 
     // Core API ////////////////////////////////////////////////////////////////
@@ -153,11 +257,22 @@ public class BPlusTree {
      *   // Get the value we put and also try to get a value we never put.
      *   tree.get(key);                 // Optional.of(rid)
      *   tree.get(new IntDataBox(100)); // Optional.empty()
+     *
+     * If the tree is not unique, one of the record ids associated with `key`
+     * is returned.
      */
     public Optional<RecordId> get(DataBox key) {
       typecheck(key);
-      LeafNode leaf = root.get(key);
-      return leaf.getKey(key);
+      if (!metadata.isUnique()) {
+        Iterator<RecordId> rids = scanEqual(key);
+        return rids.hasNext() ? Optional.of(rids.next()) : Optional.empty();
+      }
+      LeafNode leaf = descend(key, false);
+      try {
+        return leaf.getKey(key);
+      } finally {
+        latch(leaf).readLock().unlock();
+      }
     }
 
     /**
@@ -165,10 +280,19 @@ public class BPlusTree {
      * instead of an Optional. That is, if get(k) returns Optional.empty(),
      * then scanEqual(k) returns an empty iterator. If get(k) returns
      * Optional.of(rid) for some rid, then scanEqual(k) returns an iterator
-     * over rid.
+     * over rid. If the tree is not unique, scanEqual(k) returns an iterator
+     * over every record id associated with k.
      */
     public Iterator<RecordId> scanEqual(DataBox key) {
       typecheck(key);
+      if (!metadata.isUnique()) {
+        LeafNode leaf = descend(key, false);
+        try {
+          return new BPlusTreeIterator<>(leaf, leaf.scanEqual(key), key, BPlusTree::scanRids);
+        } finally {
+          latch(leaf).readLock().unlock();
+        }
+      }
       Optional<RecordId> rid = get(key);
       if (rid.isPresent()) {
         ArrayList<RecordId> l = new ArrayList<>();
@@ -205,8 +329,12 @@ public class BPlusTree {
      * memory will receive 0 points.
      */
     public Iterator<RecordId> scanAll() {
-      LeafNode leaf = root.getLeftmostLeaf();
-      return new BPlusTreeIterator(leaf, leaf.scanAll());
+      LeafNode leaf = descend(null, false);
+      try {
+        return new BPlusTreeIterator<>(leaf, leaf.scanAll(), null, BPlusTree::scanRids);
+      } finally {
+        latch(leaf).readLock().unlock();
+      }
     }
 
     /**
@@ -235,13 +363,62 @@ public class BPlusTree {
      */
     public Iterator<RecordId> scanGreaterEqual(DataBox key) {
       typecheck(key);
-      LeafNode leaf = root.get(key);
-      return new BPlusTreeIterator(leaf, leaf.scanGreaterEqual(key));
+      LeafNode leaf = descend(key, false);
+      try {
+        return new BPlusTreeIterator<>(leaf, leaf.scanGreaterEqual(key), null,
+                                       BPlusTree::scanRids);
+      } finally {
+        latch(leaf).readLock().unlock();
+      }
+    }
+
+    /**
+     * Returns an iterator over all the RecordIds stored in the B+ tree whose
+     * keys are between `from` and `to`, inclusive, in ascending order of their
+     * keys. With keys encoded by CompositeKey, this is how prefixes of the
+     * indexed columns are looked up.
+     */
+    public Iterator<RecordId> scanRange(DataBox from, DataBox to) {
+      typecheck(from);
+      typecheck(to);
+      LeafNode leaf = descend(from, false);
+      try {
+        return new BPlusTreeIterator<>(leaf, leaf.scanRange(from, to), to, BPlusTree::scanRids);
+      } finally {
+        latch(leaf).readLock().unlock();
+      }
+    }
+
+    /**
+     * Returns an iterator over the (key, payload) pairs of the entries of the
+     * B+ tree whose keys are between `from` and `to`, inclusive, in ascending
+     * order of their keys. A null bound leaves its end of the range open. The
+     * tree must have a payload schema. Unlike the other scans, this reads only
+     * the leaves of the tree.
+     */
+    public Iterator<Pair<DataBox, DataBox>> scanPayloads(DataBox from, DataBox to) {
+      if (!metadata.getPayloadSchema().isPresent()) {
+        throw new IllegalArgumentException("The tree stores no payloads.");
+      }
+      if (from != null) {
+        typecheck(from);
+      }
+      if (to != null) {
+        typecheck(to);
+      }
+      LeafNode leaf = descend(from, false);
+      try {
+        return new BPlusTreeIterator<>(leaf, leaf.scanPayloads(from, to), to,
+                                       (l, last) -> l.scanPayloads(null, last));
+      } finally {
+        latch(leaf).readLock().unlock();
+      }
     }
 
     /**
      * Inserts a (key, rid) pair into a B+ tree. If the key already exists in
-     * the B+ tree, then the pair is not inserted and an exception is raised.
+     * the B+ tree, then the pair is not inserted and an exception is raised,
+     * unless the tree is not unique.
      *
      *   BPlusTree tree = new BPlusTree("t.txt", Type.intType(), 4);
      *   DataBox key = new IntDataBox(42);
@@ -250,53 +427,125 @@ public class BPlusTree {
      *   tree.put(key, rid); // BPlusTreeException :(
      */
     public void put(DataBox key, RecordId rid) throws BPlusTreeException {
+      if (metadata.getPayloadSchema().isPresent()) {
+        throw new IllegalArgumentException("The tree needs a payload with every entry.");
+      }
+      put(key, rid, Optional.empty());
+    }
+
+    /**
+     * Inserts a (key, rid) pair into a B+ tree, like put(key, rid), and stores
+     * `payload` with it. The tree must have a payload schema, which payload
+     * must be of.
+     */
+    public void put(DataBox key, RecordId rid, DataBox payload) throws BPlusTreeException {
+      Optional<Type> t = metadata.getPayloadSchema();
+      if (!t.isPresent() || !payload.type().equals(t.get())) {
+        String msg = String.format("DataBox %s is not of the payload type %s", payload, t);
+        throw new IllegalArgumentException(msg);
+      }
+      put(key, rid, Optional.of(payload));
+    }
+
+    private void put(DataBox key, RecordId rid, Optional<DataBox> payload)
+        throws BPlusTreeException {
       typecheck(key);
-      Optional<Pair<DataBox, Integer>> o = root.put(key, rid);
 
-      // If our root did not split, then we're done.
-      if (!o.isPresent()) {
-        return;
+      // Most inserts don't split their leaf, and only need to latch it.
+      LeafNode leaf = descend(key, true);
+      try {
+        if (!leaf.isFull()) {
+          leaf.put(key, rid, payload);
+          return;
+        }
+      } finally {
+        latch(leaf).writeLock().unlock();
       }
-      Pair<DataBox, Integer> p = o.get();
 
-      // If our root did split, then we have to create a new root node. For
-      // example, we might go from a B+ tree which looks like this:
-      //
-      //     +---+---+---+---+---+
-      //     | a | b | c | d | e |
-      //     +---+---+---+---+---+
-      //    /    |   |   |   |    \
-      //   0     1   2   3   4     5
-      //
-      // to a B+ tree that looks like this:
-      //
-      //              +---+
-      //              | c |
-      //              +---+
-      //             /     \
-      //     +---+---+     +---+---+
-      //     | a | b |     | d | e |
-      //     +---+---+     +---+---+
-      //    /    |    \   /    |    \
-      //   0     1     2 3     4     5
-      //
-      // Note that in this example, p = (c, page num of right child).
-      List<DataBox> keys = new ArrayList<>();
-      keys.add(p.getFirst());
+      // Otherwise, write-latch the path from the root to the leaf, releasing
+      // the latches above a node that is not full, since the split can't go
+      // above it. held is the stack of latches we still hold, and top is the
+      // highest node we hold a latch on.
+      Deque<Lock> held = new ArrayDeque<>();
+      rootLatch.writeLock().lock();
+      held.push(rootLatch.writeLock());
+      BPlusNode top = null;
+      try {
+        int pageNum = rootPageNum;
+        while (true) {
+          Lock latch = latch(pageNum).writeLock();
+          latch.lock();
+          BPlusNode node = BPlusNode.fromBytes(metadata, pageNum);
+          if (!node.isFull()) {
+            while (!held.isEmpty()) {
+              held.pop().unlock();
+            }
+          }
+          held.push(latch);
+          if (top == null || held.size() == 1) {
+            top = node;
+          }
+          if (node instanceof LeafNode) {
+            break;
+          }
+          pageNum = ((InnerNode) node).getChildPageNum(key);
+        }
 
-      List<Integer> children = new ArrayList<>();
-      children.add(root.getPage().getPageNum());
-      children.add(p.getSecond());
+        Optional<Pair<DataBox, Integer>> o = top.put(key, rid, payload);
 
-      InnerNode inner = new InnerNode(metadata, keys, children);
-      this.root = inner;
-      writeHeader(headerPage.getByteBuffer());
+        // If our root did not split, then we're done.
+        if (!o.isPresent()) {
+          return;
+        }
+        assert(top.getPage().getPageNum() == rootPageNum);
+        assert(rootLatch.isWriteLockedByCurrentThread());
+        Pair<DataBox, Integer> p = o.get();
+
+        // If our root did split, then we have to create a new root node. For
+        // example, we might go from a B+ tree which looks like this:
+        //
+        //     +---+---+---+---+---+
+        //     | a | b | c | d | e |
+        //     +---+---+---+---+---+
+        //    /    |   |   |   |    \
+        //   0     1   2   3   4     5
+        //
+        // to a B+ tree that looks like this:
+        //
+        //              +---+
+        //              | c |
+        //              +---+
+        //             /     \
+        //     +---+---+     +---+---+
+        //     | a | b |     | d | e |
+        //     +---+---+     +---+---+
+        //    /    |    \   /    |    \
+        //   0     1     2 3     4     5
+        //
+        // Note that in this example, p = (c, page num of right child).
+        List<DataBox> keys = new ArrayList<>();
+        keys.add(p.getFirst());
+
+        List<Integer> children = new ArrayList<>();
+        children.add(rootPageNum);
+        children.add(p.getSecond());
+
+        InnerNode inner = new InnerNode(metadata, keys, children);
+        this.rootPageNum = inner.getPage().getPageNum();
+        writeHeader(headerPage.getByteBuffer());
+        headerPage.markDirty();
+      } finally {
+        while (!held.isEmpty()) {
+          held.pop().unlock();
+        }
+      }
     }
 
     /**
      * Bulk loads data into the B+ tree. Tree should be empty and the data
      * iterator should be in sorted order (by the DataBox key field) and
-     * contain no duplicates (no error checking is done for this).
+     * contain no duplicates unless the tree is not unique (no error checking
+     * is done for this).
      *
      * fillFactor specifies the fill factor for leaves only; inner nodes should
      * be filled up to full and split in half exactly like in put.
@@ -309,27 +558,38 @@ public class BPlusTree {
      * bulkLoad (see comments in BPlusNode.bulkLoad).
      */
     public void bulkLoad(Iterator<Pair<DataBox, RecordId>> data, float fillFactor) throws BPlusTreeException {
-      LeafNode left = this.root.getLeftmostLeaf();
-      if (left != this.root || left.scanAll().hasNext()) {
-        throw new BPlusTreeException("cannot bulk load into nonempty tree");
-      }
-      while (data.hasNext()) {
-        Optional<Pair<DataBox, Integer>> o = this.root.bulkLoad(data, fillFactor);
-        if (o.isPresent()) {
-          Pair<DataBox, Integer> p = o.get();
+      // The tree is empty, so its only node is the root. Latching it keeps
+      // every other operation out until the tree is loaded.
+      rootLatch.writeLock().lock();
+      Lock rootPageLatch = latch(rootPageNum).writeLock();
+      rootPageLatch.lock();
+      try {
+        BPlusNode root = BPlusNode.fromBytes(metadata, rootPageNum);
+        if (!(root instanceof LeafNode) || root.getLeftmostLeaf().scanAll().hasNext()) {
+          throw new BPlusTreeException("cannot bulk load into nonempty tree");
+        }
+        while (data.hasNext()) {
+          Optional<Pair<DataBox, Integer>> o = root.bulkLoad(data, fillFactor);
+          if (o.isPresent()) {
+            Pair<DataBox, Integer> p = o.get();
 
-          List<DataBox> keys = new ArrayList<>();
-          keys.add(p.getFirst());
+            List<DataBox> keys = new ArrayList<>();
+            keys.add(p.getFirst());
 
-          List<Integer> children = new ArrayList<>();
-          children.add(root.getPage().getPageNum());
-          children.add(p.getSecond());
+            List<Integer> children = new ArrayList<>();
+            children.add(root.getPage().getPageNum());
+            children.add(p.getSecond());
 
-          InnerNode inner = new InnerNode(metadata, keys, children);
-          this.root = inner;
+            root = new InnerNode(metadata, keys, children);
+          }
         }
+        this.rootPageNum = root.getPage().getPageNum();
+        writeHeader(headerPage.getByteBuffer());
+        headerPage.markDirty();
+      } finally {
+        rootPageLatch.unlock();
+        rootLatch.writeLock().unlock();
       }
-      writeHeader(headerPage.getByteBuffer());
     }
 
     /**
@@ -343,10 +603,51 @@ public class BPlusTree {
      *   tree.get(key); // Optional.of(rid)
      *   tree.remove(key);
      *   tree.get(key); // Optional.empty()
+     *
+     * If the tree is not unique, every pair with key `key` is removed.
      */
     public void remove(DataBox key) {
       typecheck(key);
-      root.remove(key);
+      remove(key, Optional.empty());
+    }
+
+    /**
+     * Deletes the pair (key, rid) from a B+ tree, if it has it. Unlike
+     * remove(key), this leaves the other pairs with key `key` of a tree that
+     * is not unique alone.
+     */
+    public void remove(DataBox key, RecordId rid) {
+      typecheck(key);
+      remove(key, Optional.of(rid));
+    }
+
+    // Removes the pair (key, rid), or every pair with key `key` if rid is
+    // empty. Removing never restructures the tree, so only leaves are latched.
+    // If the tree is not unique, the pairs may be spread over several leaves,
+    // which we move right through by latch coupling.
+    private void remove(DataBox key, Optional<RecordId> rid) {
+      LeafNode leaf = descend(key, true);
+      Lock latch = latch(leaf).writeLock();
+      try {
+        while (true) {
+          if (!rid.isPresent()) {
+            leaf.remove(key);
+          } else if (leaf.remove(key, rid.get())) {
+            return;
+          }
+          Optional<Integer> sibling = leaf.getRightSiblingPageNum();
+          if (metadata.isUnique() || leaf.hasKeyGreaterThan(key) || !sibling.isPresent()) {
+            return;
+          }
+          Lock next = latch(sibling.get()).writeLock();
+          next.lock();
+          latch.unlock();
+          latch = next;
+          leaf = LeafNode.fromBytes(metadata, sibling.get());
+        }
+      } finally {
+        latch.unlock();
+      }
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -355,7 +656,7 @@ public class BPlusTree {
      * more information.
      */
     public String toSexp() {
-      return root.toSexp();
+      return getRoot().toSexp();
     }
 
     /**
@@ -374,7 +675,7 @@ public class BPlusTree {
       List<String> strings = new ArrayList<>();
       strings.add("digraph g {" );
       strings.add("  node [shape=record, height=0.1];");
-      strings.add(root.toDot());
+      strings.add(getRoot().toDot());
       strings.add("}");
       return String.join("\n", strings);
     }
@@ -389,7 +690,7 @@ public class BPlusTree {
       List<String> strings = new ArrayList<>();
       strings.add("digraph g {" );
       strings.add("  node [shape=record, height=0.1];");
-      strings.add(root.toDot());
+      strings.add(getRoot().toDot());
       strings.add("}");
       String tree_string = String.join("\n", strings);
       
@@ -423,16 +724,115 @@ public class BPlusTree {
       return Math.min(leafOrder, innerOrder);
     }
 
+    /**
+     * Returns the largest number d such that the serialization of a LeafNode
+     * with 2d entries with payloads of type `payloadSchema` and an InnerNode
+     * with 2d keys will fit on a single page of size `pageSizeInBytes`.
+     */
+    public static int maxOrder(int pageSizeInBytes, Type keySchema, Type payloadSchema) {
+      int leafOrder = LeafNode.maxOrder(pageSizeInBytes, keySchema, Optional.of(payloadSchema));
+      int innerOrder = InnerNode.maxOrder(pageSizeInBytes, keySchema);
+      return Math.min(leafOrder, innerOrder);
+    }
+
+    /** Returns whether every key of the tree is distinct. */
+    public boolean isUnique() {
+      return metadata.isUnique();
+    }
+
+    /** Returns the type of the payloads of the tree, if it has any. */
+    public Optional<Type> getPayloadSchema() {
+      return metadata.getPayloadSchema();
+    }
+
     /** Returns the number of pages used to serialize the tree. */
     public int getNumPages() {
       return metadata.getAllocator().getNumPages();
     }
 
+    /**
+     * Flushes the tree to disk and releases its file. The tree may not be
+     * used after it is closed.
+     */
+    public void close() {
+      metadata.getAllocator().close();
+    }
+
     /** Serializes the header page to buf. */
     private void writeHeader(ByteBuffer buf) {
       buf.put(metadata.getKeySchema().toBytes());
       buf.putInt(metadata.getOrder());
-      buf.putInt(root.getPage().getPageNum());
+      buf.putInt(rootPageNum);
+      // Trees written before trees could be non-unique have a 0 here, since
+      // pages are allocated zeroed.
+      buf.put((byte) (metadata.isUnique() ? 0 : 1));
+      // Likewise, older trees have a 0 here, for no payload schema.
+      Optional<Type> payloadSchema = metadata.getPayloadSchema();
+      buf.put((byte) (payloadSchema.isPresent() ? 1 : 0));
+      if (payloadSchema.isPresent()) {
+        buf.put(payloadSchema.get().toBytes());
+      }
+    }
+
+    /**
+     * Loads the root, without latching anything. Only for printing the tree,
+     * which must not be modified in the meantime.
+     */
+    private BPlusNode getRoot() {
+      rootLatch.readLock().lock();
+      try {
+        return BPlusNode.fromBytes(metadata, rootPageNum);
+      } finally {
+        rootLatch.readLock().unlock();
+      }
+    }
+
+    private ReentrantReadWriteLock latch(int pageNum) {
+      return latches.computeIfAbsent(pageNum, p -> new ReentrantReadWriteLock());
+    }
+
+    private ReentrantReadWriteLock latch(BPlusNode node) {
+      return latch(node.getPage().getPageNum());
+    }
+
+    /**
+     * Returns whether page pageNum holds a leaf. A node never changes type,
+     * so this needs no latch.
+     */
+    private boolean isLeaf(int pageNum) {
+      Page page = metadata.getAllocator().fetchPage(pageNum);
+      return page.getReadOnlyByteBuffer().get(0) == (byte) 1;
+    }
+
+    /**
+     * Descends from the root to the leaf on which key may reside (see
+     * BPlusNode.get), or to the leftmost leaf if key is null, by latch
+     * coupling. The inner nodes are read-latched, and the leaf is
+     * write-latched if write is true and read-latched otherwise. The leaf is
+     * returned still latched, and the caller must unlatch it.
+     */
+    private LeafNode descend(DataBox key, boolean write) {
+      Lock parent = rootLatch.readLock();
+      parent.lock();
+      int pageNum = rootPageNum;
+      while (true) {
+        boolean leaf = isLeaf(pageNum);
+        Lock latch = leaf && write ? latch(pageNum).writeLock() : latch(pageNum).readLock();
+        latch.lock();
+        parent.unlock();
+        if (leaf) {
+          return LeafNode.fromBytes(metadata, pageNum);
+        }
+        InnerNode inner = InnerNode.fromBytes(metadata, pageNum);
+        pageNum = key == null ? inner.getChildren().get(0) : inner.getChildPageNum(key);
+        parent = latch;
+      }
+    }
+
+    // Scans the record ids of leaf whose keys are at most last (or all of
+    // them, if last is null); see BPlusTreeIterator.
+    private static Iterator<RecordId> scanRids(LeafNode leaf, DataBox last) {
+      return last == null ? leaf.scanAll() : leaf.scanLessEqual(last);
     }
 
     private void typecheck(DataBox key) {
@@ -444,31 +844,55 @@ public class BPlusTree {
     }
 
     // Iterator ////////////////////////////////////////////////////////////////
-    private class BPlusTreeIterator implements Iterator<RecordId> {
+    private class BPlusTreeIterator<T> implements Iterator<T> {
       // A BPlusTreeIterator iterates over the entries of a B+ tree leaf by
       // leaf. We maintain the following invariants:
       //
       //   - leaf is null if and only if iter is null
       //   - iter is not null if and only if iter.hasNext()
+      //
+      // If last is not null, the iterator stops at the last entry whose key
+      // is less than or equal to last. scan(l, last) returns what the
+      // iterator returns of the entries of leaf l (e.g. their record ids)
+      // whose keys are at most last, or of all of them if last is null.
       private LeafNode leaf;
-      private Iterator<RecordId> iter;
+      private Iterator<T> iter;
+      private DataBox last;
+      private BiFunction<LeafNode, DataBox, Iterator<T>> scan;
 
-      public BPlusTreeIterator(LeafNode leaf, Iterator<RecordId> iter) {
+      public BPlusTreeIterator(LeafNode leaf, Iterator<T> iter, DataBox last,
+                               BiFunction<LeafNode, DataBox, Iterator<T>> scan) {
         assert(leaf != null);
         assert(iter != null);
         this.leaf = leaf;
         this.iter = iter;
+        this.last = last;
+        this.scan = scan;
 
         if (!this.iter.hasNext()) {
           advance();
         }
       }
 
+      // Moves to the next leaf. Like every leaf the iterator visits, it is
+      // loaded under a read latch, and iterated over after the latch is
+      // released. If the leaf we just finished has split since we loaded it,
+      // the entries that moved to the new leaf were already returned, and we
+      // skip the new leaf by following the right sibling pointer we loaded.
       private void advance() {
-        Optional<LeafNode> sibling = leaf.getRightSibling();
+        Optional<Integer> sibling = leaf.getRightSiblingPageNum();
+        if (last != null && leaf.hasKeyGreaterThan(last)) {
+          sibling = Optional.empty();
+        }
         if (sibling.isPresent()) {
-          this.leaf = sibling.get();
-          this.iter = this.leaf.scanAll();
+          Lock latch = latch(sibling.get()).readLock();
+          latch.lock();
+          try {
+            this.leaf = LeafNode.fromBytes(metadata, sibling.get());
+          } finally {
+            latch.unlock();
+          }
+          this.iter = scan.apply(this.leaf, last);
           if (!this.iter.hasNext()) {
             advance();
           }
@@ -484,7 +908,7 @@ public class BPlusTree {
       }
 
       @Override
-      public RecordId next() {
+      public T next() {
         if (!hasNext()) {
           throw new NoSuchElementException();
         }
@@ -492,11 +916,11 @@ public class BPlusTree {
         assert(iter != null);
         assert(iter.hasNext());
 
-        RecordId rid = iter.next();
+        T t = iter.next();
         if (!iter.hasNext()) {
           advance();
         }
-        return rid;
+        return t;
       }
     }
 }
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.index;
 
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.PageAllocator;
 
@@ -20,10 +23,42 @@ class BPlusTreeMetadata {
   // may contain fewer than d entries.
   private final int order;
 
+  // Whether every key of the tree is distinct. A tree that is not unique may
+  // hold several entries with the same key (see BPlusTree for how it finds
+  // them).
+  private final boolean unique;
+
+  // The type of the payloads that the leaves store with each entry, if they
+  // store any. A tree whose leaves store payloads (e.g. the values of the
+  // columns a covering index includes) can answer a scan from its leaves
+  // alone, without fetching the records the record ids point to.
+  private final Optional<Type> payloadSchema;
+
+  // The decoded inner nodes of the tree, keyed by page number, so that
+  // descending the tree doesn't deserialize every inner node it passes (see
+  // InnerNode.fromBytes). An inner node puts itself here whenever it writes
+  // its page, so the cached node of a page always matches the page. Leaves
+  // are not cached: there are many more of them, and they change far more
+  // often.
+  private final ConcurrentHashMap<Integer, InnerNode> innerNodes;
+
   public BPlusTreeMetadata(PageAllocator allocator, Type keySchema, int order) {
+    this(allocator, keySchema, order, true);
+  }
+
+  public BPlusTreeMetadata(PageAllocator allocator, Type keySchema, int order,
+                           boolean unique) {
+    this(allocator, keySchema, order, unique, Optional.empty());
+  }
+
+  public BPlusTreeMetadata(PageAllocator allocator, Type keySchema, int order,
+                           boolean unique, Optional<Type> payloadSchema) {
     this.allocator = allocator;
     this.keySchema = keySchema;
     this.order = order;
+    this.unique = unique;
+    this.payloadSchema = payloadSchema;
+    this.innerNodes = new ConcurrentHashMap<>();
   }
 
   public PageAllocator getAllocator() {
@@ -37,4 +72,16 @@ class BPlusTreeMetadata {
   public int getOrder() {
     return order;
   }
+
+  public boolean isUnique() {
+    return unique;
+  }
+
+  public Optional<Type> getPayloadSchema() {
+    return payloadSchema;
+  }
+
+  ConcurrentHashMap<Integer, InnerNode> getInnerNodes() {
+    return innerNodes;
+  }
 }
@@ -0,0 +1,168 @@
+package edu.berkeley.cs186.database.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.BytesDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * Encodes the values of several columns into a single key for a B+ tree, so
+ * that a B+ tree can index an ordered list of columns. The key of a list of
+ * values of types [t1, ..., tn] is a BytesDataBox of
+ * t1.getSizeInBytes() + ... + tn.getSizeInBytes() bytes: the encodings of the
+ * values, one after the other. Every value is encoded to exactly as many bytes
+ * as its type, in such a way that comparing encodings byte by byte (like
+ * memcmp) orders them like the values:
+ *
+ *   - a boolean is 0 for false and 1 for true,
+ *   - an integer is big-endian with its sign bit flipped, so that negative
+ *     integers come before positive ones,
+ *   - a float is big-endian with its sign bit flipped if it is positive and
+ *     all of its bits flipped if it is negative, so that more negative floats
+ *     come first, and
+ *   - a string is its bytes, which are ASCII (see StringDataBox).
+ *
+ * Since every value has a fixed width, keys compare like the lists of values
+ * they encode, column by column. In particular, all the keys whose first k
+ * values are v1, ..., vk lie between lowerBound([v1, ..., vk]) and
+ * upperBound([v1, ..., vk]), which is how an index on columns [a, b] serves
+ * lookups on a alone, and range scans on b for a given a.
+ *
+ *   List<Type> types = Arrays.asList(Type.intType(), Type.intType());
+ *   BPlusTree tree = new BPlusTree("t.txt", CompositeKey.type(types), 4);
+ *   tree.put(CompositeKey.encode(Arrays.asList(new IntDataBox(1),
+ *                                              new IntDataBox(2))), rid);
+ *   List<DataBox> prefix = Arrays.asList(new IntDataBox(1));
+ *   tree.scanRange(CompositeKey.lowerBound(prefix, types),
+ *                  CompositeKey.upperBound(prefix, types)); // [rid]
+ */
+public class CompositeKey {
+  private CompositeKey() {}
+
+  /**
+   * Returns the type of the keys of values of types `types`.
+   */
+  public static Type type(List<Type> types) {
+    int size = 0;
+    for (Type t : types) {
+      size += t.getSizeInBytes();
+    }
+    return Type.bytesType(size);
+  }
+
+  /**
+   * Returns the key of `values`.
+   */
+  public static BytesDataBox encode(List<DataBox> values) {
+    int size = 0;
+    for (DataBox value : values) {
+      size += value.type().getSizeInBytes();
+    }
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    for (DataBox value : values) {
+      encode(value, buf);
+    }
+    return new BytesDataBox(buf.array());
+  }
+
+  /**
+   * Returns the smallest key of values of types `types` that starts with
+   * `prefix`, whose values must be of the first prefix.size() types.
+   */
+  public static BytesDataBox lowerBound(List<DataBox> prefix, List<Type> types) {
+    return bound(prefix, types, (byte) 0);
+  }
+
+  /**
+   * Returns the largest key of values of types `types` that starts with
+   * `prefix`, whose values must be of the first prefix.size() types.
+   */
+  public static BytesDataBox upperBound(List<DataBox> prefix, List<Type> types) {
+    return bound(prefix, types, (byte) 0xFF);
+  }
+
+  /**
+   * Returns the values of types `types` that `key` encodes.
+   */
+  public static List<DataBox> decode(DataBox key, List<Type> types) {
+    ByteBuffer buf = ByteBuffer.wrap(key.getBytes());
+    List<DataBox> values = new ArrayList<>();
+    for (Type t : types) {
+      values.add(decode(buf, t));
+    }
+    return values;
+  }
+
+  private static BytesDataBox bound(List<DataBox> prefix, List<Type> types, byte fill) {
+    ByteBuffer buf = ByteBuffer.allocate(type(types).getSizeInBytes());
+    for (int i = 0; i < prefix.size(); ++i) {
+      if (!prefix.get(i).type().equals(types.get(i))) {
+        String msg = String.format("DataBox %s is not of type %s", prefix.get(i), types.get(i));
+        throw new IllegalArgumentException(msg);
+      }
+      encode(prefix.get(i), buf);
+    }
+    Arrays.fill(buf.array(), buf.position(), buf.limit(), fill);
+    return new BytesDataBox(buf.array());
+  }
+
+  private static void encode(DataBox value, ByteBuffer buf) {
+    switch (value.type().getTypeId()) {
+      case BOOL: {
+        buf.put(value.getBool() ? (byte) 1 : (byte) 0);
+        break;
+      }
+      case INT: {
+        buf.putInt(value.getInt() ^ Integer.MIN_VALUE);
+        break;
+      }
+      case FLOAT: {
+        int bits = Float.floatToIntBits(value.getFloat());
+        buf.putInt(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE);
+        break;
+      }
+      case STRING: {
+        buf.put(value.toBytes());
+        break;
+      }
+      default: {
+        String err = String.format("Cannot encode a key of type %s.", value.type());
+        throw new IllegalArgumentException(err);
+      }
+    }
+  }
+
+  private static DataBox decode(ByteBuffer buf, Type t) {
+    switch (t.getTypeId()) {
+      case BOOL: {
+        return new BoolDataBox(buf.get() == 1);
+      }
+      case INT: {
+        return new IntDataBox(buf.getInt() ^ Integer.MIN_VALUE);
+      }
+      case FLOAT: {
+        int bits = buf.getInt();
+        return new FloatDataBox(Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits));
+      }
+      case STRING: {
+        byte[] bytes = new byte[t.getSizeInBytes()];
+        buf.get(bytes);
+        return new StringDataBox(new String(bytes, Charset.forName("UTF-8")), t.getSizeInBytes());
+      }
+      default: {
+        String err = String.format("Cannot decode a key of type %s.", t);
+        throw new IllegalArgumentException(err);
+      }
+    }
+  }
+}
@@ -43,16 +43,21 @@ class InnerNode extends BPlusNode {
   // Constructors //////////////////////////////////////////////////////////////
   /**
    * Construct a brand new inner node. The inner node will be persisted on a
-   * brand new page allocated by metadata.getAllocator().
+   * brand new page allocated by metadata.getAllocator(). keys and children
+   * are copied.
    */
   public InnerNode(BPlusTreeMetadata metadata, List<DataBox> keys,
                    List<Integer> children) {
-    this(metadata, metadata.getAllocator().allocPage(), keys, children);
+    this(metadata, metadata.getAllocator().allocPage(), new ArrayList<>(keys),
+         new ArrayList<>(children));
+    sync();
   }
 
   /**
    * Construct an inner node that is persisted to page `pageNum` allocated by
-   * metadata.getAllocator().
+   * metadata.getAllocator(). The page is not written: this is how fromBytes
+   * loads an inner node, possibly with only a read latch on its page (see
+   * BPlusTree).
    */
   private InnerNode(BPlusTreeMetadata metadata, int pageNum, List<DataBox> keys,
                     List<Integer> children) {
@@ -63,14 +68,13 @@ class InnerNode extends BPlusNode {
     this.page = metadata.getAllocator().fetchPage(pageNum);
     this.keys = keys;
     this.children = children;
-    sync();
   }
 
   // Core API //////////////////////////////////////////////////////////////////
   // See BPlusNode.get.
   @Override
   public LeafNode get(DataBox key) {
-    int index = numLessThanEqual(key, keys);
+    int index = childIndex(key);
     BPlusNode child = getChild(index);
     return child.get(key);
   }
@@ -85,11 +89,12 @@ class InnerNode extends BPlusNode {
 
   // See BPlusNode.put.
   @Override
-  public Optional<Pair<DataBox, Integer>> put(DataBox key, RecordId rid)
+  public Optional<Pair<DataBox, Integer>> put(DataBox key, RecordId rid,
+                                              Optional<DataBox> payload)
       throws BPlusTreeException {
-    int index = numLessThanEqual(key, keys);
+    int index = childIndex(key);
     BPlusNode child = getChild(index);
-    Optional<Pair<DataBox, Integer>> o = child.put(key, rid);
+    Optional<Pair<DataBox, Integer>> o = child.put(key, rid, payload);
 
     // If our child didn't split, then we don't have to do anything.
     if (!o.isPresent()) {
@@ -150,14 +155,21 @@ class InnerNode extends BPlusNode {
     // Create right node.
     InnerNode n = new InnerNode(metadata, rightKeys, rightChildren);
 
-    // Update left node.
-    this.keys = leftKeys;
-    this.children = leftChildren;
+    // Update left node. We copy the sublists, since this node may be cached
+    // (see fromBytes) and must not share its lists with the right node.
+    this.keys = new ArrayList<>(leftKeys);
+    this.children = new ArrayList<>(leftChildren);
     sync();
 
     return Optional.of(new Pair<>(middleKey, n.getPage().getPageNum()));
   }
 
+  // See BPlusNode.isFull.
+  @Override
+  boolean isFull() {
+    return keys.size() >= 2 * metadata.getOrder();
+  }
+
   // See BPlusNode.bulkLoad.
   @Override
   public Optional<Pair<DataBox, Integer>> bulkLoad(Iterator<Pair<DataBox, RecordId>> data,
@@ -189,9 +201,9 @@ class InnerNode extends BPlusNode {
     // Create right node.
     InnerNode n = new InnerNode(metadata, rightKeys, rightChildren);
 
-    // Update left node.
-    this.keys = leftKeys;
-    this.children = leftChildren;
+    // Update left node (see put).
+    this.keys = new ArrayList<>(leftKeys);
+    this.children = new ArrayList<>(leftChildren);
     sync();
 
     return Optional.of(new Pair<>(middleKey, n.getPage().getPageNum()));
@@ -200,7 +212,7 @@ class InnerNode extends BPlusNode {
   // See BPlusNode.remove.
   @Override
   public void remove(DataBox key) {
-    int index = numLessThanEqual(key, keys);
+    int index = childIndex(key);
     BPlusNode child = getChild(index);
     child.remove(key);
   }
@@ -211,6 +223,26 @@ class InnerNode extends BPlusNode {
     return page;
   }
 
+  /**
+   * Returns the page number of the child on whose subtree key may reside (see
+   * get), without loading the child.
+   */
+  int getChildPageNum(DataBox key) {
+    return children.get(childIndex(key));
+  }
+
+  // Returns the index of the child on whose subtree key may reside. In a unique
+  // tree, that is the only child with entries with key `key`. A tree that is
+  // not unique may also have such entries in the children to the right of it,
+  // e.g. when a leaf full of entries with the same key splits, so we go to the
+  // leftmost one (see BPlusTree).
+  private int childIndex(DataBox key) {
+    if (metadata.isUnique()) {
+      return numLessThanEqual(key, keys);
+    }
+    return numLessThan(key, keys);
+  }
+
   private BPlusNode getChild(int i) {
     int pageNum = children.get(i);
     return BPlusNode.fromBytes(metadata, pageNum);
@@ -218,6 +250,8 @@ class InnerNode extends BPlusNode {
 
   private void sync() {
     page.getByteBuffer().put(toBytes());
+    page.markDirty();
+    metadata.getInnerNodes().put(page.getPageNum(), this);
   }
 
   // Just for testing.
@@ -289,28 +323,33 @@ class InnerNode extends BPlusNode {
    * a, b, c).
    */
   public static <T extends Comparable<T>> int numLessThanEqual(T x, List<T> ys) {
-    int n = 0;
-    for (T y : ys) {
-      if (y.compareTo(x) <= 0) {
-        ++n;
+    // ys is sorted, so we binary search for the first y > x.
+    int lo = 0;
+    int hi = ys.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (ys.get(mid).compareTo(x) <= 0) {
+        lo = mid + 1;
       } else {
-        break;
+        hi = mid;
       }
     }
-    return n;
+    return lo;
   }
 
   /** Same as numLessThanEqual but for < instead of <= */
   public static <T extends Comparable<T>> int numLessThan(T x, List<T> ys) {
-    int n = 0;
-    for (T y : ys) {
-      if (y.compareTo(x) < 0) {
-        ++n;
+    int lo = 0;
+    int hi = ys.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (ys.get(mid).compareTo(x) < 0) {
+        lo = mid + 1;
       } else {
-        break;
+        hi = mid;
       }
     }
-    return n;
+    return lo;
   }
 
   // Pretty Printing ///////////////////////////////////////////////////////////
@@ -414,11 +453,23 @@ class InnerNode extends BPlusNode {
 
   /**
    * InnerNode.fromBytes(m, p) loads a InnerNode from page p of
-   * meta.getAllocator().
+   * meta.getAllocator(). Decoded inner nodes are cached in m (see
+   * BPlusTreeMetadata), so loading the same page again returns the same
+   * InnerNode without reading the page.
    */
   public static InnerNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
+    InnerNode cached = metadata.getInnerNodes().get(pageNum);
+    if (cached != null) {
+      return cached;
+    }
+    InnerNode node = decode(metadata, pageNum);
+    cached = metadata.getInnerNodes().putIfAbsent(pageNum, node);
+    return cached != null ? cached : node;
+  }
+
+  private static InnerNode decode(BPlusTreeMetadata metadata, int pageNum) {
     Page page = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = page.getByteBuffer();
+    ByteBuffer buf = page.getReadOnlyByteBuffer();
 
     assert(buf.get() == (byte) 0);
 
@@ -96,6 +96,11 @@ class LeafNode extends BPlusNode {
   private List<DataBox> keys;
   private List<RecordId> rids;
 
+  // If the tree stores payloads (see BPlusTreeMetadata.getPayloadSchema), the
+  // payload at index i is stored with the key and record id at index i.
+  // Otherwise, payloads is empty.
+  private List<DataBox> payloads;
+
   // If this leaf is the rightmost leaf, then rightSibling is Optional.empty().
   // Otherwise, rightSibling is Optional.of(n) where n is the page number of
   // this leaf's right sibling.
@@ -108,24 +113,40 @@ class LeafNode extends BPlusNode {
    */
   public LeafNode(BPlusTreeMetadata metadata, List<DataBox> keys,
                   List<RecordId> rids, Optional<Integer> rightSibling) {
-    this(metadata, metadata.getAllocator().allocPage(), keys, rids,
+    this(metadata, keys, rids, new ArrayList<>(), rightSibling);
+  }
+
+  /**
+   * Construct a brand new leaf node, like LeafNode(metadata, keys, rids,
+   * rightSibling), of a tree that stores payloads. The payload at index i
+   * belongs to the entry at index i.
+   */
+  public LeafNode(BPlusTreeMetadata metadata, List<DataBox> keys,
+                  List<RecordId> rids, List<DataBox> payloads,
+                  Optional<Integer> rightSibling) {
+    this(metadata, metadata.getAllocator().allocPage(), keys, rids, payloads,
          rightSibling);
+    sync();
   }
 
   /**
    * Construct a leaf node that is persisted to page `pageNum` allocated by
-   * metadata.getAllocator().
+   * metadata.getAllocator(). The page is not written: this is how fromBytes
+   * loads a leaf, possibly with only a read latch on its page (see
+   * BPlusTree).
    */
   private LeafNode(BPlusTreeMetadata metadata, int pageNum, List<DataBox> keys,
-                   List<RecordId> rids, Optional<Integer> rightSibling) {
+                   List<RecordId> rids, List<DataBox> payloads,
+                   Optional<Integer> rightSibling) {
     assert(keys.size() == rids.size());
+    assert(payloads.size() == (hasPayloads(metadata) ? keys.size() : 0));
 
     this.metadata = metadata;
     this.page = metadata.getAllocator().fetchPage(pageNum);
     this.keys = keys;
     this.rids = rids;
+    this.payloads = payloads;
     this.rightSibling = rightSibling;
-    sync();
   }
 
   // Core API //////////////////////////////////////////////////////////////////
@@ -143,10 +164,13 @@ class LeafNode extends BPlusNode {
 
   // See BPlusNode.put.
   @Override
-  public Optional<Pair<DataBox, Integer>> put(DataBox key, RecordId rid)
+  public Optional<Pair<DataBox, Integer>> put(DataBox key, RecordId rid,
+                                              Optional<DataBox> payload)
       throws BPlusTreeException {
-    // Our implementation of B+ trees does not support duplicates!
-    if (keys.contains(key)) {
+    assert(payload.isPresent() == hasPayloads(metadata));
+
+    // Unique B+ trees do not support duplicates!
+    if (metadata.isUnique() && keys.contains(key)) {
       String message = String.format("Duplicate key %s inserted.", key);
       throw new BPlusTreeException(message);
     }
@@ -164,10 +188,14 @@ class LeafNode extends BPlusNode {
     //   | k1:r1 | k2:r2 | k3:r3 | k4:r4 | k5:r5 |
     //   +-------+-------+-------+-------+-------+
     //
-    // In this example, put was called with key k4 and record id r4.
+    // In this example, put was called with key k4 and record id r4. If the
+    // leaf already has entries with key k4, the new entry goes after them.
     int index = InnerNode.numLessThanEqual(key, keys);
     keys.add(index, key);
     rids.add(index, rid);
+    if (payload.isPresent()) {
+      payloads.add(index, payload.get());
+    }
 
     // If we can accommodate the new key and record id (i.e. the number of
     // entries does not exceed 2d), then we're done (just don't forget to
@@ -194,20 +222,30 @@ class LeafNode extends BPlusNode {
     List<DataBox> rightKeys = keys.subList(d, 2*d + 1);
     List<RecordId> leftRids  = rids.subList(0, d);
     List<RecordId> rightRids  = rids.subList(d, 2*d + 1);
+    List<DataBox> leftPayloads = payloads.subList(0, Math.min(d, payloads.size()));
+    List<DataBox> rightPayloads = payloads.subList(leftPayloads.size(), payloads.size());
 
     // Create right node.
-    LeafNode n = new LeafNode(metadata, rightKeys, rightRids, rightSibling);
+    LeafNode n = new LeafNode(metadata, rightKeys, rightRids, rightPayloads,
+                              rightSibling);
     int pageNum = n.getPage().getPageNum();
 
     // Update left node.
     this.keys = leftKeys;
     this.rids = leftRids;
+    this.payloads = leftPayloads;
     this.rightSibling = Optional.of(pageNum);
     sync();
 
     return Optional.of(new Pair<>(rightKeys.get(0), pageNum));
   }
 
+  // See BPlusNode.isFull.
+  @Override
+  boolean isFull() {
+    return keys.size() >= 2 * metadata.getOrder();
+  }
+
   // See BPlusNode.bulkLoad.
   @Override
   public Optional<Pair<DataBox, Integer>> bulkLoad(Iterator<Pair<DataBox, RecordId>> data,
@@ -217,6 +255,9 @@ class LeafNode extends BPlusNode {
     if (fillFactor * 2 * d <= 0) {
       throw new BPlusTreeException("Cannot bulk-load to empty leaves.");
     }
+    if (hasPayloads(metadata)) {
+      throw new BPlusTreeException("Cannot bulk-load entries without payloads.");
+    }
 
     int numKeys = (int) Math.ceil(2 * d * fillFactor);
     for (int i = keys.size(); i < numKeys && data.hasNext(); ++i) {
@@ -247,15 +288,40 @@ class LeafNode extends BPlusNode {
     return Optional.of(new Pair<>(rightKeys.get(0), pageNum));
   }
 
-  // See BPlusNode.remove.
+  // See BPlusNode.remove. Every entry of this leaf with key `key` is removed.
   @Override
   public void remove(DataBox key) {
-    int index = keys.indexOf(key);
-    if (index != -1) {
-      keys.remove(index);
-      rids.remove(index);
+    int from = InnerNode.numLessThan(key, keys);
+    int to = InnerNode.numLessThanEqual(key, keys);
+    if (from < to) {
+      keys.subList(from, to).clear();
+      rids.subList(from, to).clear();
+      if (!payloads.isEmpty()) {
+        payloads.subList(from, to).clear();
+      }
+      sync();
     }
-    sync();
+  }
+
+  /**
+   * Removes the entry (key, rid) from this leaf, if it has one.
+   *
+   * @return whether the entry was removed
+   */
+  public boolean remove(DataBox key, RecordId rid) {
+    int to = InnerNode.numLessThanEqual(key, keys);
+    for (int i = InnerNode.numLessThan(key, keys); i < to; ++i) {
+      if (rids.get(i).equals(rid)) {
+        keys.remove(i);
+        rids.remove(i);
+        if (!payloads.isEmpty()) {
+          payloads.remove(i);
+        }
+        sync();
+        return true;
+      }
+    }
+    return false;
   }
 
   // Iterators /////////////////////////////////////////////////////////////////
@@ -283,12 +349,71 @@ class LeafNode extends BPlusNode {
     return rids.subList(index, rids.size()).iterator();
   }
 
+  /**
+   * Returns an iterator over the record ids of this leaf that have a
+   * corresponding key less than or equal to `key`. The record ids are
+   * returned in ascending order of their corresponding keys.
+   */
+  public Iterator<RecordId> scanLessEqual(DataBox key) {
+    int index = InnerNode.numLessThanEqual(key, keys);
+    return rids.subList(0, index).iterator();
+  }
+
+  /**
+   * Returns an iterator over the record ids of this leaf that have a
+   * corresponding key equal to `key`.
+   */
+  public Iterator<RecordId> scanEqual(DataBox key) {
+    return scanRange(key, key);
+  }
+
+  /**
+   * Returns an iterator over the record ids of this leaf that have a
+   * corresponding key between `from` and `to`, inclusive. The record ids are
+   * returned in ascending order of their corresponding keys.
+   */
+  public Iterator<RecordId> scanRange(DataBox from, DataBox to) {
+    int i = InnerNode.numLessThan(from, keys);
+    int j = InnerNode.numLessThanEqual(to, keys);
+    return rids.subList(i, Math.max(i, j)).iterator();
+  }
+
+  /**
+   * Returns an iterator over the (key, payload) pairs of this leaf whose keys
+   * are between `from` and `to`, inclusive, in ascending order of their keys.
+   * A null bound leaves its end of the range open. The tree must store
+   * payloads.
+   */
+  Iterator<Pair<DataBox, DataBox>> scanPayloads(DataBox from, DataBox to) {
+    assert(hasPayloads(metadata));
+    int i = from == null ? 0 : InnerNode.numLessThan(from, keys);
+    int j = to == null ? keys.size() : InnerNode.numLessThanEqual(to, keys);
+    List<Pair<DataBox, DataBox>> entries = new ArrayList<>();
+    for (int k = i; k < j; ++k) {
+      entries.add(new Pair<>(keys.get(k), payloads.get(k)));
+    }
+    return entries.iterator();
+  }
+
+  /**
+   * Returns whether this leaf has a key greater than `key`, in which case no
+   * leaf to its right has a key less than or equal to `key`.
+   */
+  boolean hasKeyGreaterThan(DataBox key) {
+    return !keys.isEmpty() && keys.get(keys.size() - 1).compareTo(key) > 0;
+  }
+
   // Helpers ///////////////////////////////////////////////////////////////////
   @Override
   public Page getPage() {
     return page;
   }
 
+  /** Returns the page number of the right sibling of this leaf, if it has one. */
+  Optional<Integer> getRightSiblingPageNum() {
+    return rightSibling;
+  }
+
   /** Returns the right sibling of this leaf, if it has one. */
   public Optional<LeafNode> getRightSibling() {
     if (!rightSibling.isPresent()) {
@@ -302,6 +427,7 @@ class LeafNode extends BPlusNode {
   /** Serializes this leaf to its page. */
   private void sync() {
     page.getByteBuffer().put(toBytes());
+    page.markDirty();
   }
 
   /**
@@ -309,9 +435,19 @@ class LeafNode extends BPlusNode {
    * with 2d entries will fit on a single page of size `pageSizeInBytes`.
    */
   public static int maxOrder(int pageSizeInBytes, Type keySchema) {
+    return maxOrder(pageSizeInBytes, keySchema, Optional.empty());
+  }
+
+  /**
+   * Returns the largest number d such that the serialization of a LeafNode
+   * with 2d entries, each with a payload of type `payloadSchema` if it is
+   * present, will fit on a single page of size `pageSizeInBytes`.
+   */
+  public static int maxOrder(int pageSizeInBytes, Type keySchema,
+                             Optional<Type> payloadSchema) {
     // A leaf node with n entries takes up the following number of bytes:
     //
-    //   1 + 4 + 4 + n * (keySize + ridSize)
+    //   1 + 4 + 4 + n * (keySize + ridSize + payloadSize)
     //
     // where
     //
@@ -320,20 +456,23 @@ class LeafNode extends BPlusNode {
     //   - 4 is the number of bytes used to store n,
     //   - keySize is the number of bytes used to store a DataBox of type
     //     keySchema, and
-    //   - ridSize is the number of bytes of a RecordId.
+    //   - ridSize is the number of bytes of a RecordId, and
+    //   - payloadSize is the number of bytes used to store a DataBox of type
+    //     payloadSchema, or 0 if the tree stores no payloads.
     //
     // Solving the following equation
     //
-    //   n * (keySize + ridSize) + 9 <= pageSizeInBytes
+    //   n * (keySize + ridSize + payloadSize) + 9 <= pageSizeInBytes
     //
     // we get
     //
-    //   n = (pageSizeInBytes - 9) / (keySize + ridSize)
+    //   n = (pageSizeInBytes - 9) / (keySize + ridSize + payloadSize)
     //
     // The order d is half of n.
     int keySize = keySchema.getSizeInBytes();
     int ridSize = RecordId.getSizeInBytes();
-    int n = (pageSizeInBytes - 9) / (keySize + ridSize);
+    int payloadSize = payloadSchema.isPresent() ? payloadSchema.get().getSizeInBytes() : 0;
+    int n = (pageSizeInBytes - 9) / (keySize + ridSize + payloadSize);
     return n / 2;
   }
 
@@ -347,6 +486,15 @@ class LeafNode extends BPlusNode {
     return rids;
   }
 
+  // For testing only.
+  List<DataBox> getPayloads() {
+    return payloads;
+  }
+
+  private static boolean hasPayloads(BPlusTreeMetadata metadata) {
+    return metadata.getPayloadSchema().isPresent();
+  }
+
   // Pretty Printing ///////////////////////////////////////////////////////////
   @Override
   public String toString() {
@@ -393,7 +541,8 @@ class LeafNode extends BPlusNode {
     //      a right sibling),
     //   c. the number (4 bytes) of (key, rid) pairs this leaf node contains,
     //      and
-    //   d. the (key, rid) pairs themselves.
+    //   d. the (key, rid) pairs themselves, each followed by its payload if
+    //      the tree stores payloads.
     //
     // For example, the following bytes:
     //
@@ -412,7 +561,8 @@ class LeafNode extends BPlusNode {
     int lenSize = Integer.BYTES;
     int keySize = metadata.getKeySchema().getSizeInBytes();
     int ridSize = RecordId.getSizeInBytes();
-    int entriesSize = (keySize + ridSize) * keys.size();
+    int payloadSize = payloads.isEmpty() ? 0 : metadata.getPayloadSchema().get().getSizeInBytes();
+    int entriesSize = (keySize + ridSize + payloadSize) * keys.size();
     int size = isLeafSize + siblingSize + lenSize + entriesSize;
 
     ByteBuffer buf = ByteBuffer.allocate(size);
@@ -422,6 +572,9 @@ class LeafNode extends BPlusNode {
     for (int i = 0; i < keys.size(); ++i) {
       buf.put(keys.get(i).toBytes());
       buf.put(rids.get(i).toBytes());
+      if (!payloads.isEmpty()) {
+        buf.put(payloads.get(i).toBytes());
+      }
     }
     return buf.array();
   }
@@ -432,7 +585,7 @@ class LeafNode extends BPlusNode {
    */
   public static LeafNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
     Page page = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = page.getByteBuffer();
+    ByteBuffer buf = page.getReadOnlyByteBuffer();
 
     assert(buf.get() == (byte) 1);
 
@@ -441,13 +594,18 @@ class LeafNode extends BPlusNode {
 
     List<DataBox> keys = new ArrayList<>();
     List<RecordId> rids = new ArrayList<>();
+    List<DataBox> payloads = new ArrayList<>();
+    Optional<Type> payloadSchema = metadata.getPayloadSchema();
     int n = buf.getInt();
     for (int i = 0; i < n; ++i) {
       keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
       rids.add(RecordId.fromBytes(buf));
+      if (payloadSchema.isPresent()) {
+        payloads.add(DataBox.fromBytes(buf, payloadSchema.get()));
+      }
     }
 
-    return new LeafNode(metadata, pageNum, keys, rids, rightSibling);
+    return new LeafNode(metadata, pageNum, keys, rids, payloads, rightSibling);
   }
 
   // Builtins //////////////////////////////////////////////////////////////////
@@ -463,11 +621,12 @@ class LeafNode extends BPlusNode {
     return page.getPageNum() == n.page.getPageNum() &&
            keys.equals(n.keys) &&
            rids.equals(n.rids) &&
+           payloads.equals(n.payloads) &&
            rightSibling.equals(n.rightSibling);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(page.getPageNum(), keys, rids, rightSibling);
+    return Objects.hash(page.getPageNum(), keys, rids, payloads, rightSibling);
   }
 }
@@ -0,0 +1,71 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of page-sized buffers for pages read and written with positional I/O (see
+ * PageAllocator.Backend#POSITIONAL). Buffers are carved out of direct chunks of PAGES_PER_CHUNK
+ * pages, allocated the first time they are needed, and recycled when pages are evicted, so a
+ * steady-state cache miss allocates nothing. If direct memory runs out, the arena falls back to
+ * heap buffers.
+ */
+class BufferArena {
+  static final int PAGES_PER_CHUNK = 64;
+
+  private final ArrayDeque<ByteBuffer> free;
+  private boolean direct;
+  private int numBuffers;
+
+  BufferArena() {
+    this.free = new ArrayDeque<ByteBuffer>();
+    this.direct = true;
+    this.numBuffers = 0;
+  }
+
+  /**
+   * @return a cleared buffer of Page.pageSize bytes
+   */
+  synchronized ByteBuffer acquire() {
+    if (this.free.isEmpty()) {
+      grow();
+    }
+    ByteBuffer buf = this.free.pop();
+    buf.clear();
+    return buf;
+  }
+
+  /**
+   * Returns buf, which must have come from acquire, to the arena.
+   */
+  synchronized void release(ByteBuffer buf) {
+    this.free.push(buf);
+  }
+
+  /**
+   * @return the number of buffers the arena has handed out or holds
+   */
+  synchronized int getNumBuffers() {
+    return this.numBuffers;
+  }
+
+  private void grow() {
+    if (this.direct) {
+      try {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(PAGES_PER_CHUNK * Page.pageSize);
+        for (int i = 0; i < PAGES_PER_CHUNK; i++) {
+          chunk.limit((i + 1) * Page.pageSize);
+          chunk.position(i * Page.pageSize);
+          this.free.push(chunk.slice());
+        }
+        this.numBuffers += PAGES_PER_CHUNK;
+        return;
+      } catch (OutOfMemoryError e) {
+        // Out of direct memory; everything from here on lives on the heap.
+        this.direct = false;
+      }
+    }
+    this.free.push(ByteBuffer.allocate(Page.pageSize));
+    this.numBuffers++;
+  }
+}
@@ -0,0 +1,833 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A buffer pool caches the Pages of every PageAllocator that shares it. Each
+ * Database owns its own buffer pool, so the tables, indexes, and temporary
+ * tables of one database never evict the pages of another. PageAllocators
+ * that are not given a pool share the pool returned by getDefault().
+ *
+ * Pages are keyed by their virtual page number, which combines the id of the
+ * owning PageAllocator with the page number within that allocator (see
+ * PageAllocator#translatePageNum). The pool is split into a power-of-two
+ * number of shards. Every key hashes to exactly one shard, every shard is
+ * guarded by its own lock, and every shard evicts on its own once it holds
+ * more than its share of the pool's frames. Threads fetching pages that hash
+ * to different shards never contend with one another.
+ *
+ * Each shard replaces pages with one of two policies (see
+ * ReplacementPolicy):
+ *
+ *   - CLOCK: a hit only sets the reference bit of the page's frame; when the
+ *     shard is full, a hand sweeps the frames, clearing reference bits, and
+ *     evicts the first unpinned frame whose bit is already clear.
+ *   - TWO_Q: a simplified 2Q. A page enters a small FIFO probation queue the
+ *     first time it is loaded, and repeated hits while it sits there do not
+ *     promote it. When it is evicted from probation its key is remembered in
+ *     a ghost queue; only a page that is loaded again while its key is still
+ *     a ghost is admitted to the main queue, which is managed with CLOCK.
+ *     Probation is evicted first whenever it holds more than a quarter of
+ *     the shard, so a scan can never push out more than that quarter.
+ *
+ * Under either policy, a fetch can be marked sequential (see
+ * PageAllocator#fetchPage(int, boolean)). Sequential fetches never set
+ * reference bits, and under TWO_Q a page loaded sequentially is never
+ * remembered as a ghost, so scans do not promote the pages they walk over.
+ *
+ * Pinned pages (see Page#pin) are never evicted. If every frame of a shard is
+ * pinned, the shard temporarily grows past its share and shrinks back as
+ * pages are unpinned.
+ *
+ * Evicting a page only writes it back if it is dirty (see Page#isDirty).
+ * Clean frames are evicted in preference to dirty ones; if every unpinned
+ * frame of a full shard is dirty, the victim is written back outside of the
+ * shard's lock before it is evicted. The page writer (see startPageWriter)
+ * trickles dirty, unpinned pages to disk in the background, so that the
+ * thread that triggers an eviction rarely has to write the victim itself.
+ *
+ * Every pool counts its hits, misses, evictions, dirty flushes, and
+ * allocations in an IOMetrics (see getMetrics), which also sums the metrics
+ * of every PageAllocator using the pool. registerMBeans exposes the pool's
+ * metrics and those of its PageAllocators over JMX.
+ *
+ *   // A pool of 4096 frames split into 16 shards of 256 frames each.
+ *   BufferPool pool = new BufferPool(4096, 16);
+ *   PageAllocator allocator = new PageAllocator("t.table", true, true, pool);
+ */
+public class BufferPool {
+  /**
+   * The page replacement policy used by every shard of a buffer pool.
+   */
+  public enum ReplacementPolicy {
+    CLOCK,
+    TWO_Q
+  }
+
+  public static final int DEFAULT_NUM_FRAMES = 1024;
+  private static final int MAX_NUM_SHARDS = 64;
+  private static final int NUM_READ_AHEAD_THREADS = 2;
+  private static final int MAX_READ_AHEAD_TASKS = 64;
+
+  private static final BufferPool defaultPool = new BufferPool(DEFAULT_NUM_FRAMES);
+  private static final AtomicInteger schedulerCounter = new AtomicInteger(0);
+
+  private final Shard[] shards;
+  private final int shardMask;
+  private final int numFrames;
+  private final ReplacementPolicy policy;
+  private ScheduledExecutorService scheduler;
+  private ExecutorService readAheadExecutor;
+  private BufferArena arena;
+  private ScheduledFuture<?> pageWriterTask;
+  private final IOMetrics metrics;
+  // The metrics of the PageAllocators using this pool, and the names of their
+  // files. Registered over JMX along with the pool's own metrics.
+  private final Map<IOMetrics, String> allocatorMetrics;
+  private String mbeanName;
+
+  /**
+   * Create a TWO_Q buffer pool with numFrames frames and one shard per
+   * hardware thread (rounded up to a power of two).
+   *
+   * @param numFrames the total number of pages the pool may cache
+   */
+  public BufferPool(int numFrames) {
+    this(numFrames, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a buffer pool with numFrames frames split into numShards shards.
+   * numShards is rounded up to a power of two, and is lowered if needed so
+   * that every shard has at least one frame.
+   *
+   * @param numFrames the total number of pages the pool may cache
+   * @param numShards the number of independently locked shards
+   */
+  public BufferPool(int numFrames, int numShards) {
+    this(numFrames, numShards, ReplacementPolicy.TWO_Q);
+  }
+
+  /**
+   * Create a buffer pool with numFrames frames split into numShards shards,
+   * each of which replaces pages according to policy.
+   *
+   * @param numFrames the total number of pages the pool may cache
+   * @param numShards the number of independently locked shards
+   * @param policy the page replacement policy
+   */
+  public BufferPool(int numFrames, int numShards, ReplacementPolicy policy) {
+    if (numFrames <= 0) {
+      throw new PageException("a buffer pool needs at least one frame");
+    }
+    if (numShards <= 0) {
+      throw new PageException("a buffer pool needs at least one shard");
+    }
+
+    int n = Math.min(ceilPowerOfTwo(Math.min(numShards, MAX_NUM_SHARDS)),
+                     Integer.highestOneBit(numFrames));
+    this.numFrames = numFrames;
+    this.policy = policy;
+    this.shards = new Shard[n];
+    this.shardMask = n - 1;
+    this.metrics = new IOMetrics(null, this::getNumPinnedFrames);
+    this.allocatorMetrics = new WeakHashMap<IOMetrics, String>();
+
+    // Hand out numFrames as evenly as possible; the first numFrames % n
+    // shards get one extra frame.
+    for (int i = 0; i < n; i++) {
+      int capacity = numFrames / n + (i < numFrames % n ? 1 : 0);
+      this.shards[i] = new Shard(capacity, policy);
+    }
+  }
+
+  /**
+   * @return the pool shared by every PageAllocator constructed without one
+   */
+  public static BufferPool getDefault() {
+    return defaultPool;
+  }
+
+  /**
+   * @return the total number of frames in this pool
+   */
+  public int getNumFrames() {
+    return this.numFrames;
+  }
+
+  /**
+   * @return the page replacement policy of this pool
+   */
+  public ReplacementPolicy getReplacementPolicy() {
+    return this.policy;
+  }
+
+  /**
+   * @return the number of shards this pool is split into
+   */
+  public int getNumShards() {
+    return this.shards.length;
+  }
+
+  /**
+   * @return the number of pages currently cached in this pool
+   */
+  public int size() {
+    int size = 0;
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        size += shard.size;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of cached pages that are currently pinned
+   */
+  public int getNumPinnedFrames() {
+    int pinned = 0;
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        for (int i = 0; i < shard.size; i++) {
+          if (shard.pages[i].isPinned()) {
+            pinned++;
+          }
+        }
+      }
+    }
+    return pinned;
+  }
+
+  /**
+   * @param allocID the id of a PageAllocator
+   * @return the number of cached pages of that PageAllocator that are currently pinned
+   */
+  int getNumPinnedFrames(int allocID) {
+    int pinned = 0;
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        for (int i = 0; i < shard.size; i++) {
+          if (shard.pages[i].isPinned()
+              && PageAllocator.translateAllocator(shard.keys[i]) == allocID) {
+            pinned++;
+          }
+        }
+      }
+    }
+    return pinned;
+  }
+
+  /**
+   * @return the number of cached pages that are currently dirty
+   */
+  public int getNumDirtyFrames() {
+    int dirty = 0;
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        for (int i = 0; i < shard.size; i++) {
+          if (shard.pages[i].isDirty()) {
+            dirty++;
+          }
+        }
+      }
+    }
+    return dirty;
+  }
+
+  /**
+   * Starts the page writer, which every intervalMillis milliseconds flushes
+   * every dirty, unpinned page of the pool. Starting a running page writer
+   * restarts it with the new interval.
+   *
+   * @param intervalMillis the delay between two passes of the page writer
+   */
+  public synchronized void startPageWriter(long intervalMillis) {
+    if (intervalMillis <= 0) {
+      throw new IllegalArgumentException("page writer interval must be positive");
+    }
+    stopPageWriter();
+    this.pageWriterTask = getScheduler().scheduleWithFixedDelay(
+        this::writeDirtyPages, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the page writer, if it is running.
+   */
+  public synchronized void stopPageWriter() {
+    if (this.pageWriterTask != null) {
+      this.pageWriterTask.cancel(false);
+      this.pageWriterTask = null;
+    }
+  }
+
+  /**
+   * Flushes every dirty, unpinned page of the pool. The pages of a shard are
+   * collected under the shard's lock but flushed outside of it, so fetches
+   * are never blocked behind a write.
+   *
+   * @return the number of pages flushed
+   */
+  public int writeDirtyPages() {
+    int written = 0;
+    List<Page> dirty = new ArrayList<Page>();
+    for (Shard shard : this.shards) {
+      dirty.clear();
+      synchronized (shard) {
+        for (int i = 0; i < shard.size; i++) {
+          Page page = shard.pages[i];
+          if (page.isDirty() && !page.isPinned()) {
+            dirty.add(page);
+          }
+        }
+      }
+      for (Page page : dirty) {
+        try {
+          page.flush();
+          written++;
+        } catch (PageException e) {
+          // The page's allocator was closed after we collected the page; its
+          // pages were flushed by close().
+        }
+      }
+    }
+    return written;
+  }
+
+  /**
+   * @return the metrics of this pool, which include those of every
+   *         PageAllocator using it
+   */
+  public IOMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Registers the metrics of this pool with the platform MBean server under
+   * type=BufferPool,name=name, and those of every PageAllocator using the
+   * pool, now or later, under type=PageAllocator,name=fileName.
+   *
+   * @param name the name to register the pool's metrics under
+   */
+  public synchronized void registerMBeans(String name) {
+    this.metrics.registerMBean("BufferPool", name);
+    this.mbeanName = name;
+    for (Map.Entry<IOMetrics, String> e : this.allocatorMetrics.entrySet()) {
+      registerAllocatorMBean(e.getKey(), e.getValue());
+    }
+  }
+
+  /**
+   * Unregisters every MBean registered by registerMBeans.
+   */
+  public synchronized void unregisterMBeans() {
+    this.mbeanName = null;
+    this.metrics.unregisterMBean();
+    for (IOMetrics m : this.allocatorMetrics.keySet()) {
+      m.unregisterMBean();
+    }
+  }
+
+  /**
+   * Stops the background work (e.g. group commit syncs, the page writer, and
+   * read-ahead) of this pool and unregisters its MBeans. Cached pages are
+   * left alone; they belong to their PageAllocators, which flush them when
+   * they are closed.
+   */
+  public synchronized void close() {
+    unregisterMBeans();
+    stopPageWriter();
+    if (this.scheduler != null) {
+      this.scheduler.shutdown();
+      this.scheduler = null;
+    }
+    if (this.readAheadExecutor != null) {
+      this.readAheadExecutor.shutdownNow();
+      this.readAheadExecutor = null;
+    }
+  }
+
+  /**
+   * Called by a PageAllocator using this pool when it is opened.
+   */
+  synchronized void attach(IOMetrics allocatorMetrics, String fileName) {
+    this.allocatorMetrics.put(allocatorMetrics, fileName);
+    if (this.mbeanName != null) {
+      registerAllocatorMBean(allocatorMetrics, fileName);
+    }
+  }
+
+  /**
+   * Called by a PageAllocator using this pool when it is closed.
+   */
+  synchronized void detach(IOMetrics allocatorMetrics) {
+    this.allocatorMetrics.remove(allocatorMetrics);
+    allocatorMetrics.unregisterMBean();
+  }
+
+  private void registerAllocatorMBean(IOMetrics allocatorMetrics, String fileName) {
+    try {
+      allocatorMetrics.registerMBean("PageAllocator", fileName);
+    } catch (PageException e) {
+      // Another PageAllocator has the same file open; the metrics of the
+      // first one opened are the ones exposed.
+    }
+  }
+
+  /**
+   * Returns the arena that pages using positional I/O borrow their buffers
+   * from, creating it the first time it is needed.
+   */
+  synchronized BufferArena getArena() {
+    if (this.arena == null) {
+      this.arena = new BufferArena();
+    }
+    return this.arena;
+  }
+
+  /**
+   * Returns the daemon thread that runs this pool's background work, starting
+   * it the first time it is needed.
+   */
+  synchronized ScheduledExecutorService getScheduler() {
+    if (this.scheduler == null) {
+      String name = "buffer-pool-" + schedulerCounter.getAndIncrement();
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      });
+      scheduler.setRemoveOnCancelPolicy(true);
+      this.scheduler = scheduler;
+    }
+    return this.scheduler;
+  }
+
+  /**
+   * Returns the daemon threads that PageIterators read ahead on, starting them the first time
+   * they are needed. They are kept apart from the scheduler so that a burst of read-ahead never
+   * delays the page writer or group commit syncs. Read-ahead is best effort: once
+   * MAX_READ_AHEAD_TASKS requests are queued, new ones are rejected.
+   */
+  synchronized ExecutorService getReadAheadExecutor() {
+    if (this.readAheadExecutor == null) {
+      String name = "buffer-pool-read-ahead-" + schedulerCounter.getAndIncrement();
+      AtomicInteger threadCounter = new AtomicInteger(0);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          NUM_READ_AHEAD_THREADS, NUM_READ_AHEAD_THREADS, 1, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(MAX_READ_AHEAD_TASKS), r -> {
+            Thread t = new Thread(r, name + "-" + threadCounter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      this.readAheadExecutor = executor;
+    }
+    return this.readAheadExecutor;
+  }
+
+  /**
+   * Returns the cached page for vPageNum, or null if it is not cached.
+   *
+   * @param vPageNum the virtual page number of the page
+   * @param sequential whether the page is being read as part of a scan
+   * @return the cached page or null
+   */
+  Page get(long vPageNum, boolean sequential) {
+    Shard shard = shardFor(vPageNum);
+    synchronized (shard) {
+      return shard.get(vPageNum, sequential);
+    }
+  }
+
+  /**
+   * Caches page under vPageNum unless another thread cached a page for
+   * vPageNum first, evicting a page from the same shard if the shard is full.
+   *
+   * @param vPageNum the virtual page number of the page
+   * @param page the freshly loaded page
+   * @param sequential whether the page is being read as part of a scan
+   * @return the page that is cached for vPageNum after the call
+   */
+  Page putIfAbsent(long vPageNum, Page page, boolean sequential) {
+    Shard shard = shardFor(vPageNum);
+    boolean flushed = false;
+    while (true) {
+      Page dirtyVictim;
+      synchronized (shard) {
+        Page cached = shard.get(vPageNum, sequential);
+        if (cached != null) {
+          return cached;
+        }
+        // Write back at most one victim ourselves; if it is dirtied again
+        // before we get the lock back, put writes it back under the lock.
+        dirtyVictim = flushed ? null : shard.dirtyVictim();
+        if (dirtyVictim == null) {
+          shard.put(vPageNum, page, sequential);
+          return page;
+        }
+      }
+      try {
+        dirtyVictim.flush();
+      } catch (PageException e) {
+        // The victim's allocator was closed; its pages were flushed by close().
+      }
+      flushed = true;
+    }
+  }
+
+  /**
+   * Drops the page cached for vPageNum, if any, without flushing it.
+   *
+   * @param vPageNum the virtual page number of the page
+   * @return the page that was cached or null
+   */
+  Page remove(long vPageNum) {
+    Shard shard = shardFor(vPageNum);
+    synchronized (shard) {
+      return shard.remove(vPageNum);
+    }
+  }
+
+  /**
+   * Drops every page of the PageAllocator with id allocID without flushing
+   * them.
+   *
+   * @param allocID the id of the PageAllocator
+   * @return the pages that were cached
+   */
+  List<Page> removeAll(int allocID) {
+    List<Page> removed = new ArrayList<Page>();
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        // removeFrame moves the last frame into the hole, so walk backwards.
+        for (int i = shard.size - 1; i >= 0; i--) {
+          if (PageAllocator.translateAllocator(shard.keys[i]) == allocID) {
+            removed.add(shard.pages[i]);
+            shard.removeFrame(i);
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
+  private Shard shardFor(long vPageNum) {
+    // Page numbers of one allocator are dense and allocator ids are small, so
+    // mix the bits before masking to spread neighbouring pages over shards.
+    long h = vPageNum * 0x9E3779B97F4A7C15L;
+    return this.shards[(int) (h >>> 32) & this.shardMask];
+  }
+
+  private static int ceilPowerOfTwo(int n) {
+    int highest = Integer.highestOneBit(n);
+    return highest == n ? n : highest << 1;
+  }
+
+  /**
+   * A shard is a fixed number of frames. Frames [0, size) are occupied, and
+   * slots maps the key of every cached page to its frame. Under TWO_Q, the
+   * frames on probation are additionally linked, oldest first, through
+   * coldPrev and coldNext. All methods must be called with the shard's lock
+   * held.
+   */
+  private static class Shard {
+    // Frame states. HOT frames belong to the CLOCK-managed main queue (every
+    // frame is HOT under CLOCK); COLD and COLD_SCAN frames are on probation,
+    // and only COLD frames leave a ghost behind when evicted.
+    private static final byte HOT = 0;
+    private static final byte COLD = 1;
+    private static final byte COLD_SCAN = 2;
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final ReplacementPolicy policy;
+    private final Map<Long, Integer> slots;
+    private long[] keys;
+    private Page[] pages;
+    private boolean[] referenced;
+    private byte[] states;
+    private int size;
+    private int hand;
+
+    // TWO_Q bookkeeping.
+    private final int maxColdFrames;
+    private final int maxGhosts;
+    private final LinkedHashSet<Long> ghosts;
+    private int[] coldPrev;
+    private int[] coldNext;
+    private int coldHead;
+    private int coldTail;
+    private int numColdFrames;
+
+    Shard(int capacity, ReplacementPolicy policy) {
+      this.capacity = capacity;
+      this.policy = policy;
+      this.slots = new HashMap<Long, Integer>();
+      this.keys = new long[capacity];
+      this.pages = new Page[capacity];
+      this.referenced = new boolean[capacity];
+      this.states = new byte[capacity];
+      this.size = 0;
+      this.hand = 0;
+
+      this.maxColdFrames = Math.max(1, capacity / 4);
+      this.maxGhosts = Math.max(1, capacity / 2);
+      this.ghosts = new LinkedHashSet<Long>();
+      this.coldPrev = new int[capacity];
+      this.coldNext = new int[capacity];
+      this.coldHead = NONE;
+      this.coldTail = NONE;
+      this.numColdFrames = 0;
+    }
+
+    Page get(long key, boolean sequential) {
+      Integer slot = this.slots.get(key);
+      if (slot == null) {
+        return null;
+      }
+      // Hits on probation are deliberately ignored: a page that is touched
+      // many times in a burst (e.g. once per record during a scan) has still
+      // only been used once.
+      if (!sequential && this.states[slot] == HOT) {
+        this.referenced[slot] = true;
+      }
+      return this.pages[slot];
+    }
+
+    void put(long key, Page page, boolean sequential) {
+      byte state = HOT;
+      if (this.policy == ReplacementPolicy.TWO_Q) {
+        if (sequential) {
+          state = COLD_SCAN;
+        } else if (!this.ghosts.remove(key)) {
+          state = COLD;
+        }
+      }
+
+      while (this.size >= this.capacity) {
+        int victim = findVictim();
+        if (victim < 0 || !evict(victim)) {
+          // Every frame is pinned, or the victim was pinned before it could
+          // be evicted; overflow rather than evict a pinned page.
+          break;
+        }
+      }
+
+      if (this.size == this.pages.length) {
+        int newLength = this.pages.length * 2;
+        this.keys = Arrays.copyOf(this.keys, newLength);
+        this.pages = Arrays.copyOf(this.pages, newLength);
+        this.referenced = Arrays.copyOf(this.referenced, newLength);
+        this.states = Arrays.copyOf(this.states, newLength);
+        this.coldPrev = Arrays.copyOf(this.coldPrev, newLength);
+        this.coldNext = Arrays.copyOf(this.coldNext, newLength);
+      }
+
+      int slot = this.size++;
+      this.keys[slot] = key;
+      this.pages[slot] = page;
+      this.referenced[slot] = !sequential;
+      this.states[slot] = state;
+      this.slots.put(key, slot);
+      if (state != HOT) {
+        linkCold(slot);
+      }
+    }
+
+    Page remove(long key) {
+      Integer slot = this.slots.get(key);
+      if (slot == null) {
+        return null;
+      }
+      Page page = this.pages[slot];
+      removeFrame(slot);
+      return page;
+    }
+
+    /**
+     * Returns the page put would have to write back to make room for a new
+     * page, or null if the shard has room or a clean frame to evict.
+     */
+    Page dirtyVictim() {
+      if (this.size < this.capacity) {
+        return null;
+      }
+      int victim = findVictim();
+      if (victim == NONE || !this.pages[victim].isDirty()) {
+        return null;
+      }
+      return this.pages[victim];
+    }
+
+    private boolean evict(int slot) {
+      Page page = this.pages[slot];
+      if (!page.evict()) {
+        return false;
+      }
+      if (this.states[slot] == COLD) {
+        this.ghosts.add(this.keys[slot]);
+        if (this.ghosts.size() > this.maxGhosts) {
+          Iterator<Long> oldest = this.ghosts.iterator();
+          oldest.next();
+          oldest.remove();
+        }
+      }
+      if (page.getMetrics() != null) {
+        page.getMetrics().recordEviction();
+      }
+      removeFrame(slot);
+      return true;
+    }
+
+    /**
+     * Returns the frame to evict, or -1 if every frame is pinned. Under
+     * TWO_Q, the oldest unpinned frame on probation is chosen while
+     * probation is over its share (or the main queue has nothing to give);
+     * otherwise the CLOCK hand picks a frame of the main queue. At each step
+     * a clean frame is preferred, so that evicting rarely has to write a page
+     * back; a dirty one is only chosen when there is no clean one.
+     */
+    private int findVictim() {
+      if (this.policy == ReplacementPolicy.TWO_Q
+          && this.numColdFrames > this.maxColdFrames) {
+        int victim = oldestCold();
+        if (victim != NONE) {
+          return victim;
+        }
+      }
+      int victim = sweep(true);
+      if (victim == NONE) {
+        victim = sweep(false);
+      }
+      if (victim == NONE && this.policy == ReplacementPolicy.TWO_Q) {
+        victim = oldestCold();
+      }
+      return victim;
+    }
+
+    private int oldestCold() {
+      int victim = oldestCold(true);
+      return victim == NONE ? oldestCold(false) : victim;
+    }
+
+    private boolean evictable(int slot, boolean cleanOnly) {
+      Page page = this.pages[slot];
+      return !page.isPinned() && !(cleanOnly && page.isDirty());
+    }
+
+    private int oldestCold(boolean cleanOnly) {
+      for (int slot = this.coldHead; slot != NONE; slot = this.coldNext[slot]) {
+        if (evictable(slot, cleanOnly)) {
+          return slot;
+        }
+      }
+      return NONE;
+    }
+
+    /**
+     * Advances the clock hand to the first evictable HOT frame whose
+     * reference bit is clear, clearing reference bits along the way. Two full
+     * sweeps are always enough unless no such frame exists.
+     */
+    private int sweep(boolean cleanOnly) {
+      for (int i = 0; i < 2 * this.size; i++) {
+        if (this.hand >= this.size) {
+          this.hand = 0;
+        }
+        int slot = this.hand++;
+        if (this.states[slot] != HOT || !evictable(slot, cleanOnly)) {
+          continue;
+        }
+        if (this.referenced[slot]) {
+          this.referenced[slot] = false;
+          continue;
+        }
+        return slot;
+      }
+      return NONE;
+    }
+
+    /**
+     * Empties frame slot by moving the last occupied frame into it.
+     */
+    private void removeFrame(int slot) {
+      if (this.states[slot] != HOT) {
+        unlinkCold(slot);
+      }
+      this.slots.remove(this.keys[slot]);
+
+      int last = --this.size;
+      if (slot != last) {
+        this.keys[slot] = this.keys[last];
+        this.pages[slot] = this.pages[last];
+        this.referenced[slot] = this.referenced[last];
+        this.states[slot] = this.states[last];
+        this.slots.put(this.keys[slot], slot);
+        if (this.states[slot] != HOT) {
+          // Repoint the probation queue at the frame's new position.
+          int prev = this.coldPrev[last];
+          int next = this.coldNext[last];
+          this.coldPrev[slot] = prev;
+          this.coldNext[slot] = next;
+          if (prev == NONE) {
+            this.coldHead = slot;
+          } else {
+            this.coldNext[prev] = slot;
+          }
+          if (next == NONE) {
+            this.coldTail = slot;
+          } else {
+            this.coldPrev[next] = slot;
+          }
+        }
+      }
+      this.pages[last] = null;
+      this.referenced[last] = false;
+      this.states[last] = HOT;
+    }
+
+    private void linkCold(int slot) {
+      this.coldPrev[slot] = this.coldTail;
+      this.coldNext[slot] = NONE;
+      if (this.coldTail == NONE) {
+        this.coldHead = slot;
+      } else {
+        this.coldNext[this.coldTail] = slot;
+      }
+      this.coldTail = slot;
+      this.numColdFrames++;
+    }
+
+    private void unlinkCold(int slot) {
+      int prev = this.coldPrev[slot];
+      int next = this.coldNext[slot];
+      if (prev == NONE) {
+        this.coldHead = next;
+      } else {
+        this.coldNext[prev] = next;
+      }
+      if (next == NONE) {
+        this.coldTail = prev;
+      } else {
+        this.coldPrev[next] = prev;
+      }
+      this.numColdFrames--;
+    }
+  }
+}
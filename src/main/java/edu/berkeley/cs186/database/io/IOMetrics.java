@@ -0,0 +1,203 @@
+package edu.berkeley.cs186.database.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters describing how well the buffer pool serves the pages of a file or of a whole buffer
+ * pool. Every BufferPool has one, and every PageAllocator has one whose events are also counted
+ * by its buffer pool's, so that a Database (which owns its own pool) can be looked at as a whole
+ * or file by file.
+ *
+ * The counters are LongAdders, so recording an event on a hot path never contends with other
+ * threads. IOMetrics can be registered with the platform MBean server (see registerMBean) to be
+ * scraped over JMX.
+ *
+ *   IOMetrics m = db.getBufferPool().getMetrics();
+ *   System.out.println(m.getHits() + " hits, " + m.getMisses() + " misses");
+ */
+public class IOMetrics implements IOMetricsMXBean {
+  /**
+   * The JMX domain IOMetrics are registered under.
+   */
+  public static final String JMX_DOMAIN = "edu.berkeley.cs186.database";
+
+  // Bucket i counts latencies in [2^i, 2^(i+1)) ns; the last bucket also
+  // counts everything slower (2^47 ns is well over a day).
+  private static final int NUM_BUCKETS = 48;
+
+  private final IOMetrics parent;
+  private final IntSupplier pinnedFrames;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder dirtyFlushes = new LongAdder();
+  private final LongAdder allocations = new LongAdder();
+  private final LongAdder allocNanos = new LongAdder();
+  private final AtomicLongArray allocLatencies = new AtomicLongArray(NUM_BUCKETS);
+  private ObjectName objectName;
+
+  /**
+   * @param parent the metrics that also count every event recorded here, or null
+   * @param pinnedFrames counts the pinned frames these metrics describe
+   */
+  IOMetrics(IOMetrics parent, IntSupplier pinnedFrames) {
+    this.parent = parent;
+    this.pinnedFrames = pinnedFrames;
+  }
+
+  @Override
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return this.misses.sum();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total == 0 ? 0.0 : (double) hits / total;
+  }
+
+  @Override
+  public long getEvictions() {
+    return this.evictions.sum();
+  }
+
+  @Override
+  public long getDirtyFlushes() {
+    return this.dirtyFlushes.sum();
+  }
+
+  @Override
+  public long getAllocations() {
+    return this.allocations.sum();
+  }
+
+  @Override
+  public double getMeanAllocLatencyNanos() {
+    long n = getAllocations();
+    return n == 0 ? 0.0 : (double) this.allocNanos.sum() / n;
+  }
+
+  @Override
+  public long[] getAllocLatencyHistogram() {
+    long[] histogram = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      histogram[i] = this.allocLatencies.get(i);
+    }
+    return histogram;
+  }
+
+  @Override
+  public int getNumPinnedFrames() {
+    return this.pinnedFrames.getAsInt();
+  }
+
+  @Override
+  public void reset() {
+    this.hits.reset();
+    this.misses.reset();
+    this.evictions.reset();
+    this.dirtyFlushes.reset();
+    this.allocations.reset();
+    this.allocNanos.reset();
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      this.allocLatencies.set(i, 0);
+    }
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server as
+   * JMX_DOMAIN:type=type,name=name. Registering metrics that are already registered moves them
+   * to the new name.
+   *
+   * @param type the kind of thing these metrics describe, e.g. BufferPool
+   * @param name the name of the thing these metrics describe, e.g. a file name
+   * @return the name the metrics were registered under
+   */
+  public synchronized ObjectName registerMBean(String type, String name) {
+    unregisterMBean();
+    try {
+      ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type
+                                             + ",name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      this.objectName = objectName;
+      return objectName;
+    } catch (JMException e) {
+      throw new PageException("Could not register metrics for " + name + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Unregisters these metrics from the platform MBean server, if they are registered.
+   */
+  public synchronized void unregisterMBean() {
+    if (this.objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (server.isRegistered(this.objectName)) {
+        server.unregisterMBean(this.objectName);
+      }
+    } catch (JMException e) {
+      // Someone else unregistered it first.
+    }
+    this.objectName = null;
+  }
+
+  /**
+   * @return the name these metrics are registered under, or null
+   */
+  public synchronized ObjectName getObjectName() {
+    return this.objectName;
+  }
+
+  void recordHit() {
+    this.hits.increment();
+    if (this.parent != null) {
+      this.parent.recordHit();
+    }
+  }
+
+  void recordMiss() {
+    this.misses.increment();
+    if (this.parent != null) {
+      this.parent.recordMiss();
+    }
+  }
+
+  void recordEviction() {
+    this.evictions.increment();
+    if (this.parent != null) {
+      this.parent.recordEviction();
+    }
+  }
+
+  void recordDirtyFlush() {
+    this.dirtyFlushes.increment();
+    if (this.parent != null) {
+      this.parent.recordDirtyFlush();
+    }
+  }
+
+  void recordAllocation(long nanos) {
+    this.allocations.increment();
+    this.allocNanos.add(nanos);
+    int bucket = 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1));
+    this.allocLatencies.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
+    if (this.parent != null) {
+      this.parent.recordAllocation(nanos);
+    }
+  }
+}
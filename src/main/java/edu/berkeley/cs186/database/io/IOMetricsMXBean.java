@@ -0,0 +1,57 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * The JMX view of an IOMetrics (see IOMetrics#registerMBean).
+ */
+public interface IOMetricsMXBean {
+  /**
+   * @return the number of page fetches served from the buffer pool
+   */
+  long getHits();
+
+  /**
+   * @return the number of page fetches that had to read or map the page
+   */
+  long getMisses();
+
+  /**
+   * @return hits / (hits + misses), or 0 if nothing has been fetched
+   */
+  double getHitRatio();
+
+  /**
+   * @return the number of pages the buffer pool evicted to make room for others
+   */
+  long getEvictions();
+
+  /**
+   * @return the number of dirty pages written back, whether flushed or evicted
+   */
+  long getDirtyFlushes();
+
+  /**
+   * @return the number of pages allocated
+   */
+  long getAllocations();
+
+  /**
+   * @return the mean time allocPage took, in nanoseconds
+   */
+  double getMeanAllocLatencyNanos();
+
+  /**
+   * @return the allocPage latency histogram; bucket i counts the allocations that took
+   *         [2^i, 2^(i+1)) nanoseconds
+   */
+  long[] getAllocLatencyHistogram();
+
+  /**
+   * @return the number of cached pages that are currently pinned
+   */
+  int getNumPinnedFrames();
+
+  /**
+   * Sets every counter (but not the number of pinned frames) back to zero.
+   */
+  void reset();
+}
@@ -3,19 +3,54 @@ package edu.berkeley.cs186.database.io;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
+ * General-purpose wrapper for interacting with the memory-mapped bytes on a page. A page either
+ * maps its own 4 KB of the file, or is a view of a larger mapping (a segment, see PageAllocator)
+ * shared with its neighbouring pages.
  *
- * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
+ * Pages of a PageAllocator using the POSITIONAL backend are not mapped. They are read into a
+ * buffer from the buffer pool's BufferArena, written back when they are flushed or evicted, and
+ * give their buffer back to the arena when evicted. An evicted page that is used again reads
+ * itself back in and returns to the buffer pool. Since the buffer then belongs to another page, a
+ * page is never evicted while it is pinned: the methods that read and write the page pin it for
+ * the duration of the access, getReadOnlyByteBuffer returns a copy of the page, and callers of
+ * getByteBuffer must pin the page for as long as they use the buffer.
  */
 public class Page {
   public static final int pageSize = 4096;
 
-  private MappedByteBuffer pageData;
+  // MappedByteBuffer.force(int, int), which only forces a range of a mapping, or null before
+  // JDK 13, where a mapping can only be forced as a whole.
+  private static final MethodHandle forceRange = lookupForceRange();
+
+  private volatile ByteBuffer pageData;
+  // The mapping pageData belongs to, and where in it the page starts; forcing
+  // that range of it forces this page.
+  private MappedByteBuffer mapping;
+  private int mappingOffset;
   private int pageNum;
   private boolean durable;
+  // Set by every method that can modify the page, cleared when it is flushed.
+  private volatile boolean dirty;
+
+  // Only set for pages using positional I/O. pageData is null while such a
+  // page is evicted.
+  private FileChannel fc;
+  private long fileOffset;
+  private BufferArena arena;
+  private PageAllocator owner;
+  // The number of pins on the page, or EVICTING while evict gives the
+  // buffer of a page using positional I/O back to the arena.
+  private final AtomicInteger pinCount = new AtomicInteger(0);
+  private static final int EVICTING = -1;
+  // The metrics of the allocator this page belongs to, if any.
+  private IOMetrics metrics;
 
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
@@ -33,17 +68,94 @@ public class Page {
     this.durable = durable;
     PageAllocator.incrementCacheMisses();
     try {
-      this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);
+      this.mapping = fc.map(FileChannel.MapMode.READ_WRITE, ((long) blockNum)*Page.pageSize, Page.pageSize);
+      this.pageData = this.mapping;
     } catch (IOException e) {
       throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
     }
   }
 
+  /**
+   * Create a new page with virtual page number pageNum that views the Page.pageSize bytes of
+   * segment starting at offset.
+   *
+   * @param segment a mapping of a region of the file
+   * @param offset the offset of this page within segment
+   * @param pageNum the virtual page number
+   * @param durable whether flush forces the page to disk
+   */
+  Page(MappedByteBuffer segment, int offset, int pageNum, boolean durable) {
+    this.pageNum = pageNum;
+    this.durable = durable;
+    PageAllocator.incrementCacheMisses();
+    ByteBuffer view = segment.duplicate();
+    view.position(offset);
+    view.limit(offset + Page.pageSize);
+    this.mapping = segment;
+    this.mappingOffset = offset;
+    this.pageData = view.slice();
+  }
+
+  /**
+   * Create a new page with virtual page number pageNum that reads and writes block blockNum of fc
+   * with positional I/O through a buffer from arena.
+   *
+   * @param fc the file channel for this Page
+   * @param blockNum the block in the file for this page
+   * @param pageNum the virtual page number
+   * @param durable whether flush forces the page to disk
+   * @param arena the arena this page borrows its buffer from
+   * @param owner the allocator to return the page to when it is reloaded after eviction
+   */
+  Page(FileChannel fc, int blockNum, int pageNum, boolean durable, BufferArena arena,
+       PageAllocator owner) {
+    this.pageNum = pageNum;
+    this.durable = durable;
+    this.fc = fc;
+    this.fileOffset = ((long) blockNum) * Page.pageSize;
+    this.arena = arena;
+    this.owner = owner;
+    load();
+  }
+
+  /**
+   * Returns the bytes of the page, positioned at the start of the page. A caller that modifies
+   * them must call markDirty once it has; use getReadOnlyByteBuffer to only read them. The buffer
+   * of a page using positional I/O is only the page's while the page is pinned, so such a page
+   * must be pinned for as long as the buffer is used.
+   */
   public ByteBuffer getByteBuffer() {
+    if (this.mapping == null && !isPinned()) {
+      throw new PageException("page " + this.pageNum + " must be pinned to use its buffer");
+    }
+    ByteBuffer pageData = data();
     pageData.position(0);
     return pageData;
   }
 
+  /**
+   * Marks the page dirty after its bytes were modified through getByteBuffer. The page is only
+   * marked after the modification, so a flush racing with it either writes back the new bytes or
+   * leaves the page dirty.
+   */
+  public void markDirty() {
+    this.dirty = true;
+  }
+
+  /**
+   * Returns a read-only view of the bytes of the page, positioned at the start of the page. A
+   * page using positional I/O returns a view of a copy of its bytes instead, which stays valid
+   * after the page is evicted.
+   */
+  public ByteBuffer getReadOnlyByteBuffer() {
+    if (this.mapping == null) {
+      return ByteBuffer.wrap(readBytes()).asReadOnlyBuffer();
+    }
+    ByteBuffer view = this.pageData.asReadOnlyBuffer();
+    view.position(0);
+    return view;
+  }
+
   /**
    * Reads num bytes from offset position into buf.
    *
@@ -58,8 +170,13 @@ public class Page {
     if (buf.length < num) {
       throw new PageException("num bytes to read is longer than buffer");
     }
-    pageData.position(position);
-    pageData.get(buf, 0, num);
+    ByteBuffer pageData = acquire();
+    try {
+      pageData.position(position);
+      pageData.get(buf, 0, num);
+    } finally {
+      release();
+    }
   }
 
   /**
@@ -97,7 +214,12 @@ public class Page {
     if (position < 0 || position >= Page.pageSize) {
       throw new PageException("readByte is out of bounds of page");
     }
-    return pageData.get(position);
+    ByteBuffer pageData = acquire();
+    try {
+      return pageData.get(position);
+    } finally {
+      release();
+    }
   }
 
   /**
@@ -120,8 +242,14 @@ public class Page {
       throw new PageException("writeBytes would go out of bounds");
     }
 
-    pageData.position(position);
-    pageData.put(buf, 0, num);
+    ByteBuffer pageData = acquire();
+    try {
+      pageData.position(position);
+      pageData.put(buf, 0, num);
+      this.dirty = true;
+    } finally {
+      release();
+    }
   }
 
   /**
@@ -134,7 +262,13 @@ public class Page {
     if (position < 0 || position >= Page.pageSize) {
       throw new PageException("readByte is out of bounds of page");
     }
-    pageData.put(position, b);
+    ByteBuffer pageData = acquire();
+    try {
+      pageData.put(position, b);
+      this.dirty = true;
+    } finally {
+      release();
+    }
   }
 
   /**
@@ -166,15 +300,247 @@ public class Page {
   }
 
   /**
-   * Force the page to disk.
+   * Force the page to disk if it is dirty. A page that views a segment only forces its own range
+   * of the segment, except before JDK 13, where the whole segment is forced.
    */
   public void flush() {
+    if (!this.dirty) {
+      return;
+    }
+    if (this.mapping == null) {
+      synchronized (this) {
+        if (this.pageData != null && this.dirty) {
+          // Clear the bit first so that a write racing with the write-back
+          // leaves the page dirty.
+          this.dirty = false;
+          writeBack(this.durable);
+        }
+      }
+      return;
+    }
+    this.dirty = false;
+    recordDirtyFlush();
     if (this.durable) {
       PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+      forceMapping();
+    }
+  }
+
+  private void forceMapping() {
+    if (forceRange == null) {
+      this.mapping.force();
+      return;
+    }
+    try {
+      forceRange.invoke(this.mapping, this.mappingOffset, Page.pageSize);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new PageException("Can't force page: " + this.pageNum + " ; " + t.getMessage());
+    }
+  }
+
+  private static MethodHandle lookupForceRange() {
+    MethodType type = MethodType.methodType(MappedByteBuffer.class, int.class, int.class);
+    try {
+      return MethodHandles.publicLookup().findVirtual(MappedByteBuffer.class, "force", type);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return whether the page has been modified since it was last flushed
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  /**
+   * Called by the buffer pool when it evicts the page. A mapped page is flushed; a page using
+   * positional I/O is written back if it is dirty and gives its buffer back to the arena, unless
+   * it is pinned.
+   *
+   * @return false if the page is pinned and was not evicted
+   */
+  boolean evict() {
+    if (this.mapping != null) {
+      flush();
+      return true;
+    }
+    synchronized (this) {
+      if (this.pageData == null) {
+        return true;
+      }
+      // Nobody can pin the page until the buffer is back in the arena and
+      // pageData is null, so nobody is left using the buffer.
+      if (!this.pinCount.compareAndSet(0, EVICTING)) {
+        return false;
+      }
+      try {
+        if (this.dirty) {
+          this.dirty = false;
+          writeBack(this.durable);
+        }
+        this.arena.release(this.pageData);
+        this.pageData = null;
+      } finally {
+        this.pinCount.set(0);
+      }
+      return true;
     }
   }
 
+  /**
+   * Returns the bytes of the page for one access, pinning a page using positional I/O until
+   * release. The returned buffer is a duplicate, so concurrent accesses don't share a position.
+   */
+  private ByteBuffer acquire() {
+    if (this.mapping != null) {
+      return this.pageData.duplicate();
+    }
+    pin();
+    try {
+      return data().duplicate();
+    } catch (RuntimeException e) {
+      unpin();
+      throw e;
+    }
+  }
+
+  private void release() {
+    if (this.mapping == null) {
+      unpin();
+    }
+  }
+
+  /**
+   * Reads the page back in if it was evicted, which returns it to the buffer pool, without
+   * marking it dirty.
+   */
+  void reload() {
+    data();
+  }
+
+  /**
+   * @return the bytes of the page, reading them back in if the page was evicted
+   */
+  private ByteBuffer data() {
+    ByteBuffer data = this.pageData;
+    if (data != null) {
+      return data;
+    }
+    data = load();
+    // Outside of the page's lock: the pool may evict other pages to make room.
+    this.owner.pageReloaded(this);
+    return data;
+  }
+
+  private synchronized ByteBuffer load() {
+    if (this.pageData != null) {
+      return this.pageData;
+    }
+    PageAllocator.incrementCacheMisses();
+    ByteBuffer buf = this.arena.acquire();
+    try {
+      while (buf.hasRemaining()) {
+        int n = this.fc.read(buf, this.fileOffset + buf.position());
+        if (n < 0) {
+          // Past the end of the file: the rest of the page is zeros.
+          while (buf.hasRemaining()) {
+            buf.put((byte) 0);
+          }
+        }
+      }
+    } catch (IOException e) {
+      this.arena.release(buf);
+      throw new PageException("Can't read page: " + this.pageNum + " ; " + e.getMessage());
+    }
+    buf.clear();
+    this.pageData = buf;
+    return buf;
+  }
+
+  private void writeBack(boolean force) {
+    PageAllocator.incrementCacheMisses();
+    recordDirtyFlush();
+    ByteBuffer src = this.pageData.duplicate();
+    src.clear();
+    try {
+      while (src.hasRemaining()) {
+        this.fc.write(src, this.fileOffset + src.position());
+      }
+      if (force) {
+        this.fc.force(false);
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't write page: " + this.pageNum + " ; " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return the metrics the page's I/O is counted in, or null
+   */
+  IOMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Counts the page's evictions and dirty flushes in metrics.
+   */
+  void setMetrics(IOMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  private void recordDirtyFlush() {
+    if (this.metrics != null) {
+      this.metrics.recordDirtyFlush();
+    }
+  }
+
+  /**
+   * Pins the page so that the buffer pool will not evict it until it is
+   * unpinned. Pins nest: a page pinned twice must be unpinned twice.
+   */
+  public void pin() {
+    while (true) {
+      int count = this.pinCount.get();
+      if (count == EVICTING) {
+        // Wait for evict, which holds the page's lock until it is done.
+        synchronized (this) {
+        }
+        continue;
+      }
+      if (this.pinCount.compareAndSet(count, count + 1)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Releases one pin on the page.
+   */
+  public void unpin() {
+    if (this.pinCount.getAndDecrement() <= 0) {
+      this.pinCount.incrementAndGet();
+      throw new PageException("cannot unpin page " + this.pageNum + " that is not pinned");
+    }
+  }
+
+  /**
+   * @return whether the page is pinned
+   */
+  public boolean isPinned() {
+    return this.pinCount.get() > 0;
+  }
+
+  /**
+   * @return the number of outstanding pins on the page
+   */
+  public int getPinCount() {
+    return Math.max(0, this.pinCount.get());
+  }
+
   /**
    * @return the virtual page number of this page
    */
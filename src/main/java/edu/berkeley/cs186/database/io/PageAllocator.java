@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.io;
 
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
@@ -8,13 +9,19 @@ import java.nio.ByteOrder;
 import java.util.LinkedHashMap;
 import java.lang.IllegalArgumentException;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.lang.ref.WeakReference;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Closeable;
@@ -23,17 +30,47 @@ import edu.berkeley.cs186.database.common.BacktrackingIterator;
 
 /**
  * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
- * and virtual page translation.
+ * interface to individual pages with the Page objects, caching of pages in a BufferPool, 16GB worth
+ * of paging, and virtual page translation.
  *
- * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
+ * Hits, misses, evictions, dirty flushes, and allocation latencies of each PageAllocator are
+ * counted in its IOMetrics (see getMetrics), and also in those of its buffer pool. The static
+ * getNumIOs and getNumCacheMisses counters are kept for existing callers; they are global across
+ * every file.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
+  /**
+   * How a PageAllocator moves data pages between memory and its file.
+   *
+   *   - MMAP: pages are views of memory mappings of the file, and the OS decides when modified
+   *     pages are written back.
+   *   - POSITIONAL: pages are read into and written from buffers of the buffer pool's arena with
+   *     positional reads and writes, and are only written back when they are flushed or evicted.
+   *
+   * The master and header pages are always mapped.
+   */
+  public enum Backend {
+    MMAP,
+    POSITIONAL
+  }
+
   private static final int numHeaderPages = 1024;
-  private static final int cacheSize = 1024;
+
+  /**
+   * Data and header pages are handed out as views of SEGMENT_SIZE mappings of the file rather
+   * than as mappings of their own. The last segment of a growing file is mapped (and the file
+   * grown) ahead of the pages in use, doubling from MIN_SEGMENT_MAP bytes each time it fills up,
+   * and the unused tail of the file is trimmed off again by close().
+   */
+  public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+  private static final int MIN_SEGMENT_MAP = 1024 * 1024;
+
+  /**
+   * The default number of pages a PageIterator reads ahead of itself (see setReadAhead).
+   */
+  public static final int DEFAULT_READ_AHEAD = 8;
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
-  private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
   private static AtomicLong numIOs = new AtomicLong(0);
   private static AtomicLong cacheMisses = new AtomicLong(0);
 
@@ -42,6 +79,39 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   private int numPages;
   private int allocID;
   private boolean durable;
+  private BufferPool bufferPool;
+  private Backend backend;
+  private volatile boolean sequential;
+  private volatile int readAhead = DEFAULT_READ_AHEAD;
+  private IOMetrics metrics;
+
+  // Under the POSITIONAL backend, every data page that has been loaded and is
+  // still referenced somewhere, whether or not it is in the buffer pool. An
+  // evicted page that is fetched again is reloaded in place, so that there is
+  // only ever one Page for a given page number.
+  private Map<Integer, WeakReference<Page>> loadedPages;
+
+  // In-memory copies of the allocation metadata. headerCounts[i] mirrors the
+  // count stored for header page i in the master page, headersWithSpace has
+  // bit i set iff header page i has an unallocated data page, and
+  // allocatedPages[i] (loaded the first time header page i is needed) has bit
+  // j set iff data page j of header page i is allocated.
+  private int[] headerCounts;
+  private BitSet headersWithSpace;
+  private BitSet[] allocatedPages;
+  private Page[] headerPages;
+  private MappedByteBuffer[] segments;
+  // The length of the file up to the end of its last page; it is longer
+  // while the last segment is mapped ahead of the pages in use.
+  private long usedLength;
+
+  // Group commit state. While group commit is enabled, allocPage and freePage
+  // only record which metadata pages they dirtied, and sync() forces them.
+  private boolean groupCommit;
+  private boolean masterDirty;
+  private BitSet dirtyHeaders;
+  private ScheduledFuture<?> groupCommitTask;
+
   /**
    * Create a new PageAllocator that writes its bytes into a file named fName. If wipe is true, the
    * data in the page is completely removed.
@@ -54,7 +124,38 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
+    this(fName, wipe, durable, BufferPool.getDefault());
+  }
+
+  /**
+   * Create a new PageAllocator whose pages are cached in bufferPool rather than in the default
+   * buffer pool.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether writes are forced to disk
+   * @param bufferPool the buffer pool caching this PageAllocator's pages
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool) {
+    this(fName, wipe, durable, bufferPool, Backend.MMAP);
+  }
+
+  /**
+   * Create a new PageAllocator whose pages are cached in bufferPool and moved to and from disk
+   * by backend.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether writes are forced to disk
+   * @param bufferPool the buffer pool caching this PageAllocator's pages
+   * @param backend how data pages are read and written
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool,
+                       Backend backend) {
     this.durable = durable;
+    this.bufferPool = bufferPool;
+    this.backend = backend;
+    this.loadedPages = new HashMap<Integer, WeakReference<Page>>();
     try {
       this.fc = new RandomAccessFile(fName, "rw").getChannel();
     } catch (IOException e) {
@@ -62,36 +163,44 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     }
 
     this.masterPage = new Page(this.fc, 0, -1);
-    this.allocID = pACounter.getAndIncrement();
+    this.usedLength = fileSize();
+    int allocID = pACounter.getAndIncrement();
+    this.allocID = allocID;
+    this.metrics = new IOMetrics(bufferPool.getMetrics(),
+                                 () -> bufferPool.getNumPinnedFrames(allocID));
+
+    this.segments = new MappedByteBuffer[segmentOf(2 + numHeaderPages*(Page.pageSize + 1)) + 1];
+    this.headerPages = new Page[numHeaderPages];
+    this.allocatedPages = new BitSet[numHeaderPages];
+    this.headerCounts = new int[numHeaderPages];
+    ByteBuffer.wrap(this.masterPage.readBytes()).asIntBuffer().get(this.headerCounts);
+    this.dirtyHeaders = new BitSet(numHeaderPages);
 
     if (wipe) {
-      // Nukes masterPage and headerPages
-      byte[] masterBytes = this.masterPage.readBytes();
-      IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-
-      int[] pageCounts = new int[ib.capacity()];
-      ib.get(pageCounts);
-
-      this.numPages = 0;
-
-      for (int i = 0; i < numHeaderPages; i++) {
-        if (pageCounts[i] > 0) {
-          getHeadPage(i).wipe();
-        }
+      // Nukes masterPage and headerPages. The counts in the master page may
+      // be stale (see validateHeaderCounts), so every header page in the file
+      // is wiped without reading it first.
+      long fileSize = fileSize();
+      for (int i = 0; i < numHeaderPages && isInFile(i, fileSize); i++) {
+        getHeadPage(i).wipe();
       }
 
       this.masterPage.wipe();
+      Arrays.fill(this.headerCounts, 0);
+      Arrays.fill(this.allocatedPages, null);
+    } else {
+      validateHeaderCounts();
     }
 
-    byte[] masterBytes = masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
-
     this.numPages = 0;
+    this.headersWithSpace = new BitSet(numHeaderPages);
     for (int i = 0; i < numHeaderPages; i++) {
-      this.numPages += pageCounts[i];
+      this.numPages += this.headerCounts[i];
+      if (this.headerCounts[i] < Page.pageSize) {
+        this.headersWithSpace.set(i);
+      }
     }
+    bufferPool.attach(this.metrics, fName);
   }
 
   /**
@@ -100,53 +209,35 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return the virtual page number of the page
    */
   public synchronized int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
-
-    Page headerPage = null;
-    int headerIndex = -1;
-    for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
-        // Found header page with space
-        headerPage = getHeadPage(i);
-        headerIndex = i;
-        break;
-      }
-    }
-
-    if (headerPage == null) {
+    long start = System.nanoTime();
+    int headerIndex = this.headersWithSpace.nextSetBit(0);
+    if (headerIndex < 0 || headerIndex >= numHeaderPages) {
       throw new PageException("No free Pages Available");
     }
 
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
-
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
-        break;
-      }
-    }
-
-    if (pageIndex == -1) {
+    BitSet allocated = getAllocatedPages(headerIndex);
+    int pageIndex = allocated.nextClearBit(0);
+    if (pageIndex >= Page.pageSize) {
      throw new PageException("Header page should have free page but doesnt");
     }
 
-    int newCount = pageCounts[headerIndex] + 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
+    Page headerPage = getHeadPage(headerIndex);
+    int newCount = this.headerCounts[headerIndex] + 1;
+    this.masterPage.writeInt(headerIndex*4, newCount);
     headerPage.writeByte(pageIndex, (byte) 1);
 
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
+    this.headerCounts[headerIndex] = newCount;
+    allocated.set(pageIndex);
+    if (newCount == Page.pageSize) {
+      this.headersWithSpace.clear(headerIndex);
     }
 
+    metadataChanged(headerIndex);
+
     int pageNum = headerIndex * Page.pageSize + pageIndex;
     fetchPage(pageNum).wipe();
     this.numPages += 1;
+    this.metrics.recordAllocation(System.nanoTime() - start);
     return pageNum;
   }
 
@@ -156,17 +247,46 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @param pageNum the virtual page number
    * @return a Page object wrapping the page corresponding to pageNum
    */
-  public synchronized Page fetchPage(int pageNum) {
+  public Page fetchPage(int pageNum) {
+    return fetchPage(pageNum, this.sequential);
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum. If
+   * sequential is true, the page is being read as part of a scan, and the
+   * buffer pool will not treat this access as a sign that the page is hot.
+   *
+   * @param pageNum the virtual page number
+   * @param sequential whether the page is being read as part of a scan
+   * @return a Page object wrapping the page corresponding to pageNum
+   */
+  public Page fetchPage(int pageNum, boolean sequential) {
     if (pageNum < 0) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
     numIOs.getAndIncrement();
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        return pageLRU.get(translatePageNum(pageNum));
-      }
+    // Cache hits only touch the buffer pool shard the page lives in, so they
+    // never wait on this allocator's lock.
+    Page cached = this.bufferPool.get(translatePageNum(pageNum), sequential);
+    if (cached != null) {
+      this.metrics.recordHit();
+      return cached;
+    }
+    return loadPage(pageNum, sequential);
+  }
+
+  private synchronized Page loadPage(int pageNum, boolean sequential) {
+    if (this.masterPage == null) {
+      throw new PageException("page allocator is closed");
+    }
+
+    // Another thread may have loaded the page while we waited for the lock.
+    Page cached = this.bufferPool.get(translatePageNum(pageNum), sequential);
+    if (cached != null) {
+      this.metrics.recordHit();
+      return cached;
     }
 
     int headPageIndex = pageNum/Page.pageSize;
@@ -175,31 +295,43 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    byte[] headCountBytes = this.masterPage.readBytes(headPageIndex*4, 4);
-    int headCount = ByteBuffer.wrap(headCountBytes).getInt();
-
-    if (headCount < 1) {
+    if (this.headerCounts[headPageIndex] < 1) {
       throw new PageException("invalid page number -- page not allocated");
     }
 
-    Page headPage = getHeadPage(headPageIndex);
-
     int dataPageIndex = pageNum % Page.pageSize;
 
-    byte validByte = headPage.readByte(dataPageIndex);
-
-    if (validByte == 0) {
+    if (!getAllocatedPages(headPageIndex).get(dataPageIndex)) {
       throw new PageException("invalid page number -- page not allocated");
     }
 
     int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
-
-    synchronized(PageAllocator.class) {
-      pageLRU.put(translatePageNum(pageNum), dataPage);
+    Page dataPage;
+    if (this.backend == Backend.POSITIONAL) {
+      WeakReference<Page> ref = this.loadedPages.get(pageNum);
+      dataPage = ref == null ? null : ref.get();
+      if (dataPage == null) {
+        blockUsed(dataBlockID);
+        dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable,
+                            this.bufferPool.getArena(), this);
+        dataPage.setMetrics(this.metrics);
+        this.metrics.recordMiss();
+        this.loadedPages.put(pageNum, new WeakReference<Page>(dataPage));
+        if (this.loadedPages.size() > 2 * this.bufferPool.getNumFrames()) {
+          this.loadedPages.values().removeIf(r -> r.get() == null);
+        }
+      } else {
+        // Reading the page back in puts it back in the buffer pool (and
+        // counts the miss; see pageReloaded).
+        dataPage.reload();
+      }
+    } else {
+      dataPage = mapPage(dataBlockID, pageNum, this.durable);
+      dataPage.setMetrics(this.metrics);
+      this.metrics.recordMiss();
     }
 
-    return dataPage;
+    return this.bufferPool.putIfAbsent(translatePageNum(pageNum), dataPage, sequential);
   }
 
   /**
@@ -210,38 +342,32 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return whether or not the page was freed
    */
   public synchronized boolean freePage(Page p) {
-    if (this.durable) {
-      p.flush();
-    }
     int pageNum = p.getPageNum();
     int headPageIndex = pageNum/Page.pageSize;
     int dataPageIndex = pageNum % Page.pageSize;
 
-    Page headPage = getHeadPage(headPageIndex);
+    if (headPageIndex >= numHeaderPages) {
+      return false;
+    }
 
-    if (headPage.readByte(dataPageIndex) == 0) {
+    BitSet allocated = getAllocatedPages(headPageIndex);
+    if (!allocated.get(dataPageIndex)) {
       return false;
     }
 
+    Page headPage = getHeadPage(headPageIndex);
     headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
-    }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
 
-    int newCount = oldCount - 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
-    }
+    int newCount = this.headerCounts[headPageIndex] - 1;
+    masterPage.writeInt(headPageIndex*4, newCount);
+    metadataChanged(headPageIndex);
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        pageLRU.remove(translatePageNum(pageNum));
-      }
-    }
+    this.headerCounts[headPageIndex] = newCount;
+    allocated.clear(dataPageIndex);
+    this.headersWithSpace.set(headPageIndex);
+
+    this.bufferPool.remove(translatePageNum(pageNum));
+    p.evict();
 
     this.numPages -= 1;
     return true;
@@ -271,74 +397,349 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     if (this.masterPage == null) {
       return;
     }
+    if (this.groupCommitTask != null) {
+      this.groupCommitTask.cancel(false);
+      this.groupCommitTask = null;
+    }
     if (this.durable) {
+      sync();
       this.masterPage.flush();
     }
-    List<Long> toRemove = new ArrayList<Long>();
-    Set<Long> vPageNums = null;
-    List<Page> toFlush = new ArrayList<Page>();
+    this.bufferPool.detach(this.metrics);
+    List<Page> toFlush = this.bufferPool.removeAll(this.allocID);
+    for (Page p : toFlush) {
+      if (!p.evict()) {
+        // A page still pinned keeps its buffer, but is written back.
+        p.flush();
+      }
+    }
+    this.loadedPages.clear();
+    this.masterPage = null;
+    this.segments = null;
+    try {
+      if (this.fc.size() > this.usedLength) {
+        this.fc.truncate(this.usedLength);
+      }
+      this.fc.close();
+    } catch (IOException e) {
+      throw new PageException("Could not close Page Alloc " + e.getMessage());
+    }
+  }
 
-    synchronized(PageAllocator.class) {
-      vPageNums = pageLRU.keySet();
+  /**
+   * Switches this PageAllocator to group commit. Instead of forcing the
+   * master page and a header page to disk on every allocPage and freePage,
+   * changes to the allocation metadata are batched and forced together by
+   * sync(), which is also called every intervalMillis milliseconds if
+   * intervalMillis is positive. A crash can lose allocations made since the
+   * last sync; the header counts are validated and repaired when the file is
+   * next opened.
+   *
+   * @param intervalMillis how often to sync, or 0 to only sync explicitly
+   */
+  public synchronized void enableGroupCommit(long intervalMillis) {
+    if (this.groupCommitTask != null) {
+      this.groupCommitTask.cancel(false);
+      this.groupCommitTask = null;
+    }
+    this.groupCommit = true;
+    if (intervalMillis > 0) {
+      this.groupCommitTask = this.bufferPool.getScheduler().scheduleWithFixedDelay(
+          this::sync, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
     }
+  }
 
-    for (Long l : vPageNums) {
-      if (translateAllocator(l) == this.allocID) {
-        toRemove.add(l);
-      }
+  /**
+   * Syncs any pending allocation metadata and goes back to forcing it on
+   * every allocPage and freePage.
+   */
+  public synchronized void disableGroupCommit() {
+    if (this.groupCommitTask != null) {
+      this.groupCommitTask.cancel(false);
+      this.groupCommitTask = null;
     }
+    sync();
+    this.groupCommit = false;
+  }
 
-    synchronized(PageAllocator.class) {
-      for (Long vPageNum : toRemove) {
-        if (pageLRU.containsKey(vPageNum)) {
-          toFlush.add(pageLRU.get(vPageNum));
-          pageLRU.remove(vPageNum);
-        }
-      }
+  /**
+   * Forces every allocation metadata change made since the last sync to
+   * disk. This is a no-op unless group commit is enabled.
+   */
+  public synchronized void sync() {
+    if (this.masterPage == null || !this.durable) {
+      return;
     }
-    if (this.durable) {
-      for (Page p : toFlush) {
-        p.flush();
+    // Header pages go first: they are the source of truth when the counts in
+    // the master page are validated at open.
+    for (int i = this.dirtyHeaders.nextSetBit(0); i >= 0; i = this.dirtyHeaders.nextSetBit(i + 1)) {
+      getHeadPage(i).flush();
+    }
+    this.dirtyHeaders.clear();
+    if (this.masterDirty) {
+      this.masterPage.flush();
+      this.masterDirty = false;
+    }
+  }
+
+  /**
+   * Forces (or, under group commit, schedules the forcing of) the master page
+   * and header page headIndex after an allocation or free.
+   */
+  private void metadataChanged(int headIndex) {
+    if (!this.durable) {
+      return;
+    }
+    if (this.groupCommit) {
+      this.dirtyHeaders.set(headIndex);
+      this.masterDirty = true;
+    } else {
+      this.masterPage.flush();
+      getHeadPage(headIndex).flush();
+    }
+  }
+
+  /**
+   * Recounts the allocated data pages of every header page in the file and
+   * repairs the counts in the master page that disagree. The counts and the
+   * header pages can only disagree if a crash happened between updating one
+   * and the other, e.g. with group commit enabled.
+   */
+  private void validateHeaderCounts() {
+    long fileSize = fileSize();
+    boolean repaired = false;
+    for (int i = 0; i < numHeaderPages; i++) {
+      int count = 0;
+      if (isInFile(i, fileSize)) {
+        this.allocatedPages[i] = readAllocatedPages(i);
+        count = this.allocatedPages[i].cardinality();
+      }
+      if (count != this.headerCounts[i]) {
+        this.headerCounts[i] = count;
+        this.masterPage.writeInt(i*4, count);
+        repaired = true;
       }
     }
-    this.masterPage = null;
+    if (repaired && this.durable) {
+      this.masterPage.flush();
+    }
+  }
+
+  private long fileSize() {
     try {
-      this.fc.close();
+      return this.fc.size();
     } catch (IOException e) {
-      throw new PageException("Could not close Page Alloc " + e.getMessage());
+      throw new PageException("Could not read file size: " + e.getMessage());
+    }
+  }
+
+  // Whether header page headIndex is in a file of fileSize bytes. Header
+  // pages are laid out in order, so once one is missing from the file all
+  // later ones are too. Don't map missing ones: that would grow the file.
+  private static boolean isInFile(int headIndex, long fileSize) {
+    long headEnd = ((long) (2 + headIndex*(Page.pageSize + 1))) * Page.pageSize;
+    return headEnd <= fileSize;
+  }
+
+  private Page getHeadPage(int headIndex) {
+    if (this.headerPages[headIndex] == null) {
+      int headBlockID = 1 + headIndex*(Page.pageSize + 1);
+      this.headerPages[headIndex] = mapPage(headBlockID, -1, true);
+    }
+    return this.headerPages[headIndex];
+  }
+
+  /**
+   * Returns a Page for block blockID of the file, as a view of the block's segment if the segment
+   * is (or can now be) mapped far enough, and as a mapping of its own otherwise.
+   */
+  private Page mapPage(int blockID, int pageNum, boolean durable) {
+    long offset = ((long) blockID) * Page.pageSize;
+    int segIndex = segmentOf(blockID);
+    int segOffset = (int) (offset - ((long) segIndex) * SEGMENT_SIZE);
+
+    MappedByteBuffer segment = this.segments[segIndex];
+    if (segment == null || segment.capacity() < segOffset + Page.pageSize) {
+      segment = growSegment(segIndex, segOffset + Page.pageSize);
+    }
+    blockUsed(blockID);
+    return new Page(segment, segOffset, pageNum, durable);
+  }
+
+  /**
+   * Maps at least the first needed bytes of segment segIndex, growing the file if it is shorter.
+   * The new mapping is at least twice as large as the old one (and at least MIN_SEGMENT_MAP), so
+   * a segment is remapped only a handful of times as the file grows. Pages handed out from an
+   * older mapping of the segment stay valid; the old mapping is released once they are all gone.
+   */
+  private MappedByteBuffer growSegment(int segIndex, int needed) {
+    MappedByteBuffer segment = this.segments[segIndex];
+    long segStart = ((long) segIndex) * SEGMENT_SIZE;
+    long mapped = segment == null ? 0 : segment.capacity();
+    long size = Math.max(needed, Math.max(2 * mapped, MIN_SEGMENT_MAP));
+    size = Math.min(SEGMENT_SIZE, size);
+
+    try {
+      // Mapping past the end of the file extends it; close() trims it back.
+      segment = this.fc.map(FileChannel.MapMode.READ_WRITE, segStart, size);
+    } catch (IOException e) {
+      throw new PageException("Can't mmap segment: " + segIndex + " ; " + e.getMessage());
+    }
+    this.segments[segIndex] = segment;
+    return segment;
+  }
+
+  /**
+   * Records that block blockID holds a page, so that close() does not trim it off the file.
+   */
+  private void blockUsed(int blockID) {
+    this.usedLength = Math.max(this.usedLength, ((long) blockID + 1) * Page.pageSize);
+  }
+
+  private static int segmentOf(int blockID) {
+    return (int) ((((long) blockID) * Page.pageSize) / SEGMENT_SIZE);
+  }
+
+  /**
+   * Returns the set of allocated data pages of header page headIndex, reading
+   * it from the header page the first time it is needed.
+   */
+  private BitSet getAllocatedPages(int headIndex) {
+    if (this.allocatedPages[headIndex] == null) {
+      if (this.headerCounts[headIndex] > 0) {
+        this.allocatedPages[headIndex] = readAllocatedPages(headIndex);
+      } else {
+        this.allocatedPages[headIndex] = new BitSet(Page.pageSize);
+      }
     }
+    return this.allocatedPages[headIndex];
   }
 
-  private synchronized Page getHeadPage(int headIndex) {
-    int headBlockID = 1 + headIndex*(Page.pageSize + 1);
-    return new Page(this.fc, headBlockID, -1);
+  private BitSet readAllocatedPages(int headIndex) {
+    BitSet allocated = new BitSet(Page.pageSize);
+    byte[] headerBytes = getHeadPage(headIndex).readBytes();
+    for (int i = 0; i < Page.pageSize; i++) {
+      if (headerBytes[i] != 0) {
+        allocated.set(i);
+      }
+    }
+    return allocated;
   }
 
   public synchronized int getNumPages() {
     return this.numPages;
   }
 
-  public synchronized static long getNumIOs() {
+  /**
+   * Called by a page using positional I/O that read itself back in after being evicted.
+   */
+  void pageReloaded(Page page) {
+    this.metrics.recordMiss();
+    if (this.masterPage != null) {
+      this.bufferPool.putIfAbsent(translatePageNum(page.getPageNum()), page, false);
+    }
+  }
+
+  /**
+   * @return how this PageAllocator reads and writes data pages
+   */
+  public Backend getBackend() {
+    return this.backend;
+  }
+
+  /**
+   * Marks every fetch of this PageAllocator's pages as sequential (see
+   * fetchPage(int, boolean)). Useful for files that are only ever scanned,
+   * such as the runs of an external sort.
+   *
+   * @param sequential whether fetches default to sequential
+   */
+  public void setSequential(boolean sequential) {
+    this.sequential = sequential;
+  }
+
+  /**
+   * @return whether fetches of this PageAllocator's pages default to sequential
+   */
+  public boolean isSequential() {
+    return this.sequential;
+  }
+
+  /**
+   * Sets how many pages a PageIterator of this allocator reads ahead of itself. Once an iterator
+   * has returned two pages in a row, it asks the buffer pool's read-ahead threads to load the next
+   * numPages pages, and asks again each time it gets halfway through them. The window is capped at
+   * an eighth of the buffer pool, so that prefetched pages are not evicted before they are used.
+   *
+   * @param numPages the size of the read-ahead window, or 0 to disable read-ahead
+   */
+  public void setReadAhead(int numPages) {
+    if (numPages < 0) {
+      throw new IllegalArgumentException("read-ahead window can't be negative");
+    }
+    this.readAhead = numPages;
+  }
+
+  /**
+   * @return the size of the read-ahead window of this allocator's PageIterators
+   */
+  public int getReadAhead() {
+    return Math.min(this.readAhead, this.bufferPool.getNumFrames() / 8);
+  }
+
+  /**
+   * Loads pages [from, to) into the buffer pool and touches them, so that the page faults (or
+   * reads, under the POSITIONAL backend) happen on the pool's read-ahead threads rather than on the
+   * thread that later fetches the pages. Unallocated pages are skipped.
+   */
+  private void prefetch(int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (this.masterPage == null) {
+        return;
+      }
+      try {
+        fetchPage(i, true).getReadOnlyByteBuffer().get(0);
+      } catch (PageException e) {
+        // Not allocated (or the allocator was closed under us).
+      }
+    }
+  }
+
+  /**
+   * @return the metrics of this PageAllocator's file
+   */
+  public IOMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * @return the buffer pool caching this PageAllocator's pages
+   */
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
+  public static long getNumIOs() {
     return PageAllocator.numIOs.get();
   }
 
-  static synchronized void incrementNumIOs() {
+  static void incrementNumIOs() {
     PageAllocator.numIOs.getAndIncrement();
   }
 
-  static synchronized void incrementCacheMisses() {
+  static void incrementCacheMisses() {
     PageAllocator.cacheMisses.getAndIncrement();
   }
 
-  public synchronized static long getNumCacheMisses() {
+  public static long getNumCacheMisses() {
     return PageAllocator.cacheMisses.get();
   }
 
-  private synchronized long translatePageNum(int pageNum) {
+  private long translatePageNum(int pageNum) {
     return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
   }
 
-  static synchronized private int translateAllocator(long vPageNum) {
+  static int translateAllocator(long vPageNum) {
     return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
   }
 
@@ -354,12 +755,18 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     private int cursor;
     private int markedPageNum;
     private int markedCursor;
+    // Read-ahead state: the number of pages returned since the iterator was
+    // created or reset, and the cursor up to which pages have been prefetched.
+    private int run;
+    private int prefetchedUpTo;
 
     public PageIterator() {
       this.pageNum = 0;
       this.cursor = 0;
       this.markedPageNum = 0;
       this.markedCursor = 0;
+      this.run = 0;
+      this.prefetchedUpTo = 0;
     }
 
     public boolean hasNext() {
@@ -371,9 +778,10 @@ public class PageAllocator implements Iterable<Page>, Closeable {
         while (true) {
           Page p;
           try {
-            p = PageAllocator.this.fetchPage(cursor);
+            p = PageAllocator.this.fetchPage(cursor, true);
             cursor++;
             pageNum++;
+            readAhead();
             return p;
           } catch (PageException e) {
             cursor++;
@@ -387,6 +795,28 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new UnsupportedOperationException();
     }
 
+    private void readAhead() {
+      this.run++;
+      int window = PageAllocator.this.getReadAhead();
+      if (window == 0 || this.run < 2) {
+        return;
+      }
+      if (this.cursor + window / 2 < this.prefetchedUpTo) {
+        return;
+      }
+
+      final int from = Math.max(this.cursor, this.prefetchedUpTo);
+      final int to = this.cursor + window;
+      this.prefetchedUpTo = to;
+      try {
+        PageAllocator.this.bufferPool.getReadAheadExecutor().execute(
+            () -> PageAllocator.this.prefetch(from, to));
+      } catch (RejectedExecutionException e) {
+        // The buffer pool was closed, or its read-ahead queue is full;
+        // read-ahead is only an optimization.
+      }
+    }
+
     /**
      * Marks a page to come back to later.
      *
@@ -416,6 +846,8 @@ public class PageAllocator implements Iterable<Page>, Closeable {
      public void reset() {
       this.pageNum = this.markedPageNum - 1;
       this.cursor = this.markedCursor - 1;
+      this.run = 0;
+      this.prefetchedUpTo = 0;
     }
   }
 }
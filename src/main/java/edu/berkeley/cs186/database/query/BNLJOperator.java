@@ -13,6 +13,7 @@ import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -61,7 +62,9 @@ public class BNLJOperator extends JoinOperator {
         private Iterator<Page> leftIterator = null;
         private Iterator<Page> rightIterator = null;
         private BacktrackingIterator<Record> leftRecordIterator = null;
-        private BacktrackingIterator<Record> rightRecordIterator = null;
+        // Right records are only looked at through views (see RecordView), and
+        // only decoded when they join with the current left record.
+        private Iterator<RecordView> rightRecordIterator = null;
         private Record leftRecord = null;
         private Record nextRecord = null;
         private Page[] currentLeftPages;
@@ -78,16 +81,15 @@ public class BNLJOperator extends JoinOperator {
             rightIterator.next();
             leftIterator.next();
 
-            currentLeftPages = new Page[numBuffers];
-            for (int i = 0; i < numBuffers; i++) {
-                currentLeftPages[i] = leftIterator.hasNext() ? leftIterator.next() : null;
-            }
-
-            currentLeftPages = Arrays.stream(currentLeftPages).filter(x -> x != null).toArray(Page[]::new);
+            fetchLeftBlock();
 
             currentRightPage = rightIterator.next();
+            currentRightPage.pin();
             leftRecordIterator = getBlockIterator(getLeftTableName(), currentLeftPages);
 
+            // The pages are only pinned while hasNext reads them, so an
+            // iterator that is abandoned before it is exhausted holds no pins.
+            unpinPages();
         }
 
 
@@ -103,20 +105,16 @@ public class BNLJOperator extends JoinOperator {
                 return true;
             }
 
+            pinPages();
             try {
                 while (true) {
                     if (leftRecord == null) {
                         if (leftRecordIterator.hasNext()) {
                             leftRecord = leftRecordIterator.next();
-                            rightRecordIterator = getBlockIterator(getRightTableName(), new Page[]{currentRightPage});
+                            rightRecordIterator = getBlockViewIterator(getRightTableName(), new Page[]{currentRightPage});
                         } else {
                             if (!rightIterator.hasNext()) {
-                                currentLeftPages = new Page[numBuffers];
-                                for (int i = 0; i < numBuffers; i++) {
-                                    currentLeftPages[i] = leftIterator.hasNext() ? leftIterator.next() : null;
-                                }
-
-                                currentLeftPages = Arrays.stream(currentLeftPages).filter(x -> x != null).toArray(Page[]::new);
+                                fetchLeftBlock();
 
                                 leftRecordIterator = getBlockIterator(getLeftTableName(), currentLeftPages);
                                 if (!leftRecordIterator.hasNext()) {
@@ -132,18 +130,19 @@ public class BNLJOperator extends JoinOperator {
                                 leftRecord = leftRecordIterator.next();
                             }
 
+                            currentRightPage.unpin();
                             currentRightPage = rightIterator.next();
-                            rightRecordIterator = getBlockIterator(getRightTableName(), new Page[]{currentRightPage});
+                            currentRightPage.pin();
+                            rightRecordIterator = getBlockViewIterator(getRightTableName(), new Page[]{currentRightPage});
                         }
                     }
+                    DataBox leftJoinValue = leftRecord.getValues().get(getLeftColumnIndex());
                     while (rightRecordIterator.hasNext()) {
-                        Record rightRecord = rightRecordIterator.next();
-                        DataBox leftJoinValue = leftRecord.getValues().get(getLeftColumnIndex());
-                        DataBox rightJoinValue = rightRecord.getValues().get(getRightColumnIndex());
+                        RecordView rightRecord = rightRecordIterator.next();
 
-                        if (leftJoinValue.equals(rightJoinValue)) {
+                        if (rightRecord.fieldEquals(getRightColumnIndex(), leftJoinValue)) {
                             List<DataBox> leftValues = new ArrayList<>(leftRecord.getValues());
-                            List<DataBox> rightValues = new ArrayList<>(rightRecord.getValues());
+                            List<DataBox> rightValues = rightRecord.toRecord().getValues();
                             leftValues.addAll(rightValues);
                             nextRecord = new Record(leftValues);
                             return true;
@@ -154,7 +153,53 @@ public class BNLJOperator extends JoinOperator {
             } catch (DatabaseException e) {
                 System.err.println("Caught database error " + e.getMessage());
                 return false;
+            } finally {
+                unpinPages();
+            }
+        }
+
+        /**
+         * Replaces the current block of left pages with the next numBuffers
+         * pages of the left relation. Like the pages it replaces, the pages of
+         * the new block are pinned until the caller calls unpinPages.
+         */
+        private void fetchLeftBlock() {
+            if (currentLeftPages != null) {
+                for (Page page : currentLeftPages) {
+                    page.unpin();
+                }
+            }
+
+            currentLeftPages = new Page[numBuffers];
+            for (int i = 0; i < numBuffers; i++) {
+                currentLeftPages[i] = leftIterator.hasNext() ? leftIterator.next() : null;
+            }
+
+            currentLeftPages = Arrays.stream(currentLeftPages).filter(x -> x != null).toArray(Page[]::new);
+            for (Page page : currentLeftPages) {
+                page.pin();
+            }
+        }
+
+        /**
+         * Pins the current block of left pages and the current right page, so
+         * that the buffer pool keeps them while they are being joined.
+         */
+        private void pinPages() {
+            for (Page page : currentLeftPages) {
+                page.pin();
+            }
+            currentRightPage.pin();
+        }
+
+        /**
+         * Releases the pins taken by pinPages.
+         */
+        private void unpinPages() {
+            for (Page page : currentLeftPages) {
+                page.unpin();
             }
+            currentRightPage.unpin();
         }
 
         /**
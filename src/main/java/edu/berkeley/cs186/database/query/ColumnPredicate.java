@@ -0,0 +1,99 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * A predicate that compares a column of a record to a value, like the predicate of a
+ * SelectOperator. It can be evaluated on records, or on record views without decoding them.
+ * ColumnPredicates are immutable, so one can be evaluated by many threads at once.
+ */
+class ColumnPredicate {
+  private final int columnIndex;
+  private final QueryPlan.PredicateOperator operator;
+  private final DataBox value;
+  // Whether the predicate compares an int column to an int, in which case it
+  // is evaluated with primitive comparisons (see Record#compareInt).
+  private final boolean intPredicate;
+  private final int intValue;
+
+  /**
+   * @param schema the schema of the records the predicate is evaluated on
+   * @param columnIndex the index of the column to compare in schema
+   * @param operator the actual comparator
+   * @param value the value to compare against
+   */
+  ColumnPredicate(Schema schema,
+                  int columnIndex,
+                  QueryPlan.PredicateOperator operator,
+                  DataBox value) {
+    this.columnIndex = columnIndex;
+    this.operator = operator;
+    this.value = value;
+    this.intPredicate = schema.getTypeId(columnIndex) == TypeId.INT
+                        && value instanceof IntDataBox;
+    this.intValue = this.intPredicate ? value.getInt() : 0;
+  }
+
+  /**
+   * @return whether record satisfies the predicate
+   */
+  boolean matches(Record record) {
+    if (this.intPredicate) {
+      return this.satisfies(record.compareInt(this.columnIndex, this.intValue));
+    }
+    DataBox field = record.getValues().get(this.columnIndex);
+    switch (this.operator) {
+      case EQUALS:
+        return field.equals(this.value);
+      case NOT_EQUALS:
+        return !field.equals(this.value);
+      default:
+        return this.satisfies(field.compareTo(this.value));
+    }
+  }
+
+  /**
+   * Evaluates the predicate on the record view points at without decoding the record.
+   */
+  boolean matches(RecordView view) {
+    if (this.intPredicate) {
+      return this.satisfies(view.compareInt(this.columnIndex, this.intValue));
+    }
+    switch (this.operator) {
+      case EQUALS:
+        return view.fieldEquals(this.columnIndex, this.value);
+      case NOT_EQUALS:
+        return !view.fieldEquals(this.columnIndex, this.value);
+      default:
+        return this.satisfies(view.compareTo(this.columnIndex, this.value));
+    }
+  }
+
+  /**
+   * @param cmp the result of comparing the column to the predicate's value
+   * @return whether a record whose column compares to the value as cmp satisfies the predicate
+   */
+  private boolean satisfies(int cmp) {
+    switch (this.operator) {
+      case EQUALS:
+        return cmp == 0;
+      case NOT_EQUALS:
+        return cmp != 0;
+      case LESS_THAN:
+        return cmp < 0;
+      case LESS_THAN_EQUALS:
+        return cmp <= 0;
+      case GREATER_THAN:
+        return cmp > 0;
+      case GREATER_THAN_EQUALS:
+        return cmp >= 0;
+      default:
+        return false;
+    }
+  }
+}
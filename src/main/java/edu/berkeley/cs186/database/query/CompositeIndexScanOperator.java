@@ -0,0 +1,250 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * A CompositeIndexScanOperator returns the records of a table that satisfy several predicates at
+ * once, with a single probe of a composite index (see Database#createCompositeIndex). Given an
+ * index on columns [c1, ..., cn], it serves equality predicates on c1, ..., ck, and optionally a
+ * comparison on c(k+1): e.g. an index on [a, b] serves a = x and b > y. The probe returns the
+ * records in ascending order of the indexed columns.
+ */
+public class CompositeIndexScanOperator extends QueryOperator {
+  private Database.Transaction transaction;
+  private String tableName;
+  private List<String> columnNames;
+  private List<DataBox> prefix;
+  private QueryPlan.PredicateOperator operator;
+  private DataBox value;
+
+  // The columns of the predicates, in the output schema.
+  private List<Integer> columnIndices;
+  // The comparison on the column after the prefix, or null if there is none.
+  private ColumnPredicate predicate;
+
+  /**
+   * Creates a new CompositeIndexScanOperator that returns the records whose values of the first
+   * prefix.size() columns of columnNames equal the values of prefix.
+   *
+   * @param transaction the transaction containing this operator
+   * @param tableName the table to iterate over
+   * @param columnNames the columns of the composite index, in order
+   * @param prefix the values of the leading columns
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public CompositeIndexScanOperator(Database.Transaction transaction,
+                                    String tableName,
+                                    List<String> columnNames,
+                                    List<DataBox> prefix) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName, columnNames, prefix, null, null);
+  }
+
+  /**
+   * Creates a new CompositeIndexScanOperator that returns the records whose values of the first
+   * prefix.size() columns of columnNames equal the values of prefix, and whose value of the next
+   * column satisfies the predicate given by operator and value.
+   *
+   * @param transaction the transaction containing this operator
+   * @param tableName the table to iterate over
+   * @param columnNames the columns of the composite index, in order
+   * @param prefix the values of the leading columns
+   * @param operator the comparator on the column after the prefix, or null for none
+   * @param value the value to compare against
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public CompositeIndexScanOperator(Database.Transaction transaction,
+                                    String tableName,
+                                    List<String> columnNames,
+                                    List<DataBox> prefix,
+                                    QueryPlan.PredicateOperator operator,
+                                    DataBox value) throws QueryPlanException, DatabaseException {
+    super(OperatorType.COMPOSITEINDEXSCAN);
+    if (!transaction.indexExists(tableName, columnNames)) {
+      throw new QueryPlanException("No composite index on " + columnNames + " of " + tableName + ".");
+    }
+    int numPredicates = prefix.size() + (operator == null ? 0 : 1);
+    if (numPredicates > columnNames.size()) {
+      throw new QueryPlanException("More predicates than indexed columns.");
+    }
+    if (operator == QueryPlan.PredicateOperator.NOT_EQUALS) {
+      throw new QueryPlanException("A composite index can not serve a NOT_EQUALS predicate.");
+    }
+    this.transaction = transaction;
+    this.tableName = tableName;
+    this.columnNames = columnNames;
+    this.prefix = prefix;
+    this.operator = operator;
+    this.value = value;
+    this.setOutputSchema(this.computeSchema());
+
+    this.columnIndices = new ArrayList<Integer>();
+    for (int i = 0; i < numPredicates; i++) {
+      String columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnNames.get(i));
+      this.columnIndices.add(this.getOutputSchema().getFieldNames().indexOf(columnName));
+    }
+    if (operator != null) {
+      this.predicate = new ColumnPredicate(this.getOutputSchema(),
+                                           this.columnIndices.get(prefix.size()),
+                                           operator, value);
+    }
+
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  public String getTableName() {
+    return this.tableName;
+  }
+
+  public List<String> getColumnNames() {
+    return this.columnNames;
+  }
+
+  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+    return new CompositeIndexScanIterator();
+  }
+
+  public Schema computeSchema() throws QueryPlanException {
+    try {
+      return this.transaction.getFullyQualifiedSchema(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  public String str() {
+    String s = "type: " + this.getType() +
+               "\ntable: " + this.tableName +
+               "\ncolumns: " + this.columnNames +
+               "\nprefix: " + this.prefix;
+    if (this.operator != null) {
+      s += "\noperator: " + this.operator +
+           "\nvalue: " + this.value;
+    }
+    return s;
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    TableStats stats;
+    try {
+      stats = this.transaction.getStats(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    for (int i = 0; i < this.prefix.size(); i++) {
+      stats = stats.copyWithPredicate(this.columnIndices.get(i),
+                                      QueryPlan.PredicateOperator.EQUALS,
+                                      this.prefix.get(i));
+    }
+    if (this.operator != null) {
+      stats = stats.copyWithPredicate(this.columnIndices.get(this.prefix.size()),
+                                      this.operator, this.value);
+    }
+    return stats;
+  }
+
+  /**
+   * Estimates the IO cost of executing this query operator: the index pages, plus one I/O for each
+   * matching record, since the index is unclustered.
+   *
+   * @return estimate IO cost
+   * @throws QueryPlanException
+   */
+  public int estimateIOCost() throws QueryPlanException {
+    int numIndexPages;
+    try {
+      numIndexPages = this.transaction.getNumIndexPages(this.tableName, this.columnNames);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    return this.stats.getNumRecords() + numIndexPages;
+  }
+
+  /**
+   * An implementation of Iterator that provides an iterator interface for this operator.
+   */
+  private class CompositeIndexScanIterator implements Iterator<Record> {
+    private Iterator<Record> sourceIterator;
+    private Record nextRecord;
+
+    private CompositeIndexScanIterator() throws DatabaseException {
+      CompositeIndexScanOperator op = CompositeIndexScanOperator.this;
+      DataBox from = null;
+      DataBox to = null;
+      if (op.operator != null) {
+        switch (op.operator) {
+          case EQUALS:
+            from = op.value;
+            to = op.value;
+            break;
+          case LESS_THAN:
+          case LESS_THAN_EQUALS:
+            to = op.value;
+            break;
+          case GREATER_THAN:
+          case GREATER_THAN_EQUALS:
+            from = op.value;
+            break;
+          default:
+            break;
+        }
+      }
+      this.sourceIterator = op.transaction.lookupPrefixRange(op.tableName, op.columnNames,
+                                                            op.prefix, from, to);
+      this.nextRecord = null;
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      // The probe's bounds are inclusive, so strict comparisons are checked here.
+      while (this.nextRecord == null && this.sourceIterator.hasNext()) {
+        Record r = this.sourceIterator.next();
+        if (CompositeIndexScanOperator.this.predicate == null ||
+            CompositeIndexScanOperator.this.predicate.matches(r)) {
+          this.nextRecord = r;
+        }
+      }
+      return this.nextRecord != null;
+    }
+
+    /**
+     * Yields the next record of this iterator.
+     *
+     * @return the next Record
+     * @throws NoSuchElementException if there are no more Records to yield
+     */
+    public Record next() {
+      if (this.hasNext()) {
+        Record r = this.nextRecord;
+        this.nextRecord = null;
+        return r;
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,259 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * An IndexOnlyScanOperator answers a query from a covering index (see
+ * Database#createCoveringIndex) alone. Its records hold only the indexed columns followed by the
+ * included columns, which it decodes from the leaves of the index, so unlike an
+ * IndexScanOperator or a CompositeIndexScanOperator, it never fetches a record from the table.
+ * Like a CompositeIndexScanOperator, it serves equality predicates on a prefix of the indexed
+ * columns and a comparison on the column after the prefix, and returns its records in ascending
+ * order of the indexed columns. With no predicates, it scans the whole index.
+ */
+public class IndexOnlyScanOperator extends QueryOperator {
+  private Database.Transaction transaction;
+  private String tableName;
+  private List<String> columnNames;
+  private List<String> includedColumnNames;
+  private List<DataBox> prefix;
+  private QueryPlan.PredicateOperator operator;
+  private DataBox value;
+
+  // The columns of the table that the output columns are.
+  private List<Integer> tableColumns;
+  // The comparison on the column after the prefix, or null if there is none.
+  private ColumnPredicate predicate;
+
+  /**
+   * Creates a new IndexOnlyScanOperator that returns the indexed and included columns of the
+   * records whose values of the first prefix.size() columns of columnNames equal the values of
+   * prefix, and whose value of the next column satisfies the predicate given by operator and
+   * value, if operator is not null.
+   *
+   * @param transaction the transaction containing this operator
+   * @param tableName the table to iterate over
+   * @param columnNames the columns of the covering index, in order
+   * @param prefix the values of the leading columns
+   * @param operator the comparator on the column after the prefix, or null for none
+   * @param value the value to compare against
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public IndexOnlyScanOperator(Database.Transaction transaction,
+                               String tableName,
+                               List<String> columnNames,
+                               List<DataBox> prefix,
+                               QueryPlan.PredicateOperator operator,
+                               DataBox value) throws QueryPlanException, DatabaseException {
+    super(OperatorType.INDEXONLYSCAN);
+    if (!transaction.indexExists(tableName, columnNames)) {
+      throw new QueryPlanException("No composite index on " + columnNames + " of " + tableName + ".");
+    }
+    List<String> includedColumnNames = transaction.getIncludedColumns(tableName, columnNames);
+    if (includedColumnNames.isEmpty()) {
+      throw new QueryPlanException("The index on " + columnNames + " of " + tableName +
+                                   " is not a covering index.");
+    }
+    int numPredicates = prefix.size() + (operator == null ? 0 : 1);
+    if (numPredicates > columnNames.size()) {
+      throw new QueryPlanException("More predicates than indexed columns.");
+    }
+    if (operator == QueryPlan.PredicateOperator.NOT_EQUALS) {
+      throw new QueryPlanException("An index can not serve a NOT_EQUALS predicate.");
+    }
+    this.transaction = transaction;
+    this.tableName = tableName;
+    this.columnNames = columnNames;
+    this.includedColumnNames = includedColumnNames;
+    this.prefix = prefix;
+    this.operator = operator;
+    this.value = value;
+    this.tableColumns = new ArrayList<Integer>();
+    this.setOutputSchema(this.computeSchema());
+
+    // The indexed columns come first in the output, so the comparison is on column prefix.size().
+    if (operator != null) {
+      this.predicate = new ColumnPredicate(this.getOutputSchema(), prefix.size(), operator, value);
+    }
+
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  public String getTableName() {
+    return this.tableName;
+  }
+
+  public List<String> getColumnNames() {
+    return this.columnNames;
+  }
+
+  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+    return new IndexOnlyScanIterator();
+  }
+
+  public Schema computeSchema() throws QueryPlanException {
+    Schema tableSchema;
+    try {
+      tableSchema = this.transaction.getFullyQualifiedSchema(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    List<String> names = new ArrayList<String>();
+    List<Type> types = new ArrayList<Type>();
+    List<String> columns = new ArrayList<String>(this.columnNames);
+    columns.addAll(this.includedColumnNames);
+    this.tableColumns.clear();
+    for (String column : columns) {
+      String name = this.checkSchemaForColumn(tableSchema, column);
+      int i = tableSchema.getFieldNames().indexOf(name);
+      names.add(name);
+      types.add(tableSchema.getFieldTypes().get(i));
+      this.tableColumns.add(i);
+    }
+    return new Schema(names, types);
+  }
+
+  public String str() {
+    String s = "type: " + this.getType() +
+               "\ntable: " + this.tableName +
+               "\ncolumns: " + this.columnNames +
+               "\nincluded columns: " + this.includedColumnNames +
+               "\nprefix: " + this.prefix;
+    if (this.operator != null) {
+      s += "\noperator: " + this.operator +
+           "\nvalue: " + this.value;
+    }
+    return s;
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    TableStats stats;
+    try {
+      stats = this.transaction.getStats(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    for (int i = 0; i < this.prefix.size(); i++) {
+      stats = stats.copyWithPredicate(this.tableColumns.get(i),
+                                      QueryPlan.PredicateOperator.EQUALS,
+                                      this.prefix.get(i));
+    }
+    if (this.operator != null) {
+      stats = stats.copyWithPredicate(this.tableColumns.get(this.prefix.size()),
+                                      this.operator, this.value);
+    }
+    return stats.copyWithProjection(this.getOutputSchema(), this.tableColumns);
+  }
+
+  /**
+   * Estimates the IO cost of executing this query operator: the share of the index's pages that
+   * hold the matching entries. No records are fetched, so there is no I/O per record.
+   *
+   * @return estimate IO cost
+   * @throws QueryPlanException
+   */
+  public int estimateIOCost() throws QueryPlanException {
+    int numIndexPages;
+    int numRecords;
+    try {
+      numIndexPages = this.transaction.getNumIndexPages(this.tableName, this.columnNames);
+      numRecords = this.transaction.getStats(this.tableName).getNumRecords();
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    if (numRecords == 0) {
+      return 1;
+    }
+    double fraction = Math.min(1.0, (double) this.stats.getNumRecords() / numRecords);
+    return Math.max(1, (int) Math.ceil(numIndexPages * fraction));
+  }
+
+  /**
+   * An implementation of Iterator that provides an iterator interface for this operator.
+   */
+  private class IndexOnlyScanIterator implements Iterator<Record> {
+    private Iterator<Record> sourceIterator;
+    private Record nextRecord;
+
+    private IndexOnlyScanIterator() throws DatabaseException {
+      IndexOnlyScanOperator op = IndexOnlyScanOperator.this;
+      DataBox from = null;
+      DataBox to = null;
+      if (op.operator != null) {
+        switch (op.operator) {
+          case EQUALS:
+            from = op.value;
+            to = op.value;
+            break;
+          case LESS_THAN:
+          case LESS_THAN_EQUALS:
+            to = op.value;
+            break;
+          case GREATER_THAN:
+          case GREATER_THAN_EQUALS:
+            from = op.value;
+            break;
+          default:
+            break;
+        }
+      }
+      this.sourceIterator = op.transaction.lookupCovered(op.tableName, op.columnNames,
+                                                         op.prefix, from, to);
+      this.nextRecord = null;
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      // The probe's bounds are inclusive, so strict comparisons are checked here.
+      while (this.nextRecord == null && this.sourceIterator.hasNext()) {
+        Record r = this.sourceIterator.next();
+        if (IndexOnlyScanOperator.this.predicate == null ||
+            IndexOnlyScanOperator.this.predicate.matches(r)) {
+          this.nextRecord = r;
+        }
+      }
+      return this.nextRecord != null;
+    }
+
+    /**
+     * Yields the next record of this iterator.
+     *
+     * @return the next Record
+     * @throws NoSuchElementException if there are no more Records to yield
+     */
+    public Record next() {
+      if (this.hasNext()) {
+        Record r = this.nextRecord;
+        this.nextRecord = null;
+        return r;
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
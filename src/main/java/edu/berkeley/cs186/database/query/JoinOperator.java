@@ -9,10 +9,12 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.RecordIterator;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -190,6 +192,13 @@ public abstract class JoinOperator extends QueryOperator {
     return this.rightColumnIndex;
   }
 
+  /**
+   * @return the type of the join columns
+   */
+  public TypeId getJoinColumnType() {
+    return this.leftSource.getOutputSchema().getTypeId(this.leftColumnIndex);
+  }
+
   public Record getRecord(String tableName, RecordId rid) throws DatabaseException {
     return this.transaction.getRecord(tableName, rid);
   }
@@ -210,6 +219,10 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getBlockIterator(tableName, block, maxPages);
   }
 
+  public Iterator<RecordView> getBlockViewIterator(String tableName, Page[] block) throws DatabaseException {
+    return this.transaction.getBlockViewIterator(tableName, block);
+  }
+
   public RecordIterator getTableIterator(String tableName) throws DatabaseException {
     return this.transaction.getRecordIterator(tableName);
   }
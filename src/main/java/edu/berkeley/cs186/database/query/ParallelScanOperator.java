@@ -0,0 +1,291 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * A ParallelScanOperator returns the records of a table, optionally only those satisfying a
+ * predicate, like a SequentialScanOperator (under a SelectOperator) would, but scans the table
+ * with several threads. The table's data pages are split into morsels of MORSEL_SIZE pages, and
+ * a few morsels ahead of the consumer are scanned at a time, each by a task of a fork-join pool
+ * that evaluates the predicate on views of the morsel's records (see RecordView) and decodes the
+ * records that satisfy it. The consumer only waits when it catches up with the tasks, and the
+ * tasks never wait for the consumer.
+ *
+ * The records are returned in the order of a sequential scan, so QueryPlan uses a parallel scan
+ * in place of a sequential one for tables of more than one morsel. Like the table's other
+ * iterators, a parallel scan does not latch the pages it reads, so the table should not be
+ * modified while it is being scanned.
+ */
+public class ParallelScanOperator extends QueryOperator {
+  // The number of data pages a worker scans at a time.
+  static final int MORSEL_SIZE = 16;
+  // The number of morsels per thread of the pool that are scanned ahead of the consumer.
+  private static final int MORSELS_AHEAD_PER_WORKER = 2;
+
+  private Database.Transaction transaction;
+  private String tableName;
+  private ForkJoinPool pool;
+  private String columnName;
+  private QueryPlan.PredicateOperator operator;
+  private DataBox value;
+  private ColumnPredicate predicate;
+
+  /**
+   * Creates a new ParallelScanOperator that returns all tuples in a table, scanning it on the
+   * common fork-join pool.
+   *
+   * @param transaction
+   * @param tableName
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public ParallelScanOperator(Database.Transaction transaction,
+                              String tableName) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a new ParallelScanOperator that returns all tuples in a table, scanning it with up to
+   * pool.getParallelism() threads of pool.
+   */
+  public ParallelScanOperator(Database.Transaction transaction,
+                              String tableName,
+                              ForkJoinPool pool) throws QueryPlanException, DatabaseException {
+    super(OperatorType.PARALLELSCAN);
+    this.transaction = transaction;
+    this.tableName = tableName;
+    this.pool = pool;
+    this.setOutputSchema(this.computeSchema());
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  /**
+   * Creates a new ParallelScanOperator that returns the tuples in a table for which the predicate
+   * is satisfied, scanning it on the common fork-join pool. The workers evaluate the predicate,
+   * so this is the parallel equivalent of a SelectOperator over a SequentialScanOperator.
+   *
+   * @param transaction
+   * @param tableName
+   * @param columnName the name of the column to evaluate the predicate on
+   * @param operator the actual comparator
+   * @param value the value to compare against
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public ParallelScanOperator(Database.Transaction transaction,
+                              String tableName,
+                              String columnName,
+                              QueryPlan.PredicateOperator operator,
+                              DataBox value) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName, columnName, operator, value, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a new ParallelScanOperator that returns the tuples in a table for which the predicate
+   * is satisfied, scanning it with up to pool.getParallelism() threads of pool.
+   */
+  public ParallelScanOperator(Database.Transaction transaction,
+                              String tableName,
+                              String columnName,
+                              QueryPlan.PredicateOperator operator,
+                              DataBox value,
+                              ForkJoinPool pool) throws QueryPlanException, DatabaseException {
+    super(OperatorType.PARALLELSCAN);
+    this.transaction = transaction;
+    this.tableName = tableName;
+    this.pool = pool;
+    this.setOutputSchema(this.computeSchema());
+    this.columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
+    this.operator = operator;
+    this.value = value;
+    int columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
+    this.predicate = new ColumnPredicate(this.getOutputSchema(), columnIndex, operator, value);
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  public String getTableName() {
+    return this.tableName;
+  }
+
+  public Iterator<Record> iterator() throws DatabaseException {
+    return new ParallelScanIterator();
+  }
+
+  public Schema computeSchema() throws QueryPlanException {
+    try {
+      return this.transaction.getFullyQualifiedSchema(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  public String str() {
+    String s = "type: " + this.getType() +
+               "\ntable: " + this.tableName;
+    if (this.predicate != null) {
+      s += "\ncolumn: " + this.columnName +
+           "\noperator: " + this.operator +
+           "\nvalue: " + this.value;
+    }
+    return s;
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    TableStats stats;
+    try {
+      stats = this.transaction.getStats(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    if (this.predicate == null) {
+      return stats;
+    }
+    int columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
+    return stats.copyWithPredicate(columnIndex, this.operator, this.value);
+  }
+
+  public int estimateIOCost() throws QueryPlanException {
+    try {
+      return this.transaction.getNumDataPages(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  /**
+   * An implementation of Iterator that provides an iterator interface for this operator. It keeps
+   * up to MORSELS_AHEAD_PER_WORKER morsels per thread of the pool being scanned ahead of the
+   * consumer, each as a task of its own, and returns their records in morsel order. No task ever
+   * waits for the consumer, so an iterator that is dropped before the end of the scan only leaves
+   * that many morsels to finish; close() also cancels the ones that haven't started.
+   */
+  public class ParallelScanIterator implements Iterator<Record>, AutoCloseable {
+    private int numDataPages;
+    private int numMorsels;
+    private int nextMorsel;
+    private int maxMorselsAhead;
+    private Deque<ForkJoinTask<List<Record>>> morselsAhead;
+    private Iterator<Record> morsel;
+    private boolean closed;
+
+    private ParallelScanIterator() throws DatabaseException {
+      this.numDataPages = ParallelScanOperator.this.transaction.getNumDataPages(
+          ParallelScanOperator.this.tableName);
+      this.numMorsels = (this.numDataPages + MORSEL_SIZE - 1) / MORSEL_SIZE;
+      this.nextMorsel = 0;
+      this.maxMorselsAhead =
+          MORSELS_AHEAD_PER_WORKER * ParallelScanOperator.this.pool.getParallelism();
+      this.morselsAhead = new ArrayDeque<ForkJoinTask<List<Record>>>();
+      this.morsel = Collections.emptyIterator();
+      this.closed = false;
+      this.scanAhead();
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      while (!this.morsel.hasNext()) {
+        ForkJoinTask<List<Record>> next = this.morselsAhead.poll();
+        if (next == null) {
+          return false;
+        }
+        this.scanAhead();
+        try {
+          this.morsel = next.join().iterator();
+        } catch (RuntimeException e) {
+          this.close();
+          throw e;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Yields the next record of this iterator.
+     *
+     * @return the next Record
+     * @throws NoSuchElementException if there are no more Records to yield
+     */
+    public Record next() {
+      if (this.hasNext()) {
+        return this.morsel.next();
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Cancels the morsels that haven't been scanned yet. The iterator returns no more records.
+     */
+    public void close() {
+      this.closed = true;
+      for (ForkJoinTask<List<Record>> task : this.morselsAhead) {
+        task.cancel(false);
+      }
+      this.morselsAhead.clear();
+      this.morsel = Collections.emptyIterator();
+    }
+
+    // Starts scanning morsels until maxMorselsAhead of them are ahead of the consumer.
+    private void scanAhead() {
+      while (!this.closed && this.morselsAhead.size() < this.maxMorselsAhead
+             && this.nextMorsel < this.numMorsels) {
+        int m = this.nextMorsel++;
+        this.morselsAhead.add(ParallelScanOperator.this.pool.submit(() -> this.scan(m)));
+      }
+    }
+
+    // The body of each task: returns the records of morsel m that satisfy the predicate.
+    private List<Record> scan(int m) {
+      // Data pages are numbered from 1.
+      int fromPage = 1 + m * MORSEL_SIZE;
+      int toPage = Math.min(fromPage + MORSEL_SIZE, this.numDataPages + 1);
+      List<Record> records = new ArrayList<Record>();
+      Iterator<RecordView> views;
+      try {
+        views = ParallelScanOperator.this.transaction.getRecordViewIterator(
+            ParallelScanOperator.this.tableName, fromPage, toPage);
+      } catch (DatabaseException e) {
+        throw new IllegalStateException("Parallel scan of " +
+                                        ParallelScanOperator.this.tableName + " failed.", e);
+      }
+      while (views.hasNext()) {
+        RecordView view = views.next();
+        if (ParallelScanOperator.this.predicate == null ||
+            ParallelScanOperator.this.predicate.matches(view)) {
+          records.add(view.toRecord());
+        }
+      }
+      return records;
+    }
+  }
+}
@@ -13,6 +13,7 @@ import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -186,16 +187,25 @@ public class ProjectOperator extends QueryOperator {
 
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
+   *
+   * A projection without aggregates over a sequential scan only decodes the projected columns of
+   * each record (see RecordView).
    */
   private class ProjectIterator implements Iterator<Record> {
     private Iterator<Record> sourceIterator;
+    private Iterator<RecordView> viewIterator;
     private MarkerRecord markerRecord;
     private Record nextRecord;
     private boolean prevWasMarker;
     private List<DataBox> baseValues;
 
     public ProjectIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = ProjectOperator.this.getSource().iterator();
+      QueryOperator source = ProjectOperator.this.getSource();
+      if (!ProjectOperator.this.hasAggregate && source instanceof SequentialScanOperator) {
+        this.viewIterator = ((SequentialScanOperator) source).viewIterator();
+      } else {
+        this.sourceIterator = source.iterator();
+      }
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
       this.prevWasMarker = true;
@@ -208,6 +218,9 @@ public class ProjectOperator extends QueryOperator {
      * @return true if this iterator has another record to yield, otherwise false
      */
     public boolean hasNext() {
+      if (this.viewIterator != null) {
+        return this.viewIterator.hasNext();
+      }
       return this.sourceIterator.hasNext();
     }
 
@@ -218,6 +231,9 @@ public class ProjectOperator extends QueryOperator {
      * @throws NoSuchElementException if there are no more Records to yield
      */
     public Record next() {
+      if (this.viewIterator != null) {
+        return this.viewIterator.next().project(ProjectOperator.this.indices);
+      }
       if (this.hasNext()) {
         if (ProjectOperator.this.hasAggregate) {
           while (this.sourceIterator.hasNext()) {
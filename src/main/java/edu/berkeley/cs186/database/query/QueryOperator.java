@@ -2,6 +2,10 @@ package edu.berkeley.cs186.database.query;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.table.Record;
@@ -21,7 +25,10 @@ public abstract class QueryOperator {
     SELECT,
     GROUPBY,
     SEQSCAN,
-    INDEXSCAN
+    INDEXSCAN,
+    PARALLELSCAN,
+    COMPOSITEINDEXSCAN,
+    INDEXONLYSCAN
   }
 
   private OperatorType type;
@@ -101,6 +108,18 @@ public abstract class QueryOperator {
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
 
+  /**
+   * Returns the output of this operator as a sequential Stream, which can be made parallel. By
+   * default, the stream reads iterator(), which a parallel stream splits into batches of records
+   * for the threads of the common fork-join pool; operators that can split their own output,
+   * like SequentialScanOperator, override this.
+   */
+  public Stream<Record> stream() throws QueryPlanException, DatabaseException {
+    Spliterator<Record> records = Spliterators.spliteratorUnknownSize(
+        this.iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+    return StreamSupport.stream(records, false);
+  }
+
   /**
    * Utility method that checks to see if a column is found in a schema using dot notation.
    *
@@ -1,12 +1,15 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
@@ -184,21 +187,60 @@ public class QueryPlan {
    * @throws QueryPlanException
    */
   public Iterator<Record> execute() throws DatabaseException, QueryPlanException {
+    this.generateNaivePlan();
+    return this.finalOperator.execute();
+  }
+
+  /**
+   * Generates the same plan as execute, but returns its result as a Stream (see
+   * QueryOperator#stream), which application code can make parallel.
+   *
+   * @return a stream of records that is the result of this query
+   * @throws DatabaseException
+   * @throws QueryPlanException
+   */
+  public Stream<Record> executeStream() throws DatabaseException, QueryPlanException {
+    this.generateNaivePlan();
+    return this.finalOperator.stream();
+  }
+
+  private void generateNaivePlan() throws DatabaseException, QueryPlanException {
+    List<String> indexOnlyColumns = this.checkIndexOnlyEligible();
+    List<String> compositeIndexColumns = this.checkCompositeIndexEligible();
     String indexColumn = this.checkIndexEligible();
 
-    if (indexColumn != null) {
+    // An index-only scan that serves no predicate reads the whole index, which can be far more
+    // than another index would read for a selective predicate.
+    if (indexOnlyColumns != null
+        && (this.getCompositeIndexSelects(indexOnlyColumns).size() > 0
+            || (compositeIndexColumns == null && indexColumn == null))) {
+      this.generateCompositeIndexPlan(indexOnlyColumns, true);
+    } else if (compositeIndexColumns != null) {
+      this.generateCompositeIndexPlan(compositeIndexColumns, false);
+    } else if (indexColumn != null) {
       this.generateIndexPlan(indexColumn);
     } else {
       // start off with the start table scan as the source
-      this.finalOperator = new SequentialScanOperator(this.transaction, this.startTableName);
+      this.finalOperator = this.generateScan(this.startTableName);
 
       this.addJoins();
       this.addSelects();
       this.addGroupBy();
       this.addProjects();
     }
+  }
 
-    return this.finalOperator.execute();
+  /**
+   * Returns a scan of every record of tableName. A ParallelScanOperator returns the same records
+   * in the same order as a SequentialScanOperator, so it is used once the table has more than one
+   * morsel for it to split up.
+   */
+  private QueryOperator generateScan(String tableName)
+      throws DatabaseException, QueryPlanException {
+    if (this.transaction.getNumDataPages(tableName) > ParallelScanOperator.MORSEL_SIZE) {
+      return new ParallelScanOperator(this.transaction, tableName);
+    }
+    return new SequentialScanOperator(this.transaction, tableName);
   }
 
   /**
@@ -469,6 +511,162 @@ public class QueryPlan {
     return null;
   }
 
+  /**
+   * Finds the composite index of the start table that serves the most SELECT predicates, if it
+   * serves at least two of them (see getCompositeIndexSelects); a single predicate is served as
+   * well by an index on its column alone.
+   *
+   * @return the columns of the composite index, or null if there is none
+   */
+  private List<String> checkCompositeIndexEligible() {
+    List<String> best = null;
+    if (this.selectColumnNames.size() > 1
+        && this.groupByColumn == null
+        && this.joinTableNames.size() == 0) {
+
+      int bestServed = 1;
+      for (List<String> columns : this.transaction.getCompositeIndexes(this.startTableName)) {
+        int served = this.getCompositeIndexSelects(columns).size();
+        if (served > bestServed) {
+          best = columns;
+          bestServed = served;
+        }
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Finds the covering index of the start table that includes every column the query refers to,
+   * so that the query can be answered from the index alone (see IndexOnlyScanOperator). If there
+   * are several, picks the one that serves the most SELECT predicates. A query must project its
+   * columns to use one, since the index's records do not have the table's columns in order.
+   *
+   * @return the columns of the covering index, or null if there is none
+   */
+  private List<String> checkIndexOnlyEligible() throws DatabaseException {
+    boolean projects = !this.projectColumns.isEmpty() || this.hasCount
+        || this.sumColumnName != null || this.averageColumnName != null;
+    if (!projects || this.joinTableNames.size() > 0) {
+      return null;
+    }
+
+    List<String> referenced = new ArrayList<String>(this.selectColumnNames);
+    referenced.addAll(this.projectColumns);
+    for (String column : Arrays.asList(this.groupByColumn, this.sumColumnName,
+                                       this.averageColumnName)) {
+      if (column != null) {
+        referenced.add(column);
+      }
+    }
+
+    List<String> best = null;
+    int bestServed = -1;
+    for (List<String> columns : this.transaction.getCompositeIndexes(this.startTableName)) {
+      List<String> included = this.transaction.getIncludedColumns(this.startTableName, columns);
+      if (included.isEmpty()) {
+        continue;
+      }
+      List<String> covered = new ArrayList<String>(columns);
+      covered.addAll(included);
+      boolean covers = true;
+      for (String name : referenced) {
+        boolean found = false;
+        for (String column : covered) {
+          found |= this.isColumn(name, column);
+        }
+        covers &= found;
+      }
+      int served = this.getCompositeIndexSelects(columns).size();
+      if (covers && served > bestServed) {
+        best = columns;
+        bestServed = served;
+      }
+    }
+
+    return best;
+  }
+
+  // Returns whether name (e.g. from a predicate) refers to column of the start table.
+  private boolean isColumn(String name, String column) {
+    return name.equals(column) || name.equals(this.startTableName + "." + column);
+  }
+
+  /**
+   * Gets the SELECT predicates that a composite index on columns serves: EQUALS predicates on
+   * its leading columns, followed by at most one other comparison (but not NOT_EQUALS) on the
+   * column after them.
+   *
+   * @return the indices of the predicates, in the order of the columns they are on
+   */
+  private List<Integer> getCompositeIndexSelects(List<String> columns) {
+    List<Integer> selectIndices = new ArrayList<Integer>();
+
+    for (String column : columns) {
+      int equality = -1;
+      int comparison = -1;
+      for (int i = 0; i < this.selectColumnNames.size(); i++) {
+        if (!this.isColumn(this.selectColumnNames.get(i), column)) {
+          continue;
+        }
+        PredicateOperator operator = this.selectOperators.get(i);
+        if (operator == PredicateOperator.EQUALS && equality == -1) {
+          equality = i;
+        } else if (operator != PredicateOperator.NOT_EQUALS && comparison == -1) {
+          comparison = i;
+        }
+      }
+
+      if (equality != -1) {
+        selectIndices.add(equality);
+      } else {
+        if (comparison != -1) {
+          selectIndices.add(comparison);
+        }
+        break;
+      }
+    }
+
+    return selectIndices;
+  }
+
+  private void generateCompositeIndexPlan(List<String> columns,
+                                          boolean indexOnly) throws QueryPlanException, DatabaseException {
+    List<Integer> selectIndices = this.getCompositeIndexSelects(columns);
+    List<DataBox> prefix = new ArrayList<DataBox>();
+    PredicateOperator operator = null;
+    DataBox value = null;
+    for (int i : selectIndices) {
+      if (this.selectOperators.get(i) == PredicateOperator.EQUALS) {
+        prefix.add(this.selectDataBoxes.get(i));
+      } else {
+        operator = this.selectOperators.get(i);
+        value = this.selectDataBoxes.get(i);
+      }
+    }
+
+    if (indexOnly) {
+      this.finalOperator = new IndexOnlyScanOperator(this.transaction, this.startTableName,
+          columns, prefix, operator, value);
+    } else {
+      this.finalOperator = new CompositeIndexScanOperator(this.transaction, this.startTableName,
+          columns, prefix, operator, value);
+    }
+
+    // Remove the served predicates from the back, so that the indices of the others stay valid.
+    selectIndices.sort(Collections.reverseOrder());
+    for (int i : selectIndices) {
+      this.selectColumnNames.remove(i);
+      this.selectOperators.remove(i);
+      this.selectDataBoxes.remove(i);
+    }
+
+    this.addSelects();
+    this.addGroupBy();
+    this.addProjects();
+  }
+
   private void generateIndexPlan(String indexColumn) throws QueryPlanException, DatabaseException {
     int selectIndex = this.selectColumnNames.indexOf(indexColumn);
     PredicateOperator operator = this.selectOperators.get(selectIndex);
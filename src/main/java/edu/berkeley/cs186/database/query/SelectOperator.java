@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -15,6 +16,7 @@ public class SelectOperator extends QueryOperator {
   private String columnName;
   private QueryPlan.PredicateOperator operator;
   private DataBox value;
+  private ColumnPredicate predicate;
 
   /**
    * Creates a new SelectOperator that pulls from source and only returns tuples for which the
@@ -36,6 +38,7 @@ public class SelectOperator extends QueryOperator {
 
     this.columnName = this.checkSchemaForColumn(source.getOutputSchema(), columnName);
     this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
+    this.predicate = new ColumnPredicate(this.getOutputSchema(), this.columnIndex, operator, value);
 
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
@@ -73,14 +76,23 @@ public class SelectOperator extends QueryOperator {
 
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
+   *
+   * When the source is a sequential scan, the predicate is evaluated on views of the table's
+   * records (see RecordView), and only the records that satisfy it are decoded.
    */
   private class SelectIterator implements Iterator<Record> {
     private Iterator<Record> sourceIterator;
+    private Iterator<RecordView> viewIterator;
     private MarkerRecord markerRecord;
     private Record nextRecord;
 
     public SelectIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = SelectOperator.this.getSource().iterator();
+      QueryOperator source = SelectOperator.this.getSource();
+      if (source instanceof SequentialScanOperator) {
+        this.viewIterator = ((SequentialScanOperator) source).viewIterator();
+      } else {
+        this.sourceIterator = source.iterator();
+      }
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
     }
@@ -94,58 +106,22 @@ public class SelectOperator extends QueryOperator {
       if (this.nextRecord != null) {
         return true;
       }
+      if (this.viewIterator != null) {
+        while (this.viewIterator.hasNext()) {
+          RecordView view = this.viewIterator.next();
+          if (SelectOperator.this.predicate.matches(view)) {
+            this.nextRecord = view.toRecord();
+            return true;
+          }
+        }
+        return false;
+      }
       while (this.sourceIterator.hasNext()) {
         Record r = this.sourceIterator.next();
-        if (r == this.markerRecord) {
+        if (r == this.markerRecord || SelectOperator.this.predicate.matches(r)) {
           this.nextRecord = r;
           return true;
         }
-        switch (SelectOperator.this.operator) {
-          case EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case NOT_EQUALS:
-            if (!r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          default:
-            break;
-        }
       }
       return false;
     }
@@ -1,10 +1,12 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.Iterator;
+import java.util.stream.Stream;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -41,6 +43,23 @@ public class SequentialScanOperator extends QueryOperator {
     return this.transaction.getRecordIterator(tableName);
   }
 
+  /**
+   * Returns a stream of the records of the table, which splits the table's pages rather than
+   * batches of the iterator's records when it is made parallel (see Table#stream).
+   */
+  public Stream<Record> stream() throws DatabaseException {
+    return this.transaction.getRecordStream(tableName);
+  }
+
+  /**
+   * Returns an iterator of views of the records of the table (see
+   * Table#viewIterator), for operators that can work on a record without
+   * decoding all of it.
+   */
+  public Iterator<RecordView> viewIterator() throws DatabaseException {
+    return this.transaction.getRecordViewIterator(tableName);
+  }
+
   public Schema computeSchema() throws QueryPlanException {
     try {
       return this.transaction.getFullyQualifiedSchema(this.tableName);
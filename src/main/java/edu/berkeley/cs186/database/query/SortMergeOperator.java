@@ -64,14 +64,15 @@ public class SortMergeOperator extends JoinOperator {
     //private Record rightRecord;
     //private boolean marked;
     private int rightRecord;
-    private Comparator<Record> cmp = (x, y) -> x.getValues().get(getLeftColumnIndex()).compareTo(y.getValues().get(getRightColumnIndex()));
+    // Join keys are compared with Record's primitive accessors when possible.
+    private Comparator<Record> cmp = Record.comparingFields(getJoinColumnType(), getLeftColumnIndex(), getRightColumnIndex());
 
     public SortMergeIterator() throws QueryPlanException, DatabaseException {
       super();
       //throw new UnsupportedOperationException("TODO(hw3): implement");
 
-      Comparator<Record> lcmp = Comparator.comparing(x -> x.getValues().get(getLeftColumnIndex()));
-      Comparator<Record> rcmp = Comparator.comparing(y -> y.getValues().get(getRightColumnIndex()));
+      Comparator<Record> lcmp = Record.comparingField(getJoinColumnType(), getLeftColumnIndex());
+      Comparator<Record> rcmp = Record.comparingField(getJoinColumnType(), getRightColumnIndex());
 
       SortOperator left = new SortOperator(getTransaction(), getLeftTableName(), lcmp);
       SortOperator right = new SortOperator(getTransaction(), getRightTableName(), rcmp);
@@ -0,0 +1,82 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A FreeSpaceMap records how much room is left on each data page of a table,
+ * so that inserts can pick a page, and a slot on it, without reading the
+ * pages that are full. For every page it keeps
+ *
+ *   - the amount of free space on the page: the number of free entries of a
+ *     BITMAP page, or the length of the longest record that can be inserted
+ *     into a SLOTTED page (see SlottedPage.getMaxInsertLength);
+ *   - a hint for where to start looking for a free entry: no entry before
+ *     the hint is free; and
+ *   - a bit saying whether the page has room for the smallest record.
+ *
+ * The free space of a page can also be UNKNOWN, e.g. for pages a table was
+ * loaded with (see Table#readCatalog), in which case the table computes it
+ * the first time it uses the page. Free space and hints are stored as shorts,
+ * which is plenty for Page.pageSize bytes, so the map takes 4 bytes a page.
+ */
+class FreeSpaceMap {
+  static final int UNKNOWN = -1;
+
+  // A page has room for a record if its free space is at least minFree.
+  private final int minFree;
+  private short[] free;
+  private short[] hints;
+  private BitSet pagesWithRoom;
+
+  /**
+   * @param minFree the free space a page needs to fit the smallest record
+   */
+  FreeSpaceMap(int minFree) {
+    this.minFree = Math.max(minFree, 1);
+    this.free = new short[16];
+    this.hints = new short[16];
+    this.pagesWithRoom = new BitSet();
+  }
+
+  /**
+   * @return the free space of page pageNum, 0 if it was never set, or UNKNOWN
+   */
+  int getFree(int pageNum) {
+    return pageNum < free.length ? free[pageNum] : 0;
+  }
+
+  void setFree(int pageNum, int space) {
+    ensureCapacity(pageNum);
+    free[pageNum] = (short) space;
+    pagesWithRoom.set(pageNum, space == UNKNOWN || space >= minFree);
+  }
+
+  /**
+   * @return the first entry of page pageNum that may be free
+   */
+  int getHint(int pageNum) {
+    return pageNum < hints.length ? hints[pageNum] : 0;
+  }
+
+  void setHint(int pageNum, int entryNum) {
+    ensureCapacity(pageNum);
+    hints[pageNum] = (short) entryNum;
+  }
+
+  /**
+   * @return the first page at or after pageNum whose free space is UNKNOWN or
+   *         fits the smallest record, or -1 if there is none
+   */
+  int nextPageWithRoom(int pageNum) {
+    return pagesWithRoom.nextSetBit(pageNum);
+  }
+
+  private void ensureCapacity(int pageNum) {
+    if (pageNum >= free.length) {
+      int length = Math.max(pageNum + 1, 2 * free.length);
+      free = Arrays.copyOf(free, length);
+      hints = Arrays.copyOf(hints, length);
+    }
+  }
+}
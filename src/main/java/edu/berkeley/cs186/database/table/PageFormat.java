@@ -0,0 +1,32 @@
+package edu.berkeley.cs186.database.table;
+
+/**
+ * The layout of the data pages of a Table, chosen when the table is created
+ * and stored in its header page.
+ */
+public enum PageFormat {
+  /**
+   * Every record takes schema.getSizeInBytes() bytes, strings padded to
+   * their declared length, and a bitmap at the start of each page marks
+   * which entries hold records. See Table for details.
+   */
+  BITMAP,
+
+  /**
+   * Records are stored with their strings unpadded, and a slot directory at
+   * the start of each page locates them. Tables of long, mostly short strings
+   * fit many more records per page this way. See SlottedPage for details.
+   */
+  SLOTTED;
+
+  byte toByte() {
+    return (byte) ordinal();
+  }
+
+  static PageFormat fromByte(byte b) {
+    if (b < 0 || b >= values().length) {
+      throw new IllegalArgumentException("Unknown page format " + b + ".");
+    }
+    return values()[b];
+  }
+}
@@ -2,12 +2,22 @@ package edu.berkeley.cs186.database.table;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 
-/** A Record is just list of DataBoxes. */
+/**
+ * A Record is just list of DataBoxes.
+ *
+ * Besides getValues, a record has primitive accessors (getInt, getFloat,
+ * getBool) and comparisons (compareInt, compareFloat) for single fields. They
+ * skip the type check and virtual dispatch of DataBox.compareTo, and never
+ * box, so predicates and sort keys on int and float columns don't allocate.
+ * comparingFields builds comparators specialized the same way.
+ */
 public class Record {
   private List<DataBox> values;
 
@@ -19,6 +29,61 @@ public class Record {
     return this.values;
   }
 
+  public boolean getBool(int i) {
+    return values.get(i).getBool();
+  }
+
+  public int getInt(int i) {
+    return values.get(i).getInt();
+  }
+
+  public float getFloat(int i) {
+    return values.get(i).getFloat();
+  }
+
+  /**
+   * @return Integer.compare(getInt(i), value)
+   */
+  public int compareInt(int i, int value) {
+    return Integer.compare(values.get(i).getInt(), value);
+  }
+
+  /**
+   * @return Float.compare(getFloat(i), value)
+   */
+  public int compareFloat(int i, float value) {
+    return Float.compare(values.get(i).getFloat(), value);
+  }
+
+  /**
+   * Returns a comparator that orders records by field i.
+   *
+   * @param type the type of field i
+   */
+  public static Comparator<Record> comparingField(TypeId type, int i) {
+    return comparingFields(type, i, i);
+  }
+
+  /**
+   * Returns a comparator that compares field i of its first record with field
+   * j of its second, e.g. the join columns of a left and a right record. Int,
+   * float, and bool fields are compared with primitive accessors.
+   *
+   * @param type the type of both fields
+   */
+  public static Comparator<Record> comparingFields(TypeId type, int i, int j) {
+    switch (type) {
+      case BOOL:
+        return (a, b) -> Boolean.compare(a.getBool(i), b.getBool(j));
+      case INT:
+        return (a, b) -> Integer.compare(a.getInt(i), b.getInt(j));
+      case FLOAT:
+        return (a, b) -> Float.compare(a.getFloat(i), b.getFloat(j));
+      default:
+        return (a, b) -> a.values.get(i).compareTo(b.values.get(j));
+    }
+  }
+
   public byte[] toBytes(Schema schema) {
     ByteBuffer byteBuffer = ByteBuffer.allocate(schema.getSizeInBytes());
     for (DataBox value : values) {
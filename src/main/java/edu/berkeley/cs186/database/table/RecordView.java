@@ -0,0 +1,220 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * A RecordView is a flyweight over a serialized record: rather than decoding
+ * every field into a DataBox the way Record.fromBytes does, it reads single
+ * fields in place, at the offsets computed by the record's Schema, only when
+ * they are asked for. Iterators of views (see Table#viewIterator) move one
+ * view from record to record, so scanning a table allocates nothing per row,
+ * and operators only materialize the records they actually output:
+ *
+ *   Iterator<RecordView> views = table.viewIterator();
+ *   while (views.hasNext()) {
+ *     RecordView v = views.next();
+ *     if (v.compareTo(0, new IntDataBox(42)) < 0) {
+ *       out.add(v.toRecord());
+ *     }
+ *   }
+ *
+ * A view is only valid until the iterator that returned it advances. Keep the
+ * Record returned by toRecord (or project) if a row is needed for longer.
+ */
+public class RecordView {
+  private final Schema schema;
+  private ByteBuffer buf;
+  private int offset;
+  private int pageNum;
+  private int entryNum;
+
+  public RecordView(Schema schema) {
+    this.schema = schema;
+  }
+
+  /**
+   * Points this view at the record serialized in buf at offset.
+   *
+   * @return this view
+   */
+  public RecordView moveTo(ByteBuffer buf, int offset) {
+    return moveTo(buf, offset, -1, -1);
+  }
+
+  RecordView moveTo(ByteBuffer buf, int offset, int pageNum, int entryNum) {
+    this.buf = buf;
+    this.offset = offset;
+    this.pageNum = pageNum;
+    this.entryNum = entryNum;
+    return this;
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * @return the id of the record this view points at, if it was reached by
+   *         scanning a table
+   */
+  public RecordId getRecordId() {
+    return new RecordId(pageNum, (short) entryNum);
+  }
+
+  public boolean getBool(int i) {
+    checkType(i, TypeId.BOOL);
+    return buf.get(offset + schema.getFieldOffset(i)) == 1;
+  }
+
+  public int getInt(int i) {
+    checkType(i, TypeId.INT);
+    return buf.getInt(offset + schema.getFieldOffset(i));
+  }
+
+  public float getFloat(int i) {
+    checkType(i, TypeId.FLOAT);
+    return buf.getFloat(offset + schema.getFieldOffset(i));
+  }
+
+  /**
+   * @return Integer.compare(getInt(i), value)
+   */
+  public int compareInt(int i, int value) {
+    return Integer.compare(getInt(i), value);
+  }
+
+  /**
+   * @return Float.compare(getFloat(i), value)
+   */
+  public int compareFloat(int i, float value) {
+    return Float.compare(getFloat(i), value);
+  }
+
+  /**
+   * Decodes field i into a DataBox.
+   */
+  public DataBox get(int i) {
+    ByteBuffer field = buf.duplicate();
+    field.position(offset + schema.getFieldOffset(i));
+    return DataBox.fromBytes(field, schema.getFieldTypes().get(i));
+  }
+
+  /**
+   * Compares field i to value the way get(i).compareTo(value) would, but
+   * without decoding the field.
+   *
+   * @throws DataBoxException if value is not of the type of field i (a
+   *         string field can be compared to a string of any length)
+   */
+  public int compareTo(int i, DataBox value) {
+    Type type = schema.getFieldTypes().get(i);
+    if (!hasTypeOf(i, value)) {
+      String err = String.format("Invalid comparison between field %d of type %s and %s.",
+                                 i, type, value);
+      throw new DataBoxException(err);
+    }
+    int pos = offset + schema.getFieldOffset(i);
+    switch (schema.getTypeId(i)) {
+      case BOOL:
+        return Boolean.compare(buf.get(pos) == 1, value.getBool());
+      case INT:
+        return Integer.compare(buf.getInt(pos), value.getInt());
+      case FLOAT:
+        return Float.compare(buf.getFloat(pos), value.getFloat());
+      case STRING: {
+        // Strings only hold ASCII characters (see StringDataBox), so their
+        // UTF-8 bytes compare the way the strings do under String.compareTo.
+        String s = value.getString();
+        int length = type.getSizeInBytes();
+        int n = Math.min(length, s.length());
+        for (int j = 0; j < n; ++j) {
+          int c = (buf.get(pos + j) & 0xFF) - s.charAt(j);
+          if (c != 0) {
+            return c;
+          }
+        }
+        return length - s.length();
+      }
+      default:
+        return get(i).compareTo(value);
+    }
+  }
+
+  /**
+   * @return whether field i equals value, as get(i).equals(value) would
+   */
+  public boolean fieldEquals(int i, DataBox value) {
+    if (!hasTypeOf(i, value)) {
+      return false;
+    }
+    if (value instanceof FloatDataBox) {
+      // FloatDataBox.equals uses ==, which differs from Float.compare on
+      // NaNs and signed zeros.
+      return getFloat(i) == value.getFloat();
+    }
+    return compareTo(i, value) == 0;
+  }
+
+  /**
+   * @return the record this view points at, with every field decoded
+   */
+  public Record toRecord() {
+    ByteBuffer record = buf.duplicate();
+    record.position(offset);
+    return Record.fromBytes(record, schema);
+  }
+
+  /**
+   * @param indices the indices of the fields to keep, in order
+   * @return a record of only the given fields of the record this view points at
+   */
+  public Record project(List<Integer> indices) {
+    List<DataBox> values = new ArrayList<DataBox>(indices.size());
+    for (int i : indices) {
+      values.add(get(i));
+    }
+    return new Record(values);
+  }
+
+  private void checkType(int i, TypeId expected) {
+    if (schema.getTypeId(i) != expected) {
+      String err = String.format("Field %d is of type %s, not %s.",
+                                 i, schema.getFieldTypes().get(i), expected);
+      throw new DataBoxException(err);
+    }
+  }
+
+  // Like value.type().equals(type of field i), without allocating a Type,
+  // except that strings of any length match.
+  private boolean hasTypeOf(int i, DataBox value) {
+    switch (schema.getTypeId(i)) {
+      case BOOL:
+        return value instanceof BoolDataBox;
+      case INT:
+        return value instanceof IntDataBox;
+      case FLOAT:
+        return value instanceof FloatDataBox;
+      case STRING:
+        // Like StringDataBox.compareTo, any two strings can be compared.
+        return value instanceof StringDataBox;
+      default:
+        return value.type().equals(schema.getFieldTypes().get(i));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return toRecord().toString();
+  }
+}
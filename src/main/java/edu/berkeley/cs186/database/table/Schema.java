@@ -9,6 +9,7 @@ import java.util.Objects;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 
 /**
  * The schema of a table includes the name and type of every one of its
@@ -19,11 +20,20 @@ import edu.berkeley.cs186.database.databox.Type;
  *   Schema s = new Schema(fieldNames, fieldSize);
  *
  * represents a table with an int field named "x" and a float field named "y".
+ *
+ * Records are serialized by writing their fields back to back, so the schema
+ * also knows the byte offset of every field within a serialized record (see
+ * getFieldOffset); RecordView uses them to read single fields in place. The
+ * TypeId of every field is kept in an array as well (see getTypeId), so that
+ * hot loops can pick a primitive accessor (e.g. Record#getInt) without going
+ * through a List and a Type.
  */
 public class Schema {
   private List<String> fieldNames;
   private List<Type> fieldTypes;
   private int sizeInBytes;
+  private int[] fieldOffsets;
+  private TypeId[] typeIds;
 
   public Schema(List<String> fieldNames, List<Type> fieldTypes) {
     assert(fieldNames.size() == fieldTypes.size());
@@ -31,8 +41,12 @@ public class Schema {
     this.fieldTypes = fieldTypes;
 
     sizeInBytes = 0;
-    for (Type t : fieldTypes) {
-      sizeInBytes += t.getSizeInBytes();
+    fieldOffsets = new int[fieldTypes.size()];
+    typeIds = new TypeId[fieldTypes.size()];
+    for (int i = 0; i < fieldTypes.size(); ++i) {
+      fieldOffsets[i] = sizeInBytes;
+      typeIds[i] = fieldTypes.get(i).getTypeId();
+      sizeInBytes += fieldTypes.get(i).getSizeInBytes();
     }
   }
 
@@ -48,6 +62,22 @@ public class Schema {
     return sizeInBytes;
   }
 
+  /**
+   * @param i the index of a field
+   * @return the offset of field i within a serialized record
+   */
+  public int getFieldOffset(int i) {
+    return fieldOffsets[i];
+  }
+
+  /**
+   * @param i the index of a field
+   * @return the TypeId of field i
+   */
+  public TypeId getTypeId(int i) {
+    return typeIds[i];
+  }
+
   // TODO(mwhittaker): Rename to something more descriptive.
   public Record verify(List<DataBox> values) throws DatabaseException {
     if (values.size() != fieldNames.size()) {
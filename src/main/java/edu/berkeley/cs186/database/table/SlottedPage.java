@@ -0,0 +1,270 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * Reads and writes the data pages of tables stored in the SLOTTED format
+ * (see PageFormat). A slotted page looks like this:
+ *
+ *   +----------+----------+--------+--------+-----+------------+---------+
+ *   | numSlots | heapSize | slot 0 | slot 1 | ... | free space | records |
+ *   +----------+----------+--------+--------+-----+------------+---------+
+ *     2 bytes    2 bytes    4 bytes  4 bytes                     heapSize
+ *
+ * The slot directory grows from the start of the page and the records grow
+ * from its end. Slot i holds the offset and length of the record with entry
+ * number i, or an offset of 0 if entry i is free. heapSize counts every byte
+ * between the lowest record and the end of the page, so the space of deleted
+ * records is only reclaimed (by compacting the page) once an insert needs it.
+ *
+ * Records are encoded like Record.toBytes, except that a string is written as
+ * a 2-byte length followed by its characters without the trailing spaces that
+ * StringDataBox pads it with. Padding the string back with spaces (see expand)
+ * restores exactly the fixed-width encoding, which lets Record.fromBytes and
+ * RecordView read slotted records unchanged.
+ */
+class SlottedPage {
+  static final int HEADER_SIZE = 4;
+  static final int SLOT_SIZE = 4;
+  // The length of the longest record that fits on an empty page.
+  static final int MAX_RECORD_SIZE = Page.pageSize - HEADER_SIZE - SLOT_SIZE;
+
+  private static final byte PAD = (byte) ' ';
+
+  private SlottedPage() {}
+
+  /**
+   * @return the smallest number of bytes a record of schema can encode to
+   */
+  static int minRecordSize(Schema schema) {
+    int size = 0;
+    for (int i = 0; i < schema.getFieldTypes().size(); ++i) {
+      if (schema.getTypeId(i) == TypeId.STRING) {
+        size += 2;
+      } else {
+        size += schema.getFieldTypes().get(i).getSizeInBytes();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the largest number of slots a page of records of schema can have
+   */
+  static int maxNumSlots(Schema schema) {
+    return (Page.pageSize - HEADER_SIZE) / (SLOT_SIZE + minRecordSize(schema));
+  }
+
+  /**
+   * Encodes record, which must match schema, in the slotted format.
+   */
+  static byte[] encode(Record record, Schema schema) {
+    byte[] fixed = record.toBytes(schema);
+    ByteBuffer out = ByteBuffer.allocate(fixed.length + 2 * schema.getFieldTypes().size());
+    for (int i = 0; i < schema.getFieldTypes().size(); ++i) {
+      int from = schema.getFieldOffset(i);
+      int size = schema.getFieldTypes().get(i).getSizeInBytes();
+      if (schema.getTypeId(i) == TypeId.STRING) {
+        int length = size;
+        while (length > 0 && fixed[from + length - 1] == PAD) {
+          length--;
+        }
+        out.putShort((short) length);
+        size = length;
+      }
+      out.put(fixed, from, size);
+    }
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  /**
+   * Decodes the record in slot into its fixed-width encoding (see
+   * Record.toBytes), which is written to the first schema.getSizeInBytes()
+   * bytes of dst.
+   */
+  static void expand(ByteBuffer page, int slot, Schema schema, byte[] dst) {
+    int pos = getOffset(page, slot);
+    for (int i = 0; i < schema.getFieldTypes().size(); ++i) {
+      int to = schema.getFieldOffset(i);
+      int size = schema.getFieldTypes().get(i).getSizeInBytes();
+      if (schema.getTypeId(i) == TypeId.STRING) {
+        int length = page.getShort(pos);
+        pos += 2;
+        Arrays.fill(dst, to + length, to + size, PAD);
+        size = length;
+      }
+      for (int j = 0; j < size; ++j) {
+        dst[to + j] = page.get(pos + j);
+      }
+      pos += size;
+    }
+  }
+
+  static int getNumSlots(ByteBuffer page) {
+    return page.getShort(0);
+  }
+
+  static boolean isOccupied(ByteBuffer page, int slot) {
+    return slot < getNumSlots(page) && getOffset(page, slot) != 0;
+  }
+
+  /**
+   * Writes a bitmap of the occupied slots of page into bitmap, in the format
+   * of the bitmaps of BITMAP pages.
+   */
+  static void getOccupancy(ByteBuffer page, byte[] bitmap) {
+    Arrays.fill(bitmap, (byte) 0);
+    int numSlots = getNumSlots(page);
+    for (int i = 0; i < numSlots; ++i) {
+      if (getOffset(page, i) != 0) {
+        bitmap[i / 8] |= (byte) (1 << (7 - (i % 8)));
+      }
+    }
+  }
+
+  /**
+   * @return whether a record of length bytes, and the slot for it, fit on page
+   */
+  static boolean fits(ByteBuffer page, int length) {
+    return length <= getMaxInsertLength(page);
+  }
+
+  /**
+   * @return the length of the longest record that can be inserted into page
+   */
+  static int getMaxInsertLength(ByteBuffer page) {
+    int slotSize = firstFreeSlot(page) < getNumSlots(page) ? 0 : SLOT_SIZE;
+    return Math.max(getFreeSpace(page) - slotSize, 0);
+  }
+
+  /**
+   * Inserts record into the first free slot of page, which it must fit in
+   * (see fits).
+   *
+   * @return the slot of the record
+   */
+  static int insert(ByteBuffer page, byte[] record) {
+    assert fits(page, record.length);
+    int slot = firstFreeSlot(page);
+    if (slot == getNumSlots(page)) {
+      page.putShort(0, (short) (slot + 1));
+      setSlot(page, slot, 0, 0);
+    }
+    place(page, slot, record);
+    return slot;
+  }
+
+  /**
+   * Replaces the record in slot with record, compacting page if necessary.
+   *
+   * @return false, leaving page unchanged, if record does not fit on page
+   */
+  static boolean update(ByteBuffer page, int slot, byte[] record) {
+    int offset = getOffset(page, slot);
+    int length = getLength(page, slot);
+    if (record.length <= length) {
+      writeRecord(page, slot, offset, record);
+      return true;
+    }
+    setSlot(page, slot, 0, 0);
+    if (record.length > getFreeSpace(page)) {
+      setSlot(page, slot, offset, length);
+      return false;
+    }
+    place(page, slot, record);
+    return true;
+  }
+
+  /**
+   * Frees slot, dropping the free slots at the end of the directory.
+   */
+  static void delete(ByteBuffer page, int slot) {
+    setSlot(page, slot, 0, 0);
+    int numSlots = getNumSlots(page);
+    while (numSlots > 0 && getOffset(page, numSlots - 1) == 0) {
+      numSlots--;
+    }
+    page.putShort(0, (short) numSlots);
+  }
+
+  // The number of bytes not used by the header, the slot directory, or live
+  // records, whether or not they are contiguous.
+  private static int getFreeSpace(ByteBuffer page) {
+    int numSlots = getNumSlots(page);
+    int free = Page.pageSize - HEADER_SIZE - numSlots * SLOT_SIZE;
+    for (int i = 0; i < numSlots; ++i) {
+      free -= getLength(page, i);
+    }
+    return free;
+  }
+
+  private static int firstFreeSlot(ByteBuffer page) {
+    int numSlots = getNumSlots(page);
+    int slot = 0;
+    while (slot < numSlots && getOffset(page, slot) != 0) {
+      slot++;
+    }
+    return slot;
+  }
+
+  // Writes record below the lowest record of page and points slot at it.
+  private static void place(ByteBuffer page, int slot, byte[] record) {
+    int directoryEnd = HEADER_SIZE + getNumSlots(page) * SLOT_SIZE;
+    if (directoryEnd + getHeapSize(page) + record.length > Page.pageSize) {
+      compact(page);
+    }
+    int heapSize = getHeapSize(page) + record.length;
+    page.putShort(2, (short) heapSize);
+    writeRecord(page, slot, Page.pageSize - heapSize, record);
+  }
+
+  private static void writeRecord(ByteBuffer page, int slot, int offset, byte[] record) {
+    for (int i = 0; i < record.length; ++i) {
+      page.put(offset + i, record[i]);
+    }
+    setSlot(page, slot, offset, record.length);
+  }
+
+  // Moves the live records of page to its end, reclaiming the space of the
+  // records that were deleted or moved.
+  private static void compact(ByteBuffer page) {
+    int numSlots = getNumSlots(page);
+    byte[][] records = new byte[numSlots][];
+    for (int i = 0; i < numSlots; ++i) {
+      records[i] = new byte[getLength(page, i)];
+      int offset = getOffset(page, i);
+      for (int j = 0; j < records[i].length; ++j) {
+        records[i][j] = page.get(offset + j);
+      }
+    }
+    page.putShort(2, (short) 0);
+    for (int i = 0; i < numSlots; ++i) {
+      if (getOffset(page, i) != 0) {
+        int heapSize = getHeapSize(page) + records[i].length;
+        page.putShort(2, (short) heapSize);
+        writeRecord(page, i, Page.pageSize - heapSize, records[i]);
+      }
+    }
+  }
+
+  private static int getHeapSize(ByteBuffer page) {
+    return page.getShort(2);
+  }
+
+  private static int getOffset(ByteBuffer page, int slot) {
+    return page.getShort(HEADER_SIZE + slot * SLOT_SIZE);
+  }
+
+  private static int getLength(ByteBuffer page, int slot) {
+    return page.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+  }
+
+  private static void setSlot(ByteBuffer page, int slot, int offset, int length) {
+    page.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+    page.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+  }
+}
@@ -1,12 +1,17 @@
 package edu.berkeley.cs186.database.table;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.TreeSet;
+import java.util.Spliterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.ArrayBacktrackingIterator;
@@ -14,6 +19,7 @@ import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.BufferPool;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -53,11 +59,17 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  *   // Don't forget to close the table.
  *   t.close();
  *
+ * Closing a table (or calling checkpoint) also saves a catalog of the table's
+ * record count, free pages, and statistics in its header page, so that loading
+ * it again does not have to read every record to rebuild them. The first
+ * modification after that marks the catalog stale; a table that was not
+ * closed is rebuilt by reading all of its records, as before.
+ *
  * # Storage Format
  * Now, we discuss how tables serialize their data into files.
  *
  *   1. Each file begins with a header page into which tables serialize their
- *      schema.
+ *      schema, the format of their data pages, and their catalog.
  *   2. All remaining pages are data pages. Every data page begins with an
  *      n-byte bitmap followed by m records. The bitmap indicates which records
  *      in the page are valid. The values of n and m are set to maximize the
@@ -94,6 +106,26 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  *
  *  When we add a record to a table, we add it to the very first free slot in
  *  the table. See addRecord for more information.
+ *
+ * Tables with long strings waste most of the space of such pages on padding
+ * (see StringDataBox), so a table can instead be created with its data pages
+ * in the SLOTTED format (see PageFormat and SlottedPage), which stores strings
+ * unpadded:
+ *
+ *   Table t = new Table("t", schema, "t.table", bufferPool, PageFormat.SLOTTED);
+ *
+ * The format is stored in the header page, after the schema. Entry i of a
+ * slotted page is the record in slot i of its slot directory, and
+ * getBitMap(page) returns a bitmap of its occupied slots, so record ids and
+ * the iterators below work the same way for both formats.
+ *
+ * # Concurrency
+ * Tables can be used by many threads at once. Rather than locking the whole
+ * table, getRecord, addRecord, updateRecord, and deleteRecord latch the one
+ * page they use, so reads run in parallel with each other and with writes to
+ * other pages, and concurrent inserts go to different free pages. The
+ * iterators do not latch the pages they read, so a table should not be
+ * modified while it is being scanned.
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
@@ -111,6 +143,9 @@ public class Table implements Iterable<Record>, Closeable {
   // The allocator used to persist the database.
   private PageAllocator allocator;
 
+  // The layout of the data pages.
+  private PageFormat format;
+
   // The size (in bytes) of the bitmap found at the beginning of each data page.
   private int bitmapSizeInBytes;
 
@@ -120,11 +155,30 @@ public class Table implements Iterable<Record>, Closeable {
   // Statistics about the contents of the database.
   private TableStats stats;
 
-  // The page numbers of all allocated pages which have room for more records.
-  private TreeSet<Integer> freePageNums;
+  // How much room is left on each data page (see FreeSpaceMap).
+  private FreeSpaceMap freeSpace;
 
   // The number of records in the table.
-  private long numRecords;
+  private volatile long numRecords;
+
+  // Concurrency control. Record operations share tableLatch, while
+  // checkpoint, close, and buildStatistics, which need the table to stay
+  // still, hold it exclusively. The contents of page p are protected by
+  // pageLatches[p % NUM_PAGE_LATCHES], read-latched to read records and
+  // write-latched to modify them; a thread latches at most one data page at a
+  // time. freeSpace, stats, numRecords, and catalogValid are protected by the
+  // table's monitor, which is only held for the short updates of them, never
+  // while waiting for a latch.
+  private static final int NUM_PAGE_LATCHES = 64;
+  private final ReentrantReadWriteLock tableLatch = new ReentrantReadWriteLock();
+  private final ReentrantReadWriteLock[] pageLatches = newPageLatches();
+
+  // Where the catalog starts in the header page, and whether the catalog
+  // there is up to date (see writeCatalog).
+  private int catalogOffset;
+  private boolean catalogValid;
+
+  private boolean closed;
 
   // Constructors //////////////////////////////////////////////////////////////
   /**
@@ -132,17 +186,46 @@ public class Table implements Iterable<Record>, Closeable {
    * file `filename`.
    */
   public Table(String name, Schema schema, String filename) {
+    this(name, schema, filename, BufferPool.getDefault());
+  }
+
+  /**
+   * Construct a brand new table named `name` with schema `schema` persisted in
+   * file `filename` whose pages are cached in `bufferPool`.
+   */
+  public Table(String name, Schema schema, String filename, BufferPool bufferPool) {
+    this(name, schema, filename, bufferPool, PageFormat.BITMAP);
+  }
+
+  /**
+   * Construct a brand new table named `name` with schema `schema` persisted in
+   * file `filename` whose pages are cached in `bufferPool` and laid out in
+   * format `format`.
+   */
+  public Table(String name, Schema schema, String filename, BufferPool bufferPool,
+               PageFormat format) {
+    this(name, schema, filename, bufferPool, format, PageAllocator.Backend.MMAP);
+  }
+
+  /**
+   * Construct a brand new table named `name` with schema `schema` persisted in
+   * file `filename` whose pages are cached in `bufferPool`, laid out in format
+   * `format`, and read and written by `backend`.
+   */
+  public Table(String name, Schema schema, String filename, BufferPool bufferPool,
+               PageFormat format, PageAllocator.Backend backend) {
     this.name = name;
     this.filename = filename;
     this.schema = schema;
-    this.allocator = new PageAllocator(filename, true);
-    this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, schema);
-    numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, schema);
+    this.format = format;
+    this.allocator = new PageAllocator(filename, true, true, bufferPool, backend);
+    computeDataPageNumbers();
     this.stats = new TableStats(this.schema);
-    this.freePageNums = new TreeSet<Integer>();
+    this.freeSpace = newFreeSpaceMap();
     this.numRecords = 0;
 
-    writeSchemaToHeaderPage(allocator, schema);
+    this.catalogOffset = writeSchemaToHeaderPage(allocator, schema, format);
+    this.catalogValid = false;
   }
 
   /**
@@ -150,18 +233,41 @@ public class Table implements Iterable<Record>, Closeable {
    * table will be read from the header page of the file.
    */
   public Table(String name, String filename) throws DatabaseException {
+    this(name, filename, BufferPool.getDefault());
+  }
+
+  /**
+   * Load a table named `name` from the file `filename` whose pages are cached
+   * in `bufferPool`.
+   */
+  public Table(String name, String filename, BufferPool bufferPool) throws DatabaseException {
+    this(name, filename, bufferPool, PageAllocator.Backend.MMAP);
+  }
+
+  /**
+   * Load a table named `name` from the file `filename` whose pages are cached
+   * in `bufferPool` and read and written by `backend`.
+   */
+  public Table(String name, String filename, BufferPool bufferPool,
+               PageAllocator.Backend backend) throws DatabaseException {
     this.name = name;
     this.filename = filename;
-    this.allocator = new PageAllocator(filename, false);
-    this.schema = readSchemaFromHeaderPage(this.allocator);
-    this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, this.schema);
-    this.numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, this.schema);
-
-    // We compute the stats, free pages, and number of records naively. We
-    // iterate through every single data page of the file, and for each data
-    // data page, we use the bitmap to read every single record.
+    this.allocator = new PageAllocator(filename, false, true, bufferPool, backend);
+    ByteBuffer header = this.allocator.fetchPage(0).getReadOnlyByteBuffer();
+    this.schema = Schema.fromBytes(header);
+    this.format = PageFormat.fromByte(header.get());
+    this.catalogOffset = header.position();
+    computeDataPageNumbers();
+    if (readCatalog(header)) {
+      return;
+    }
+
+    // The table wasn't closed since it was last modified, so we compute the
+    // stats, free pages, and number of records naively. We iterate through
+    // every single data page of the file, and for each data data page, we use
+    // the bitmap to read every single record.
     this.stats = new TableStats(this.schema);
-    this.freePageNums = new TreeSet<Integer>();
+    this.freeSpace = newFreeSpaceMap();
     this.numRecords = 0;
 
     Iterator<Page> iter = this.allocator.iterator();
@@ -178,9 +284,7 @@ public class Table implements Iterable<Record>, Closeable {
         }
       }
 
-      if (numRecordsOnPage(page) != numRecordsPerPage) {
-        freePageNums.add(page.getPageNum());
-      }
+      freeSpace.setFree(page.getPageNum(), computeFreeSpace(page));
     }
   }
 
@@ -201,6 +305,10 @@ public class Table implements Iterable<Record>, Closeable {
     return allocator;
   }
 
+  public PageFormat getPageFormat() {
+    return format;
+  }
+
   public int getBitmapSizeInBytes() {
     return bitmapSizeInBytes;
   }
@@ -227,7 +335,11 @@ public class Table implements Iterable<Record>, Closeable {
   // We should refactor to avoid this.
   public byte[] getBitMap(Page page) {
     byte[] bytes = new byte[bitmapSizeInBytes];
-    page.getByteBuffer().get(bytes);
+    if (format == PageFormat.SLOTTED) {
+      SlottedPage.getOccupancy(page.getReadOnlyByteBuffer(), bytes);
+    } else {
+      page.getReadOnlyByteBuffer().get(bytes);
+    }
     return bytes;
   }
 
@@ -250,134 +362,472 @@ public class Table implements Iterable<Record>, Closeable {
    * it multiple times refreshes the statistics
    */
   public TableStats buildStatistics(int buckets){
-   this.stats.refreshHistograms(buckets, this);
-   return this.stats;
+    tableLatch.writeLock().lock();
+    try {
+      invalidateCatalog();
+      this.stats.refreshHistograms(buckets, this);
+      return this.stats;
+    } finally {
+      tableLatch.writeLock().unlock();
+    }
   }
 
   // Modifiers /////////////////////////////////////////////////////////////////
-  private synchronized void insertRecord(Page page, int entryNum, Record record) {
+  private void insertRecord(Page page, int entryNum, Record record) {
     int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
     byte[] bytes = record.toBytes(schema);
     ByteBuffer buf = page.getByteBuffer();
     buf.position(offset);
     buf.put(bytes);
+    page.markDirty();
   }
 
   /**
    * addRecord adds a record to this table and returns the record id of the
-   * newly added record. stats, freePageNums, and numRecords are updated
+   * newly added record. stats, freeSpace, and numRecords are updated
    * accordingly. The record is added to the first free slot of the first free
    * page (if one exists, otherwise one is allocated). For example, if the
    * first free page has bitmap 0b11101000, then the record is inserted into
    * the page with index 3 and the bitmap is updated to 0b11111000.
+   *
+   * The free space map finds the first free page without reading any full
+   * ones, and the page's bitmap is searched from the page's hint, a word at a
+   * time (see Bits.firstZeroBit). A free page that another thread is
+   * modifying is skipped unless no other free page has room (see
+   * latchPageWithRoom), so concurrent inserts fill different pages.
    */
-  public synchronized RecordId addRecord(List<DataBox> values) throws DatabaseException {
+  public RecordId addRecord(List<DataBox> values) throws DatabaseException {
     Record record = schema.verify(values);
+    tableLatch.readLock().lock();
+    try {
+      invalidateCatalog();
+      if (format == PageFormat.SLOTTED) {
+        return addSlottedRecord(record);
+      }
 
-    // Get a free page, allocating a new one if necessary.
-    if (freePageNums.isEmpty()) {
-      freePageNums.add(allocator.allocPage());
+      Page page = latchPageWithRoom(0, 1);
+      int pageNum = page.getPageNum();
+      try {
+        // Find the first empty slot in the bitmap, which is at or after the
+        // hint.
+        ByteBuffer buf = page.getReadOnlyByteBuffer();
+        int entryNum = Bits.firstZeroBit(buf, getHint(pageNum), numRecordsPerPage);
+        assert(entryNum >= 0);
+
+        // Insert the record and update the bitmap.
+        insertRecord(page, entryNum, record);
+        Bits.setBit(page.getByteBuffer(), entryNum, Bits.Bit.ONE);
+        page.markDirty();
+
+        // Update the metadata.
+        synchronized (this) {
+          stats.addRecord(record);
+          freeSpace.setFree(pageNum, freeSpace.getFree(pageNum) - 1);
+          freeSpace.setHint(pageNum, entryNum + 1);
+          numRecords++;
+        }
+        return new RecordId(pageNum, (short) entryNum);
+      } finally {
+        unlatchPage(page);
+      }
+    } finally {
+      tableLatch.readLock().unlock();
     }
-    Page page = allocator.fetchPage(freePageNums.first());
+  }
 
-    // Find the first empty slot in the bitmap.
-    // entry number of the first free slot and store it in entryNum; and (2) we
-    // count the total number of entries on this page.
-    byte[] bitmap = getBitMap(page);
-    int entryNum = 0;
-    for (; entryNum < numRecordsPerPage; ++entryNum) {
-      if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO) {
-        break;
+  // addRecord for SLOTTED tables: the record goes in the first free page it
+  // fits in, rather than in the first free page.
+  private RecordId addSlottedRecord(Record record) throws DatabaseException {
+    byte[] bytes = encodeSlotted(record);
+    Page page = latchPageWithRoom(0, bytes.length);
+    try {
+      ByteBuffer buf = page.getByteBuffer();
+      int entryNum = SlottedPage.insert(buf, bytes);
+      page.markDirty();
+
+      synchronized (this) {
+        stats.addRecord(record);
+        freeSpace.setFree(page.getPageNum(), SlottedPage.getMaxInsertLength(buf));
+        numRecords++;
       }
+      return new RecordId(page.getPageNum(), (short) entryNum);
+    } finally {
+      unlatchPage(page);
     }
-    assert(entryNum < numRecordsPerPage);
+  }
 
-    // Insert the record and update the bitmap.
-    insertRecord(page, entryNum, record);
-    Bits.setBit(page.getByteBuffer(), entryNum, Bits.Bit.ONE);
+  /**
+   * Checks that values can be added to this table: they must match the
+   * schema, and in a SLOTTED table their encoding must fit on a page.
+   */
+  public Record verify(List<DataBox> values) throws DatabaseException {
+    Record record = schema.verify(values);
+    if (format == PageFormat.SLOTTED) {
+      encodeSlotted(record);
+    }
+    return record;
+  }
 
-    // Update the metadata.
-    stats.addRecord(record);
-    if (numRecordsOnPage(page) == numRecordsPerPage) {
-      freePageNums.pollFirst();
+  // Encodes record in the slotted format, rejecting it up front if it would
+  // not fit even on an empty page (latchPageWithRoom would never find one).
+  private byte[] encodeSlotted(Record record) throws DatabaseException {
+    byte[] bytes = SlottedPage.encode(record, schema);
+    if (bytes.length > SlottedPage.MAX_RECORD_SIZE) {
+      String msg = String.format("Record of %d bytes does not fit on a page of at most %d.",
+                                 bytes.length, SlottedPage.MAX_RECORD_SIZE);
+      throw new DatabaseException(msg);
     }
-    numRecords++;
+    return bytes;
+  }
 
-    return new RecordId(page.getPageNum(), (short) entryNum);
+  /**
+   * addRecords adds the records of values to this table, in order, and
+   * returns their record ids. It is much faster than calling addRecord for
+   * each record, because it fills a page at a time: each page is fetched once,
+   * its bitmap is read and written once, and stats and freeSpace are updated
+   * once. Records go into the free slots of the free pages, like they would
+   * with addRecord, except that the pages of a SLOTTED table are filled in
+   * order, so a short record never goes into a page before the last one
+   * filled. If some values can't be added (see verify), an exception is
+   * thrown and the records before them stay added.
+   */
+  public List<RecordId> addRecords(Iterator<List<DataBox>> values)
+      throws DatabaseException {
+    List<RecordId> rids = new ArrayList<RecordId>();
+    if (!values.hasNext()) {
+      return rids;
+    }
+    tableLatch.readLock().lock();
+    try {
+      invalidateCatalog();
+      if (format == PageFormat.SLOTTED) {
+        addSlottedRecords(values, rids);
+        return rids;
+      }
+
+      while (values.hasNext()) {
+        Page page = latchPageWithRoom(0, 1);
+        int pageNum = page.getPageNum();
+        int free = getFreeSpace(page);
+        byte[] bitmap = getBitMap(page);
+        ByteBuffer bits = ByteBuffer.wrap(bitmap);
+        int entryNum = getHint(pageNum);
+        List<Record> added = new ArrayList<Record>();
+        try {
+          while (free > 0 && values.hasNext()) {
+            Record record = schema.verify(values.next());
+            entryNum = Bits.firstZeroBit(bits, entryNum, numRecordsPerPage);
+            insertRecord(page, entryNum, record);
+            Bits.setBit(bits, entryNum, Bits.Bit.ONE);
+            rids.add(new RecordId(pageNum, (short) entryNum));
+            added.add(record);
+            free--;
+            entryNum++;
+          }
+        } finally {
+          page.getByteBuffer().put(bitmap);
+          page.markDirty();
+          synchronized (this) {
+            stats.addRecords(added);
+            freeSpace.setFree(pageNum, free);
+            freeSpace.setHint(pageNum, entryNum);
+            numRecords += added.size();
+          }
+          unlatchPage(page);
+        }
+      }
+      return rids;
+    } finally {
+      tableLatch.readLock().unlock();
+    }
+  }
+
+  // addRecords for SLOTTED tables.
+  private void addSlottedRecords(Iterator<List<DataBox>> values, List<RecordId> rids)
+      throws DatabaseException {
+    Record record = schema.verify(values.next());
+    byte[] bytes = encodeSlotted(record);
+    int from = 0;
+    while (record != null) {
+      Page page = latchPageWithRoom(from, bytes.length);
+      ByteBuffer buf = page.getByteBuffer();
+      List<Record> added = new ArrayList<Record>();
+      try {
+        while (record != null && SlottedPage.fits(buf, bytes.length)) {
+          int entryNum = SlottedPage.insert(buf, bytes);
+          rids.add(new RecordId(page.getPageNum(), (short) entryNum));
+          added.add(record);
+          record = null;
+          if (values.hasNext()) {
+            record = schema.verify(values.next());
+            bytes = encodeSlotted(record);
+          }
+        }
+      } finally {
+        page.markDirty();
+        synchronized (this) {
+          stats.addRecords(added);
+          freeSpace.setFree(page.getPageNum(), SlottedPage.getMaxInsertLength(buf));
+          numRecords += added.size();
+        }
+        unlatchPage(page);
+      }
+      from = page.getPageNum() + 1;
+    }
   }
 
   /**
    * Retrieves a record from the table, throwing an exception if no such record
-   * exists.
+   * exists. Only the record's page is latched, so reads of a table proceed in
+   * parallel with each other and with writes to other pages.
    */
-  public synchronized Record getRecord(RecordId rid) throws DatabaseException {
+  public Record getRecord(RecordId rid) throws DatabaseException {
     validateRecordId(rid);
-    Page page = allocator.fetchPage(rid.getPageNum());
-    byte[] bitmap = getBitMap(page);
-    if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
-      String msg = String.format("Record %s does not exist.", rid);
-      throw new DatabaseException(msg);
+    tableLatch.readLock().lock();
+    pageLatch(rid.getPageNum()).readLock().lock();
+    try {
+      return readRecord(allocator.fetchPage(rid.getPageNum()), rid);
+    } finally {
+      pageLatch(rid.getPageNum()).readLock().unlock();
+      tableLatch.readLock().unlock();
     }
-
-    int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
-    ByteBuffer buf = page.getByteBuffer();
-    buf.position(offset);
-    return Record.fromBytes(buf, schema);
   }
 
   /**
    * Overwrites an existing record with new values and returns the existing
    * record. stats is updated accordingly. An exception is thrown if rid does
-   * not correspond to an existing record in the table.
+   * not correspond to an existing record in the table. In a SLOTTED table,
+   * an exception is also thrown, and the record left as it was, if the new
+   * record is longer than the old one and no longer fits on its page.
    */
-  public synchronized Record updateRecord(List<DataBox> values, RecordId rid) throws DatabaseException {
+  public Record updateRecord(List<DataBox> values, RecordId rid) throws DatabaseException {
     validateRecordId(rid);
     Record newRecord = schema.verify(values);
-    Record oldRecord = getRecord(rid);
-
-    Page page = allocator.fetchPage(rid.getPageNum());
-    insertRecord(page, rid.getEntryNum(), newRecord);
-    this.stats.removeRecord(oldRecord);
-    this.stats.addRecord(newRecord);
-    return oldRecord;
+    tableLatch.readLock().lock();
+    pageLatch(rid.getPageNum()).writeLock().lock();
+    Page page = null;
+    try {
+      page = fetchPinnedPage(rid.getPageNum());
+      Record oldRecord = readRecord(page, rid);
+      invalidateCatalog();
+
+      if (format == PageFormat.SLOTTED) {
+        byte[] bytes = SlottedPage.encode(newRecord, schema);
+        if (!SlottedPage.update(page.getByteBuffer(), rid.getEntryNum(), bytes)) {
+          String msg = String.format("Record %s does not fit on its page.", rid);
+          throw new DatabaseException(msg);
+        }
+        page.markDirty();
+      } else {
+        insertRecord(page, rid.getEntryNum(), newRecord);
+      }
+      synchronized (this) {
+        if (format == PageFormat.SLOTTED) {
+          freeSpace.setFree(page.getPageNum(), computeFreeSpace(page));
+        }
+        this.stats.removeRecord(oldRecord);
+        this.stats.addRecord(newRecord);
+      }
+      return oldRecord;
+    } finally {
+      if (page != null) {
+        page.unpin();
+      }
+      pageLatch(rid.getPageNum()).writeLock().unlock();
+      tableLatch.readLock().unlock();
+    }
   }
 
   /**
    * Deletes and returns the record specified by rid from the table and updates
-   * stats, freePageNums, and numRecords as necessary. An exception is thrown
+   * stats, freeSpace, and numRecords as necessary. An exception is thrown
    * if rid does not correspond to an existing record in the table.
    */
-  public synchronized Record deleteRecord(RecordId rid) throws DatabaseException {
+  public Record deleteRecord(RecordId rid) throws DatabaseException {
     validateRecordId(rid);
-    Page page = allocator.fetchPage(rid.getPageNum());
-    Record record = getRecord(rid);
-    Bits.setBit(page.getByteBuffer(), rid.getEntryNum(), Bits.Bit.ZERO);
-
-    stats.removeRecord(record);
-    if(numRecordsOnPage(page) == numRecordsPerPage - 1) {
-      freePageNums.add(page.getPageNum());
+    tableLatch.readLock().lock();
+    pageLatch(rid.getPageNum()).writeLock().lock();
+    Page page = null;
+    try {
+      page = fetchPinnedPage(rid.getPageNum());
+      Record record = readRecord(page, rid);
+      invalidateCatalog();
+      int pageNum = page.getPageNum();
+      int free = getFreeSpace(page);
+      if (format == PageFormat.SLOTTED) {
+        SlottedPage.delete(page.getByteBuffer(), rid.getEntryNum());
+      } else {
+        Bits.setBit(page.getByteBuffer(), rid.getEntryNum(), Bits.Bit.ZERO);
+      }
+      page.markDirty();
+
+      synchronized (this) {
+        if (format == PageFormat.SLOTTED) {
+          freeSpace.setFree(pageNum, computeFreeSpace(page));
+        } else {
+          freeSpace.setFree(pageNum, free + 1);
+          freeSpace.setHint(pageNum, Math.min(freeSpace.getHint(pageNum), rid.getEntryNum()));
+        }
+        stats.removeRecord(record);
+        numRecords--;
+      }
+      return record;
+    } finally {
+      if (page != null) {
+        page.unpin();
+      }
+      pageLatch(rid.getPageNum()).writeLock().unlock();
+      tableLatch.readLock().unlock();
     }
-    numRecords--;
+  }
 
-    return record;
+  /**
+   * Writes every modified page of the table to disk, followed by a catalog of
+   * its record count, free pages, and statistics, which lets the table be
+   * loaded without reading every record if it is not modified again before
+   * it is. Waits for the table's ongoing modifications to finish.
+   */
+  public void checkpoint() {
+    tableLatch.writeLock().lock();
+    try {
+      if (catalogValid || closed) {
+        return;
+      }
+      allocator.getBufferPool().writeDirtyPages();
+      allocator.sync();
+      writeCatalog();
+    } finally {
+      tableLatch.writeLock().unlock();
+    }
   }
 
+  /**
+   * Checkpoints and closes the table.
+   */
   public void close() {
-    allocator.close();
+    tableLatch.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      checkpoint();
+      allocator.close();
+      closed = true;
+    } finally {
+      tableLatch.writeLock().unlock();
+    }
   }
 
   // Helpers ///////////////////////////////////////////////////////////////////
-  private static Schema readSchemaFromHeaderPage(PageAllocator allocator) {
-    Page headerPage = allocator.fetchPage(0);
-    ByteBuffer buf = headerPage.getByteBuffer();
-    return Schema.fromBytes(buf);
-  }
-
-  private static void writeSchemaToHeaderPage(PageAllocator allocator, Schema schema) {
+  // Returns the offset of the catalog in the header page.
+  private static int writeSchemaToHeaderPage(PageAllocator allocator, Schema schema,
+                                             PageFormat format) {
     Page headerPage = allocator.fetchPage(allocator.allocPage());
     assert(0 == headerPage.getPageNum());
-    ByteBuffer buf = headerPage.getByteBuffer();
+    ByteBuffer buf = ByteBuffer.allocate(Page.pageSize);
     buf.put(schema.toBytes());
+    // Header pages written before tables had formats or catalogs hold 0s,
+    // i.e. BITMAP and no catalog, here.
+    buf.put(format.toByte());
+    headerPage.writeBytes(0, buf.position(), buf.array());
+    return buf.position();
+  }
+
+  /**
+   * The catalog follows the page format in the header page:
+   *
+   *   | valid (1) | numPages (4) | numRecords (8) | numFreeRuns (4) | runs | stats |
+   *
+   * valid is 1 if the rest of the catalog describes the data pages, and
+   * numPages is the number of pages of the file when it was written, which
+   * is checked as well. The free pages are stored as runs of consecutive page
+   * numbers (a start and a length, 4 bytes each), and stats as written by
+   * TableStats.toBytes. If the catalog doesn't fit in the header page, valid
+   * is 0 and the table is rebuilt from its records when it is loaded.
+   */
+  private void writeCatalog() {
+    List<int[]> runs = new ArrayList<int[]>();
+    for (int pageNum = freeSpace.nextPageWithRoom(0); pageNum >= 0;
+         pageNum = freeSpace.nextPageWithRoom(pageNum + 1)) {
+      int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+      if (last != null && last[0] + last[1] == pageNum) {
+        last[1]++;
+      } else {
+        runs.add(new int[] {pageNum, 1});
+      }
+    }
+    byte[] statsBytes = stats.toBytes();
+    int size = 1 + Integer.BYTES + Long.BYTES + Integer.BYTES
+               + runs.size() * 2 * Integer.BYTES + statsBytes.length;
+
+    Page headerPage = allocator.fetchPage(0);
+    ByteBuffer buf = ByteBuffer.allocate(Page.pageSize - catalogOffset);
+    if (catalogOffset + size > Page.pageSize) {
+      buf.put((byte) 0);
+    } else {
+      buf.put((byte) 1);
+      buf.putInt(allocator.getNumPages());
+      buf.putLong(numRecords);
+      buf.putInt(runs.size());
+      for (int[] run : runs) {
+        buf.putInt(run[0]);
+        buf.putInt(run[1]);
+      }
+      buf.put(statsBytes);
+    }
+    headerPage.writeBytes(catalogOffset, buf.position(), buf.array());
+    headerPage.flush();
+    catalogValid = catalogOffset + size <= Page.pageSize;
+  }
+
+  // Loads numRecords, freeSpace and stats from the catalog at the position of
+  // buf, returning false if the catalog is stale. The free space of the free
+  // pages is UNKNOWN until they are used.
+  private boolean readCatalog(ByteBuffer buf) {
+    if (buf.get() != 1 || buf.getInt() != allocator.getNumPages()) {
+      return false;
+    }
+    this.numRecords = buf.getLong();
+    this.freeSpace = newFreeSpaceMap();
+    int numRuns = buf.getInt();
+    for (int i = 0; i < numRuns; ++i) {
+      int start = buf.getInt();
+      int length = buf.getInt();
+      for (int j = 0; j < length; ++j) {
+        this.freeSpace.setFree(start + j, FreeSpaceMap.UNKNOWN);
+      }
+    }
+    this.stats = TableStats.fromBytes(buf, this.schema);
+    this.catalogValid = true;
+    return true;
+  }
+
+  // Marks the catalog stale on disk before the table is first modified after
+  // a checkpoint.
+  private synchronized void invalidateCatalog() {
+    if (!catalogValid) {
+      return;
+    }
+    Page headerPage = allocator.fetchPage(0);
+    headerPage.writeByte(catalogOffset, (byte) 0);
+    headerPage.flush();
+    catalogValid = false;
+  }
+
+  /**
+   * Sets bitmapSizeInBytes and numRecordsPerPage. The data pages of SLOTTED
+   * tables have no bitmap, but getBitMap synthesizes one from their slot
+   * directories, with a bit for each slot a page of the smallest records of
+   * the schema could have (rounded up to a multiple of 8).
+   */
+  private void computeDataPageNumbers() {
+    if (format == PageFormat.SLOTTED) {
+      this.bitmapSizeInBytes = (SlottedPage.maxNumSlots(schema) + 7) / 8;
+      this.numRecordsPerPage = this.bitmapSizeInBytes * 8;
+    } else {
+      this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, schema);
+      this.numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, schema);
+    }
   }
 
   /**
@@ -406,15 +856,151 @@ public class Table implements Iterable<Record>, Closeable {
     return pageSizeInBits / recordOverheadInBits;
   }
 
-  private int numRecordsOnPage(Page page) {
-    byte[] bitmap = getBitMap(page);
-    int numRecords = 0;
-    for (int i = 0; i < numRecordsPerPage; ++i) {
-      if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-        numRecords++;
+  private FreeSpaceMap newFreeSpaceMap() {
+    if (format == PageFormat.SLOTTED) {
+      return new FreeSpaceMap(SlottedPage.minRecordSize(schema));
+    }
+    return new FreeSpaceMap(1);
+  }
+
+  // The free space of page as recorded in freeSpace, computing it if it is
+  // UNKNOWN. The caller must hold a latch on page.
+  private synchronized int getFreeSpace(Page page) {
+    int free = freeSpace.getFree(page.getPageNum());
+    if (free == FreeSpaceMap.UNKNOWN) {
+      free = computeFreeSpace(page);
+      freeSpace.setFree(page.getPageNum(), free);
+      freeSpace.setHint(page.getPageNum(), 0);
+    }
+    return free;
+  }
+
+  private synchronized int getHint(int pageNum) {
+    return freeSpace.getHint(pageNum);
+  }
+
+  private static ReentrantReadWriteLock[] newPageLatches() {
+    ReentrantReadWriteLock[] latches = new ReentrantReadWriteLock[NUM_PAGE_LATCHES];
+    for (int i = 0; i < latches.length; ++i) {
+      latches[i] = new ReentrantReadWriteLock();
+    }
+    return latches;
+  }
+
+  private ReentrantReadWriteLock pageLatch(int pageNum) {
+    return pageLatches[pageNum % NUM_PAGE_LATCHES];
+  }
+
+  // Write-latches and returns the first page at or after page from with room
+  // for a record of length (in the units of freeSpace), allocating a new page
+  // if there is none. Pages latched by other threads are skipped at first, so
+  // concurrent inserts spread over the free pages. The latches are striped,
+  // though, so a skipped page may only share its latch with a page being read;
+  // the skipped pages are waited for before the table is grown. The page is
+  // also pinned, and the caller must unlatch it with unlatchPage.
+  private Page latchPageWithRoom(int from, int length) {
+    List<Integer> skipped = new ArrayList<Integer>();
+    for (int pageNum = nextPageWithRoom(from); pageNum >= 0;
+         pageNum = nextPageWithRoom(pageNum + 1)) {
+      int free;
+      synchronized (this) {
+        free = freeSpace.getFree(pageNum);
+      }
+      if (free != FreeSpaceMap.UNKNOWN && free < length) {
+        continue;
+      }
+      if (!pageLatch(pageNum).writeLock().tryLock()) {
+        skipped.add(pageNum);
+        continue;
+      }
+      Page page = pinIfRoom(pageNum, length);
+      if (page != null) {
+        return page;
       }
     }
-    return numRecords;
+    for (int pageNum : skipped) {
+      pageLatch(pageNum).writeLock().lock();
+      Page page = pinIfRoom(pageNum, length);
+      if (page != null) {
+        return page;
+      }
+    }
+
+    // No other thread knows about the new page until it is in freeSpace.
+    int pageNum = allocator.allocPage();
+    pageLatch(pageNum).writeLock().lock();
+    Page page = fetchPinnedPage(pageNum);
+    synchronized (this) {
+      freeSpace.setFree(pageNum, computeFreeSpace(page));
+      freeSpace.setHint(pageNum, 0);
+    }
+    return page;
+  }
+
+  // Returns page pageNum, which the caller has write-latched, pinned if it has
+  // room for a record of length, and otherwise unlatches it and returns null.
+  private Page pinIfRoom(int pageNum, int length) {
+    Page page = fetchPinnedPage(pageNum);
+    if (getFreeSpace(page) >= length) {
+      return page;
+    }
+    unlatchPage(page);
+    return null;
+  }
+
+  // Fetches page pageNum, which the caller has write-latched, and pins it, so
+  // that the buffer getByteBuffer returns stays the page's until the caller
+  // unpins it (see Page#getByteBuffer).
+  private Page fetchPinnedPage(int pageNum) {
+    Page page = allocator.fetchPage(pageNum);
+    page.pin();
+    return page;
+  }
+
+  // Unpins and unlatches a page returned by latchPageWithRoom.
+  private void unlatchPage(Page page) {
+    page.unpin();
+    pageLatch(page.getPageNum()).writeLock().unlock();
+  }
+
+  private synchronized int nextPageWithRoom(int pageNum) {
+    return freeSpace.nextPageWithRoom(pageNum);
+  }
+
+  // Reads the record rid from its page, which the caller has latched.
+  private Record readRecord(Page page, RecordId rid) throws DatabaseException {
+    if (!isOccupied(page, rid.getEntryNum())) {
+      String msg = String.format("Record %s does not exist.", rid);
+      throw new DatabaseException(msg);
+    }
+
+    if (format == PageFormat.SLOTTED) {
+      byte[] bytes = new byte[schema.getSizeInBytes()];
+      SlottedPage.expand(page.getReadOnlyByteBuffer(), rid.getEntryNum(), schema, bytes);
+      return Record.fromBytes(ByteBuffer.wrap(bytes), schema);
+    }
+
+    int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
+    ByteBuffer buf = page.getReadOnlyByteBuffer();
+    buf.position(offset);
+    return Record.fromBytes(buf, schema);
+  }
+
+  // The free space of page, in the units of FreeSpaceMap, read from the page.
+  private int computeFreeSpace(Page page) {
+    ByteBuffer buf = page.getReadOnlyByteBuffer();
+    if (format == PageFormat.SLOTTED) {
+      return SlottedPage.getMaxInsertLength(buf);
+    }
+    return numRecordsPerPage - Bits.countOnes(buf, numRecordsPerPage);
+  }
+
+  private boolean isOccupied(Page page, int entryNum) {
+    ByteBuffer buf = page.getReadOnlyByteBuffer();
+    if (format == PageFormat.SLOTTED) {
+      return SlottedPage.isOccupied(buf, entryNum);
+    }
+    return Bits.getBit(buf.get(entryNum / 8), entryNum % 8) == Bits.Bit.ONE;
   }
 
   private void validateRecordId(RecordId rid) throws DatabaseException {
@@ -447,6 +1033,34 @@ public class Table implements Iterable<Record>, Closeable {
       return new RecordIterator(this, ridIterator());
   }
 
+  /**
+   * Returns a Spliterator of the records of the table, which splits the
+   * table's data pages in halves, so that a parallel stream scans different
+   * pages on different threads. Its estimateSize is numRecords, scaled down
+   * to the pages left after splits. It covers the data pages the table has
+   * when it is created, and like the other iterators does not latch them.
+   */
+  @Override
+  public Spliterator<Record> spliterator() {
+    return new RecordSpliterator(1, getNumDataPages() + 1);
+  }
+
+  /**
+   * Returns a sequential Stream of the records of the table.
+   */
+  public Stream<Record> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * Returns a parallel Stream of the records of the table, which can be
+   * processed with the common fork-join pool without copying the records
+   * into a collection first.
+   */
+  public Stream<Record> parallelStream() {
+    return StreamSupport.stream(spliterator(), true);
+  }
+
   public BacktrackingIterator<Record> blockIterator(Page[] block) {
     return new RecordIterator(this, new RIDBlockIterator(block));
   }
@@ -459,6 +1073,52 @@ public class Table implements Iterable<Record>, Closeable {
     return new RecordIterator(this, new RIDBlockIterator(block, maxRecords));
   }
 
+  /**
+   * Returns an iterator of views (see RecordView) of every record of the
+   * table. Unlike iterator(), it does not decode the records: the iterator
+   * returns the same view every time, moved to the next record.
+   */
+  public Iterator<RecordView> viewIterator() {
+    return new RecordViewIterator(iteratorSkipPage(allocator.iterator()));
+  }
+
+  /**
+   * Returns an iterator of views of the records of a block of pages (see
+   * viewIterator()).
+   */
+  public Iterator<RecordView> viewIterator(Page[] block) {
+    return new RecordViewIterator(Arrays.asList(block).iterator());
+  }
+
+  /**
+   * Returns an iterator of views of the records of data pages fromPage
+   * (inclusive) to toPage (exclusive), where the data pages are numbered 1 to
+   * getNumDataPages(). Iterators over disjoint ranges can be used by
+   * different threads, which is how a scan is split up (see
+   * ParallelScanOperator).
+   */
+  public Iterator<RecordView> viewIterator(int fromPage, int toPage) {
+    return new RecordViewIterator(pageRange(fromPage, toPage));
+  }
+
+  // Fetches data pages fromPage to toPage as they are needed.
+  private Iterator<Page> pageRange(int fromPage, int toPage) {
+    return new Iterator<Page>() {
+      private int pageNum = fromPage;
+
+      public boolean hasNext() {
+        return pageNum < toPage;
+      }
+
+      public Page next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return allocator.fetchPage(pageNum++, true);
+      }
+    };
+  }
+
   /**
    * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
    * page of the table.
@@ -703,4 +1363,133 @@ public class Table implements Iterable<Record>, Closeable {
 	      super((BacktrackingIterator<Page>) Table.iteratorSkipPage(Table.this.allocator.iterator()));
 	    }
 	  }
-	}
\ No newline at end of file
+	
+  /**
+   * RecordViewIterator moves a single RecordView over the records of an
+   * iterator of pages, reading each page's bitmap once. The records of
+   * SLOTTED tables are expanded into a buffer the view reads from instead.
+   */
+  private class RecordViewIterator implements Iterator<RecordView> {
+    private Iterator<Page> pages;
+    private RecordView view;
+    private ByteBuffer buf;
+    private byte[] bitmap;
+    private int pageNum;
+    // The entry the next call to next() returns, or numRecordsPerPage if
+    // the current page has no more records.
+    private int nextEntry;
+    private byte[] expanded;
+    private ByteBuffer expandedBuf;
+
+    RecordViewIterator(Iterator<Page> pages) {
+      this.pages = pages;
+      this.view = new RecordView(schema);
+      this.nextEntry = numRecordsPerPage;
+      if (format == PageFormat.SLOTTED) {
+        this.expanded = new byte[schema.getSizeInBytes()];
+        this.expandedBuf = ByteBuffer.wrap(this.expanded);
+      }
+    }
+
+    public boolean hasNext() {
+      while (true) {
+        if (this.bitmap != null) {
+          while (this.nextEntry < numRecordsPerPage
+                 && Bits.getBit(this.bitmap, this.nextEntry) == Bits.Bit.ZERO) {
+            this.nextEntry++;
+          }
+          if (this.nextEntry < numRecordsPerPage) {
+            return true;
+          }
+        }
+        if (!this.pages.hasNext()) {
+          return false;
+        }
+        Page page = this.pages.next();
+        this.buf = page.getReadOnlyByteBuffer();
+        this.bitmap = getBitMap(page);
+        this.pageNum = page.getPageNum();
+        this.nextEntry = 0;
+      }
+    }
+
+    public RecordView next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int entryNum = this.nextEntry++;
+      if (this.expanded != null) {
+        SlottedPage.expand(this.buf, entryNum, schema, this.expanded);
+        return this.view.moveTo(this.expandedBuf, 0, this.pageNum, entryNum);
+      }
+      int offset = bitmapSizeInBytes + entryNum * schema.getSizeInBytes();
+      return this.view.moveTo(this.buf, offset, this.pageNum, entryNum);
+    }
+  }
+
+  /**
+   * A Spliterator over the records of data pages fromPage to toPage. It
+   * scans one page at a time, so that it can split off the pages it hasn't
+   * started yet, and decodes every record with RecordView.toRecord.
+   */
+  private class RecordSpliterator implements Spliterator<Record> {
+    private int fromPage;
+    private int toPage;
+    // The records of the page being scanned, or null.
+    private Iterator<RecordView> views;
+
+    RecordSpliterator(int fromPage, int toPage) {
+      this.fromPage = fromPage;
+      this.toPage = toPage;
+    }
+
+    public boolean tryAdvance(Consumer<? super Record> action) {
+      while (this.views == null || !this.views.hasNext()) {
+        if (this.fromPage >= this.toPage) {
+          return false;
+        }
+        this.views = viewIterator(this.fromPage, this.fromPage + 1);
+        this.fromPage++;
+      }
+      action.accept(this.views.next().toRecord());
+      return true;
+    }
+
+    public void forEachRemaining(Consumer<? super Record> action) {
+      if (this.views != null) {
+        this.views.forEachRemaining(view -> action.accept(view.toRecord()));
+      }
+      this.views = viewIterator(this.fromPage, this.toPage);
+      this.fromPage = this.toPage;
+      this.views.forEachRemaining(view -> action.accept(view.toRecord()));
+    }
+
+    public Spliterator<Record> trySplit() {
+      // The split-off pages must precede this spliterator's, so a page can't
+      // be split off while one before it is being scanned.
+      if (this.toPage - this.fromPage < 2 || (this.views != null && this.views.hasNext())) {
+        return null;
+      }
+      int mid = (this.fromPage + this.toPage) >>> 1;
+      Spliterator<Record> prefix = new RecordSpliterator(this.fromPage, mid);
+      this.fromPage = mid;
+      return prefix;
+    }
+
+    public long estimateSize() {
+      int numDataPages = getNumDataPages();
+      if (numDataPages == 0) {
+        return 0;
+      }
+      int numPages = this.toPage - this.fromPage;
+      if (this.views != null && this.views.hasNext()) {
+        numPages++;
+      }
+      return Math.min(numRecords, numRecords * numPages / numDataPages);
+    }
+
+    public int characteristics() {
+      return Spliterator.ORDERED | Spliterator.NONNULL;
+    }
+  }
+}
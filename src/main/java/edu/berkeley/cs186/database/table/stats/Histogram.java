@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -57,6 +58,9 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
  */
 public class Histogram {
 
+  // The size of a serialized bucket: its bounds, count and distinct count.
+  private static final int BUCKET_SIZE = 2 * Float.BYTES + 2 * Integer.BYTES;
+
   private Bucket<Float> [] buckets; //An array of float buckets the basic data structure
 
   private float minValue;
@@ -169,6 +173,36 @@ public class Histogram {
   }
 
 
+  //Serialization//////////////////////////////////////////////////////////////
+  /** Serializes the bounds and counts of the buckets of a built histogram. */
+  public byte[] toBytes(){
+    ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES + this.numBuckets * BUCKET_SIZE);
+    buf.putInt(this.numBuckets);
+    for (int i=0; i<this.numBuckets; i++){
+      buf.putFloat(this.buckets[i].getStart());
+      buf.putFloat(this.buckets[i].getEnd());
+      buf.putInt(this.buckets[i].getCount());
+      buf.putInt(this.buckets[i].getDistinctCount());
+    }
+    return buf.array();
+  }
+
+  /** Reads a histogram written by toBytes. */
+  public static Histogram fromBytes(ByteBuffer buf){
+    int numBuckets = buf.getInt();
+    if (numBuckets == 0)
+      return new Histogram(0);
+
+    Bucket<Float> [] buckets = new Bucket[numBuckets];
+    for (int i=0; i<numBuckets; i++){
+      buckets[i] = new Bucket<Float>(buf.getFloat(), buf.getFloat());
+      buckets[i].setCount(buf.getInt());
+      buckets[i].setDistinctCount(buf.getInt());
+    }
+    return new Histogram(buckets);
+  }
+
+
   //Operations//////////////////////////////////////////////////////////////
 
   /* Given a predicate, return a multiplicative mask for the histogram. That is,
@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -71,6 +72,11 @@ public class TableStats {
 
   }
 
+  /** Adds every record of `records`, like addRecord, at once. */
+  public void addRecords(List<Record> records) {
+    numRecords += records.size();
+  }
+
   public void refreshHistograms(int buckets, Table tab) {
 
     int count = 0;
@@ -118,6 +124,43 @@ public class TableStats {
     return histograms;
   }
 
+  // Serialization /////////////////////////////////////////////////////////////
+  /**
+   * Serializes the record count and histograms of these statistics (but not
+   * the schema, which tables store separately).
+   */
+  public byte[] toBytes() {
+    List<byte[]> serializedHistograms = new ArrayList<byte[]>();
+    int size = 2 * Integer.BYTES;
+    for (Histogram h : histograms) {
+      byte[] bytes = h.toBytes();
+      serializedHistograms.add(bytes);
+      size += bytes.length;
+    }
+
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    buf.putInt(numRecords);
+    buf.putInt(histograms.size());
+    for (byte[] bytes : serializedHistograms) {
+      buf.put(bytes);
+    }
+    return buf.array();
+  }
+
+  /**
+   * Reads the statistics, written by toBytes, of a table with schema
+   * `tableSchema`.
+   */
+  public static TableStats fromBytes(ByteBuffer buf, Schema tableSchema) {
+    int numRecords = buf.getInt();
+    int numHistograms = buf.getInt();
+    List<Histogram> histograms = new ArrayList<Histogram>();
+    for (int i = 0; i < numHistograms; ++i) {
+      histograms.add(Histogram.fromBytes(buf));
+    }
+    return new TableStats(tableSchema, numRecords, histograms);
+  }
+
 
   // Copiers ///////////////////////////////////////////////////////////////////
   /**
@@ -161,6 +204,11 @@ public class TableStats {
   public TableStats copyWithPredicate(int column,
                                       PredicateOperator predicate,
                                       DataBox d) {
+    // Without histograms (see Table#buildStatistics), the predicate's
+    // selectivity can't be estimated.
+    if (histograms.isEmpty()) {
+      return this;
+    }
     float reductionFactor = histograms.get(column).computeReductionFactor(predicate, d);
     List<Histogram> copyHistograms = new ArrayList<>();
     for (int j = 0; j < histograms.size(); ++j) {
@@ -248,4 +296,19 @@ public class TableStats {
 
     return new TableStats(joinedSchema, outputSize, copyHistograms);
   }
-}
\ No newline at end of file
+
+  /**
+   * Creates a new TableStats which is the statistics for the table that
+   * results from keeping only the columns `columns` (in that order) of the
+   * table, whose schema is `schema`.
+   */
+  public TableStats copyWithProjection(Schema schema, List<Integer> columns) {
+    List<Histogram> copyHistograms = new ArrayList<Histogram>();
+    if (!histograms.isEmpty()) {
+      for (int column : columns) {
+        copyHistograms.add(histograms.get(column));
+      }
+    }
+    return new TableStats(schema, this.numRecords, copyHistograms);
+  }
+}
@@ -4,6 +4,11 @@ import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.query.QueryOperator;
+import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.query.QueryPlanException;
 
 import org.junit.After;
 import org.junit.Before;
@@ -17,9 +22,12 @@ import org.junit.experimental.categories.Category;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 public class TestDatabase {
   public static final String TestDir = "testDatabase";
@@ -136,6 +144,400 @@ public class TestDatabase {
     t1.end();
   }
 
+  @Test
+  public void testPositionalBackend() throws DatabaseException {
+    db.close();
+    // A buffer pool much smaller than the table, so pages are evicted and read back in.
+    db = new Database(this.filename, 5, 8, PageAllocator.Backend.POSITIONAL);
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "positional", PageFormat.SLOTTED);
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord("positional", TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      t1.deleteRecord("positional", rids.get(i));
+    }
+    t1.end();
+    db.close();
+
+    db = new Database(this.filename, 5, 8, PageAllocator.Backend.POSITIONAL);
+    t1 = db.beginTransaction();
+    assertEquals(500, t1.getNumRecords("positional"));
+    for (int i = 1; i < 1000; i += 2) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), t1.getRecord("positional", rids.get(i)));
+    }
+    t1.end();
+  }
+
+  @Test
+  public void testTablesAndIndexesOpenLazily() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTableWithIndices(s, "indexed", Arrays.asList("int"));
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 10; i++) {
+      rids.add(t1.addRecord("indexed", TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    t1.end();
+    db.close();
+
+    // Opening the database reads nothing until a table is used.
+    db = new Database(this.filename);
+    assertEquals(0, db.getBufferPool().getMetrics().getMisses());
+
+    t1 = db.beginTransaction();
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(3), t1.getRecord("indexed", rids.get(3)));
+    assertTrue(db.getBufferPool().getMetrics().getMisses() > 0);
+    assertTrue(t1.contains("indexed", "int", new IntDataBox(7)));
+    t1.end();
+  }
+
+  @Test
+  public void testAddRecords() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTableWithIndices(s, "indexed", Arrays.asList("int"));
+    List<List<DataBox>> values = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 5000; i++) {
+      // Not in key order.
+      values.add(TestUtils.createRecordWithAllTypesWithValue((i * 7919) % 5000).getValues());
+    }
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = t1.addRecords("indexed", values.iterator());
+    assertEquals(5000, rids.size());
+    assertEquals(5000, t1.getNumRecords("indexed"));
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(new Record(values.get(i)), t1.getRecord("indexed", rids.get(i)));
+      assertTrue(t1.contains("indexed", "int", new IntDataBox(i)));
+    }
+    t1.end();
+  }
+
+  @Test
+  public void testAddRecordsRejectsBatch() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTableWithIndices(s, "indexed", Arrays.asList("int"));
+    List<List<DataBox>> values = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 10; i++) {
+      values.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    values.add(Arrays.asList(new IntDataBox(10)));
+
+    Database.Transaction t1 = db.beginTransaction();
+    try {
+      t1.addRecords("indexed", values.iterator());
+      fail();
+    } catch (DatabaseException e) {
+      // The bad record's batch is rejected as a whole.
+    }
+    assertEquals(0, t1.getNumRecords("indexed"));
+    assertFalse(t1.getRecordIterator("indexed").hasNext());
+    assertFalse(t1.contains("indexed", "int", new IntDataBox(0)));
+    t1.end();
+  }
+
+  @Test
+  public void testNonUniqueIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTableWithIndices(s, "indexed", Arrays.asList("int"), false);
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord("indexed", TestUtils.createRecordWithAllTypesWithValue(i % 10).getValues()));
+    }
+    t1.deleteRecord("indexed", rids.get(3));
+
+    int count = 0;
+    Iterator<Record> records = t1.lookupKey("indexed", "int", new IntDataBox(3));
+    while (records.hasNext()) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(3), records.next());
+      count++;
+    }
+    assertEquals(99, count);
+    assertTrue(t1.contains("indexed", "int", new IntDataBox(7)));
+    assertFalse(t1.contains("indexed", "int", new IntDataBox(10)));
+    t1.end();
+  }
+
+  @Test
+  public void testCompositeIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "composite");
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 500; i++) {
+      rids.add(t1.addRecord("composite", compositeValues(i % 5, i)));
+    }
+    db.createCompositeIndex("composite", Arrays.asList("int", "float"), true);
+    // Records added after the index is created are indexed as well.
+    for (int i = 500; i < 1000; i++) {
+      rids.add(t1.addRecord("composite", compositeValues(i % 5, i)));
+    }
+    t1.deleteRecord("composite", rids.get(3));
+    t1.updateRecord("composite", compositeValues(3, -8), rids.get(8));
+
+    assertTrue(t1.indexExists("composite", Arrays.asList("int", "float")));
+    assertFalse(t1.indexExists("composite", Arrays.asList("float", "int")));
+
+    // int = 3: 200 records, one deleted, in ascending order of float.
+    List<Record> records = new ArrayList<Record>();
+    t1.lookupPrefix("composite", Arrays.asList("int", "float"),
+                    Arrays.asList(new IntDataBox(3))).forEachRemaining(records::add);
+    assertEquals(199, records.size());
+    assertEquals(new Record(compositeValues(3, -8)), records.get(0));
+    assertEquals(new Record(compositeValues(3, 13)), records.get(1));
+
+    // int = 3 and 100 <= float <= 200
+    records.clear();
+    t1.lookupPrefixRange("composite", Arrays.asList("int", "float"),
+                         Arrays.asList(new IntDataBox(3)),
+                         new FloatDataBox(100), new FloatDataBox(200))
+        .forEachRemaining(records::add);
+    assertEquals(20, records.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(new Record(compositeValues(3, 103 + 5 * i)), records.get(i));
+    }
+    t1.end();
+
+    // The index is found again when the database is reopened.
+    db.close();
+    db = new Database(this.filename);
+    t1 = db.beginTransaction();
+    Iterator<Record> iter = t1.lookupPrefixRange("composite", Arrays.asList("int", "float"),
+                                                 Arrays.asList(new IntDataBox(0)),
+                                                 null, new FloatDataBox(10));
+    assertEquals(new Record(compositeValues(0, 0)), iter.next());
+    assertEquals(new Record(compositeValues(0, 5)), iter.next());
+    assertEquals(new Record(compositeValues(0, 10)), iter.next());
+    assertFalse(iter.hasNext());
+    t1.end();
+  }
+
+  @Test
+  public void testCompositeIndexFromSortedRuns() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "composite");
+    Database.Transaction t1 = db.beginTransaction();
+    List<List<DataBox>> values = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 5000; i++) {
+      values.add(compositeValues(i % 7, i));
+    }
+    t1.addRecords("composite", values.iterator());
+    // Far more entries than fit in the database's memory pages, so the index
+    // is loaded from several sorted runs.
+    db.createCompositeIndex("composite", Arrays.asList("int", "float"), true);
+
+    Iterator<Record> records = t1.lookupPrefix("composite", Arrays.asList("int", "float"),
+                                               Arrays.asList(new IntDataBox(3)));
+    for (int i = 3; i < 5000; i += 7) {
+      assertEquals(new Record(compositeValues(3, i)), records.next());
+    }
+    assertFalse(records.hasNext());
+    t1.end();
+
+    // The runs are deleted once the index is loaded.
+    File[] temp = new File(this.filename, "temp").listFiles();
+    assertTrue(temp == null || temp.length == 0);
+  }
+
+  @Test
+  public void testFailedCompositeIndexIsRemoved() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "composite");
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 100; i++) {
+      t1.addRecord("composite", compositeValues(i % 5, i % 10));
+    }
+    try {
+      db.createCompositeIndex("composite", Arrays.asList("int", "float"), true);
+      fail();
+    } catch (DatabaseException e) {
+      // Expected: the values are not unique.
+    }
+    assertFalse(t1.indexExists("composite", Arrays.asList("int", "float")));
+    assertFalse(new File(this.filename,
+                         "composite,int,float" + BPlusTree.FILENAME_EXTENSION).exists());
+
+    db.createCompositeIndex("composite", Arrays.asList("int", "float"), false);
+    List<Record> records = new ArrayList<Record>();
+    t1.lookupPrefix("composite", Arrays.asList("int", "float"),
+                    Arrays.asList(new IntDataBox(2), new FloatDataBox(7)))
+        .forEachRemaining(records::add);
+    assertEquals(10, records.size());
+    t1.end();
+  }
+
+  @Test
+  public void testCompositeIndexQuery() throws DatabaseException, QueryPlanException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "composite");
+    db.createCompositeIndex("composite", Arrays.asList("int", "float"), false);
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 1000; i++) {
+      t1.addRecord("composite", compositeValues(i % 5, i));
+    }
+
+    QueryPlan query = t1.query("composite");
+    query.select("string", QueryPlan.PredicateOperator.EQUALS, new StringDataBox("s", 5));
+    query.select("float", QueryPlan.PredicateOperator.GREATER_THAN, new FloatDataBox(103));
+    query.select("int", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(3));
+    Iterator<Record> records = query.execute();
+
+    // The predicates on int and float are served by one probe of the index.
+    QueryOperator op = query.getFinalOperator();
+    assertEquals(QueryOperator.OperatorType.SELECT, op.getType());
+    assertEquals(QueryOperator.OperatorType.COMPOSITEINDEXSCAN, op.getSource().getType());
+    for (int i = 108; i < 1000; i += 5) {
+      assertEquals(new Record(compositeValues(3, i)), records.next());
+    }
+    assertFalse(records.hasNext());
+    t1.end();
+  }
+
+  @Test
+  public void testDeleteTableDropsCompositeIndexes() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "composite");
+    Database.Transaction t1 = db.beginTransaction();
+    t1.addRecord("composite", compositeValues(1, 1));
+    t1.end();
+    db.createCompositeIndex("composite", Arrays.asList("int", "float"), true);
+    db.createCoveringIndex("composite", Arrays.asList("float"), Arrays.asList("int"), true);
+
+    assertTrue(db.deleteTable("composite"));
+    assertFalse(new File(this.filename,
+                         "composite,int,float" + BPlusTree.FILENAME_EXTENSION).exists());
+    assertFalse(new File(this.filename,
+                         "composite,float+int" + BPlusTree.FILENAME_EXTENSION).exists());
+
+    // A new table of the same name starts without indexes.
+    db.createTable(s, "composite");
+    Database.Transaction t2 = db.beginTransaction();
+    assertFalse(t2.indexExists("composite", Arrays.asList("int", "float")));
+    t2.end();
+    db.createCompositeIndex("composite", Arrays.asList("int", "float"), true);
+    db.createCoveringIndex("composite", Arrays.asList("float"), Arrays.asList("int"), true);
+  }
+
+  @Test
+  public void testCoveringIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "covering");
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 500; i++) {
+      rids.add(t1.addRecord("covering", compositeValues(i % 5, i)));
+    }
+    db.createCoveringIndex("covering", Arrays.asList("int"), Arrays.asList("float", "bool"), false);
+    for (int i = 500; i < 1000; i++) {
+      rids.add(t1.addRecord("covering", compositeValues(i % 5, i)));
+    }
+    t1.deleteRecord("covering", rids.get(3));
+    t1.updateRecord("covering", compositeValues(3, -8), rids.get(8));
+
+    assertEquals(Arrays.asList("float", "bool"),
+                 t1.getIncludedColumns("covering", Arrays.asList("int")));
+    // The covering index is not an index on int alone.
+    assertFalse(t1.indexExists("covering", "int"));
+
+    // The records hold int, then float and bool.
+    List<Record> records = new ArrayList<Record>();
+    t1.lookupCovered("covering", Arrays.asList("int"), Arrays.asList(new IntDataBox(3)),
+                     null, null).forEachRemaining(records::add);
+    assertEquals(199, records.size());
+    List<DataBox> values = Arrays.asList(new IntDataBox(3), new FloatDataBox(-8),
+                                         new BoolDataBox(true));
+    assertTrue(records.contains(new Record(values)));
+    t1.end();
+
+    // The index and its included columns are found again when the database is reopened.
+    db.close();
+    db = new Database(this.filename);
+    t1 = db.beginTransaction();
+    records.clear();
+    t1.lookupCovered("covering", Arrays.asList("int"), Collections.<DataBox>emptyList(),
+                     new IntDataBox(1), new IntDataBox(2)).forEachRemaining(records::add);
+    assertEquals(400, records.size());
+    t1.end();
+  }
+
+  @Test
+  public void testIndexOnlyQuery() throws DatabaseException, QueryPlanException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "covering");
+    db.createCoveringIndex("covering", Arrays.asList("int", "float"), Arrays.asList("string"), false);
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 1000; i++) {
+      t1.addRecord("covering", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    QueryPlan query = t1.query("covering");
+    query.select("int", QueryPlan.PredicateOperator.GREATER_THAN, new IntDataBox(989));
+    query.project(Arrays.asList("string", "int"));
+    Iterator<Record> records = query.execute();
+
+    QueryOperator op = query.getFinalOperator();
+    assertEquals(QueryOperator.OperatorType.PROJECT, op.getType());
+    assertEquals(QueryOperator.OperatorType.INDEXONLYSCAN, op.getSource().getType());
+    for (int i = 990; i < 1000; i++) {
+      Record expected = new Record(Arrays.asList(new StringDataBox(String.format("%05d", i), 5),
+                                                 new IntDataBox(i)));
+      assertEquals(expected, records.next());
+    }
+    assertFalse(records.hasNext());
+
+    // A query on a column the index doesn't include has to read the table.
+    query = t1.query("covering");
+    query.select("int", QueryPlan.PredicateOperator.GREATER_THAN, new IntDataBox(989));
+    query.project(Arrays.asList("bool"));
+    query.execute();
+    assertEquals(QueryOperator.OperatorType.SEQSCAN,
+                 query.getFinalOperator().getSource().getSource().getType());
+    t1.end();
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void testCompositeIndexNeedsTwoColumns() throws DatabaseException {
+    db.createTable(TestUtils.createSchemaWithAllTypes(), "composite");
+    db.createCompositeIndex("composite", Arrays.asList("int"), true);
+  }
+
+  private static List<DataBox> compositeValues(int i, int f) {
+    return Arrays.asList(new BoolDataBox(true), new IntDataBox(i),
+                         new StringDataBox("s", 5), new FloatDataBox((float) f));
+  }
+
+  @Test
+  public void testWarm() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    List<RecordId> rids = new ArrayList<RecordId>();
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 4; i++) {
+      db.createTable(s, "table" + i);
+      rids.add(t1.addRecord("table" + i, input.getValues()));
+    }
+    t1.end();
+    db.close();
+
+    db = new Database(this.filename);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    db.warm(pool);
+    pool.shutdown();
+    long misses = db.getBufferPool().getMetrics().getMisses();
+    assertTrue(misses > 0);
+
+    t1 = db.beginTransaction();
+    for (int i = 0; i < 4; i++) {
+      assertEquals(input, t1.getRecord("table" + i, rids.get(i)));
+      assertEquals(1, db.getTable("table" + i).getNumRecords());
+    }
+    t1.end();
+  }
+
   @Test
   public void testAtomicTransactions1() throws DatabaseException {
     Schema s = TestUtils.createSchemaWithAllTypes();
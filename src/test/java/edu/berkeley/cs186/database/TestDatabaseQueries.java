@@ -16,6 +16,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
@@ -76,6 +77,22 @@ public class TestDatabaseQueries {
     assertEquals(1000, count);
   }
 
+  @Test
+  public void testExecuteStream() throws DatabaseException, QueryPlanException {
+    List<Record> expected = new ArrayList<Record>();
+    this.transaction.query("Students").execute().forEachRemaining(expected::add);
+
+    QueryPlan queryPlan = this.transaction.query("Students");
+    List<Record> actual = queryPlan.executeStream().parallel().collect(Collectors.toList());
+    assertEquals(expected, actual);
+
+    this.transaction.queryAs("Students", "S");
+    this.transaction.queryAs("Enrollments", "E");
+    queryPlan = this.transaction.query("S");
+    queryPlan.join("E", "S.sid", "E.sid");
+    assertEquals(1000, queryPlan.executeStream().parallel().count());
+  }
+
   private static void createSchemas() throws DatabaseException {
     List<String> studentSchemaNames = new ArrayList<String>();
     studentSchemaNames.add("sid");
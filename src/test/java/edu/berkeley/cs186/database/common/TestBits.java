@@ -139,4 +139,44 @@ public class TestBits {
       assertEquals(1, buf.position());
     }
   }
+
+  @Test
+  public void testFirstZeroBit() {
+    byte[] bytes = new byte[24];
+    java.util.Arrays.fill(bytes, (byte) 0xFF);
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    assertEquals(-1, Bits.firstZeroBit(buf, 0, 192));
+
+    // In the second long.
+    Bits.setBit(buf, 100, Bits.Bit.ZERO);
+    assertEquals(100, Bits.firstZeroBit(buf, 0, 192));
+    assertEquals(100, Bits.firstZeroBit(buf, 97, 192));
+    assertEquals(-1, Bits.firstZeroBit(buf, 101, 192));
+
+    // In the bytes after the last whole long, before and after numBits.
+    Bits.setBit(buf, 130, Bits.Bit.ZERO);
+    Bits.setBit(buf, 185, Bits.Bit.ZERO);
+    assertEquals(130, Bits.firstZeroBit(buf, 101, 184));
+    assertEquals(-1, Bits.firstZeroBit(buf, 131, 184));
+    assertEquals(185, Bits.firstZeroBit(buf, 131, 186));
+
+    // Bits are numbered from the position of the buffer.
+    buf.position(8);
+    assertEquals(36, Bits.firstZeroBit(buf, 0, 128));
+    assertEquals(8, buf.position());
+  }
+
+  @Test
+  public void testCountOnes() {
+    byte[] bytes = new byte[20];
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    assertEquals(0, Bits.countOnes(buf, 160));
+    for (int i : new int[] {0, 63, 64, 100, 150, 155}) {
+      Bits.setBit(buf, i, Bits.Bit.ONE);
+    }
+    assertEquals(6, Bits.countOnes(buf, 160));
+    assertEquals(5, Bits.countOnes(buf, 155));
+    assertEquals(2, Bits.countOnes(buf, 64));
+    assertEquals(1, Bits.countOnes(buf, 3));
+  }
 }
@@ -20,8 +20,10 @@ import org.junit.rules.Timeout;
 
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordId;
 
@@ -396,6 +398,163 @@ public class TestBPlusTree {
       }
     }
 
+    @Test
+    public void testNonUniquePuts() throws BPlusTreeException, IOException {
+      // With order 2 and only 10 distinct keys, runs of equal keys span many
+      // leaves and separator keys repeat.
+      BPlusTree tree = new BPlusTree(file.getAbsolutePath(), Type.intType(), 2, false,
+                                     BufferPool.getDefault());
+      List<Integer> rids = new ArrayList<>();
+      for (int i = 0; i < 500; ++i) {
+        rids.add(i);
+      }
+      Collections.shuffle(rids, new Random(42));
+      for (int i : rids) {
+        tree.put(new IntDataBox(i % 10), new RecordId(i, (short) 0));
+      }
+
+      for (int k = 0; k < 10; ++k) {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = k; i < 500; i += 10) {
+          expected.add(i);
+        }
+        assertEquals(expected, pageNums(tree.scanEqual(new IntDataBox(k))));
+        assertEquals(true, tree.get(new IntDataBox(k)).isPresent());
+        assertEquals(50 * (10 - k), iteratorToList(tree.scanGreaterEqual(new IntDataBox(k))).size());
+      }
+      assertEquals(Optional.empty(), tree.get(new IntDataBox(10)));
+
+      // Remove a single entry, and then every entry of a key.
+      tree.remove(new IntDataBox(3), new RecordId(253, (short) 0));
+      tree.remove(new IntDataBox(4), new RecordId(253, (short) 0));
+      tree.remove(new IntDataBox(5));
+      assertEquals(49, iteratorToList(tree.scanEqual(new IntDataBox(3))).size());
+      assertEquals(false, pageNums(tree.scanEqual(new IntDataBox(3))).contains(253));
+      assertEquals(50, iteratorToList(tree.scanEqual(new IntDataBox(4))).size());
+      assertEquals(Collections.emptyList(), iteratorToList(tree.scanEqual(new IntDataBox(5))));
+      assertEquals(449, iteratorToList(tree.scanAll()).size());
+
+      // The tree is still not unique once loaded from disk.
+      BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath());
+      assertEquals(false, fromDisk.isUnique());
+      fromDisk.put(new IntDataBox(3), new RecordId(253, (short) 0));
+      assertEquals(50, iteratorToList(fromDisk.scanEqual(new IntDataBox(3))).size());
+    }
+
+    @Test
+    public void testPayloads() throws BPlusTreeException, IOException {
+      BPlusTree tree = new BPlusTree(file.getAbsolutePath(), Type.intType(), Type.floatType(),
+                                     2, true, BufferPool.getDefault());
+      List<Integer> keys = new ArrayList<>();
+      for (int i = 0; i < 200; ++i) {
+        keys.add(i);
+      }
+      Collections.shuffle(keys, new Random(42));
+      for (int i : keys) {
+        tree.put(new IntDataBox(i), new RecordId(i, (short) 0), new FloatDataBox(i / 2f));
+      }
+      tree.remove(new IntDataBox(50));
+      tree.remove(new IntDataBox(51), new RecordId(51, (short) 0));
+
+      // The payloads of keys 45 to 55, without those we removed.
+      List<Pair<DataBox, DataBox>> expected = new ArrayList<>();
+      for (int i = 45; i <= 55; ++i) {
+        if (i != 50 && i != 51) {
+          expected.add(new Pair<>(new IntDataBox(i), new FloatDataBox(i / 2f)));
+        }
+      }
+      assertEquals(expected, iteratorToList(tree.scanPayloads(new IntDataBox(45),
+                                                              new IntDataBox(55))));
+      assertEquals(198, iteratorToList(tree.scanPayloads(null, null)).size());
+      assertEquals(3, iteratorToList(tree.scanPayloads(null, new IntDataBox(2))).size());
+      assertEquals(Optional.of(new RecordId(7, (short) 0)), tree.get(new IntDataBox(7)));
+
+      // The payload schema is stored in the header.
+      BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath());
+      assertEquals(Optional.of(Type.floatType()), fromDisk.getPayloadSchema());
+      assertEquals(expected, iteratorToList(fromDisk.scanPayloads(new IntDataBox(45),
+                                                                  new IntDataBox(55))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutWithoutPayload() throws BPlusTreeException, IOException {
+      BPlusTree tree = new BPlusTree(file.getAbsolutePath(), Type.intType(), Type.floatType(),
+                                     2, true, BufferPool.getDefault());
+      tree.put(new IntDataBox(0), new RecordId(0, (short) 0));
+    }
+
+    // Returns the sorted page numbers of rids.
+    private static List<Integer> pageNums(Iterator<RecordId> rids) {
+      List<Integer> pageNums = new ArrayList<>();
+      while (rids.hasNext()) {
+        pageNums.add(rids.next().getPageNum());
+      }
+      Collections.sort(pageNums);
+      return pageNums;
+    }
+
+    @Test
+    public void testConcurrentOperations() throws Exception {
+      // A small order makes for many splits, including of the root.
+      BPlusTree tree = getBPlusTree(Type.intType(), 2);
+      int numThreads = 8;
+      int numKeys = 500;
+
+      // Every thread puts its own keys, checking each with a get, while
+      // scanning the tree, and then removes every other key it put.
+      List<Thread> threads = new ArrayList<>();
+      List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+      for (int t = 0; t < numThreads; ++t) {
+        final int offset = t;
+        threads.add(new Thread(() -> {
+          try {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < numKeys; ++i) {
+              keys.add(i * numThreads + offset);
+            }
+            Collections.shuffle(keys, new Random(offset));
+            for (int k : keys) {
+              RecordId rid = new RecordId(k, (short) offset);
+              tree.put(new IntDataBox(k), rid);
+              assertEquals(Optional.of(rid), tree.get(new IntDataBox(k)));
+              if (k % 50 == 0) {
+                List<RecordId> scanned = iteratorToList(tree.scanGreaterEqual(new IntDataBox(k)));
+                for (int i = 1; i < scanned.size(); ++i) {
+                  assertEquals(true, scanned.get(i - 1).getPageNum() < scanned.get(i).getPageNum());
+                }
+              }
+            }
+            for (int k : keys) {
+              if (k % 2 == 0) {
+                tree.remove(new IntDataBox(k));
+              }
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        }));
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(Collections.emptyList(), errors);
+
+      List<RecordId> expected = new ArrayList<>();
+      for (int k = 0; k < numKeys * numThreads; ++k) {
+        if (k % 2 != 0) {
+          expected.add(new RecordId(k, (short) (k % numThreads)));
+        }
+      }
+      assertEquals(expected, iteratorToList(tree.scanAll()));
+      for (int k = 0; k < numKeys * numThreads; ++k) {
+        Optional<RecordId> rid = tree.get(new IntDataBox(k));
+        assertEquals(k % 2 != 0, rid.isPresent());
+      }
+    }
+
     @Test
     public void testMaxOrder() {
       // Note that this white box test depend critically on the implementation
@@ -0,0 +1,122 @@
+package edu.berkeley.cs186.database.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+
+public class TestCompositeKey {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static DataBox key(DataBox... values) {
+    return CompositeKey.encode(Arrays.asList(values));
+  }
+
+  @Test
+  public void testType() {
+    List<Type> types = Arrays.asList(Type.intType(), Type.stringType(3), Type.boolType());
+    assertEquals(Type.bytesType(8), CompositeKey.type(types));
+    assertEquals(Type.bytesType(8), key(new IntDataBox(0), new StringDataBox("abc", 3),
+                                        new BoolDataBox(true)).type());
+  }
+
+  @Test
+  public void testIntOrder() {
+    int[] ints = {Integer.MIN_VALUE, -100, -1, 0, 1, 100, Integer.MAX_VALUE};
+    for (int i = 0; i + 1 < ints.length; ++i) {
+      DataBox a = key(new IntDataBox(ints[i]));
+      DataBox b = key(new IntDataBox(ints[i + 1]));
+      assertTrue(a.compareTo(b) < 0);
+    }
+  }
+
+  @Test
+  public void testFloatOrder() {
+    float[] floats = {Float.NEGATIVE_INFINITY, -100.5f, -1f, -0.25f, 0f, 0.25f, 1f, 100.5f,
+                      Float.POSITIVE_INFINITY};
+    for (int i = 0; i + 1 < floats.length; ++i) {
+      DataBox a = key(new FloatDataBox(floats[i]));
+      DataBox b = key(new FloatDataBox(floats[i + 1]));
+      assertTrue(a.compareTo(b) < 0);
+    }
+  }
+
+  @Test
+  public void testColumnOrder() {
+    // The first column decides, then the second.
+    DataBox a = key(new IntDataBox(-1), new StringDataBox("zz", 2));
+    DataBox b = key(new IntDataBox(0), new StringDataBox("aa", 2));
+    DataBox c = key(new IntDataBox(0), new StringDataBox("ab", 2));
+    assertTrue(a.compareTo(b) < 0);
+    assertTrue(b.compareTo(c) < 0);
+  }
+
+  @Test
+  public void testDecode() {
+    List<Type> types = Arrays.asList(Type.boolType(), Type.intType(), Type.stringType(5),
+                                     Type.floatType());
+    List<DataBox> values = Arrays.asList(new BoolDataBox(true), new IntDataBox(-42),
+                                         new StringDataBox("hi", 5), new FloatDataBox(-1.5f));
+    assertEquals(values, CompositeKey.decode(CompositeKey.encode(values), types));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBoundWrongType() {
+    List<Type> types = Arrays.asList(Type.intType(), Type.intType());
+    CompositeKey.lowerBound(Arrays.asList(new FloatDataBox(0f)), types);
+  }
+
+  @Test
+  public void testPrefixScan() throws Exception {
+    File file = tempFolder.newFile("TestCompositeKey");
+    List<Type> types = Arrays.asList(Type.intType(), Type.intType());
+    BPlusTree tree = new BPlusTree(file.getAbsolutePath(), CompositeKey.type(types), 2);
+    for (int a = -5; a < 5; ++a) {
+      for (int b = -5; b < 5; ++b) {
+        tree.put(key(new IntDataBox(a), new IntDataBox(b)),
+                 new RecordId(a + 5, (short) (b + 5)));
+      }
+    }
+
+    // a = -1
+    List<DataBox> prefix = Arrays.asList(new IntDataBox(-1));
+    List<RecordId> expected = new ArrayList<>();
+    for (int b = -5; b < 5; ++b) {
+      expected.add(new RecordId(4, (short) (b + 5)));
+    }
+    assertEquals(expected, toList(tree.scanRange(CompositeKey.lowerBound(prefix, types),
+                                                 CompositeKey.upperBound(prefix, types))));
+
+    // a = 2 and b >= 3
+    List<DataBox> low = Arrays.asList(new IntDataBox(2), new IntDataBox(3));
+    List<DataBox> high = Arrays.asList(new IntDataBox(2));
+    expected = Arrays.asList(new RecordId(7, (short) 8), new RecordId(7, (short) 9));
+    assertEquals(expected, toList(tree.scanRange(CompositeKey.lowerBound(low, types),
+                                                 CompositeKey.upperBound(high, types))));
+  }
+
+  private static <T> List<T> toList(Iterator<T> iter) {
+    List<T> xs = new ArrayList<>();
+    while (iter.hasNext()) {
+      xs.add(iter.next());
+    }
+    return xs;
+  }
+}
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -395,4 +396,24 @@ public class TestInnerNode {
         assertEquals(inner, parsed);
       }
     }
+
+    @Test
+    public void testFromBytesIsCached() throws BPlusTreeException, IOException {
+      BPlusTreeMetadata meta = getBPlusTreeMetadata(Type.intType(), 2);
+      List<DataBox> keys = Arrays.asList(new IntDataBox(10));
+      List<Integer> children = Arrays.asList(leaf0, leaf1);
+      InnerNode node = new InnerNode(meta, keys, children);
+      int pageNum = node.getPage().getPageNum();
+      assertSame(node, InnerNode.fromBytes(meta, pageNum));
+
+      // Splitting leaf0 adds a key to node, which stays cached.
+      node.put(new IntDataBox(4), new RecordId(4, (short) 4));
+      node.put(new IntDataBox(5), new RecordId(5, (short) 5));
+      assertEquals(Arrays.asList(new IntDataBox(3), new IntDataBox(10)), node.getKeys());
+      assertSame(node, InnerNode.fromBytes(meta, pageNum));
+
+      // The page matches the cached node.
+      BPlusTreeMetadata uncached = getBPlusTreeMetadata(Type.intType(), 2);
+      assertEquals(node, InnerNode.fromBytes(uncached, pageNum));
+    }
 }
@@ -0,0 +1,273 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TestBufferPool {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testShardsNeverExceedFrames() {
+    BufferPool pool = new BufferPool(3, 16);
+    assertEquals(3, pool.getNumFrames());
+    assertEquals(2, pool.getNumShards());
+
+    pool = new BufferPool(1024, 5);
+    assertEquals(8, pool.getNumShards());
+  }
+
+  @Test(expected = PageException.class)
+  public void testNoFrames() {
+    new BufferPool(0);
+  }
+
+  @Test
+  public void testPoolBoundsCachedPages() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPool.temp");
+    BufferPool pool = new BufferPool(16, 4);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 100; i++) {
+      int pageNum = pa.allocPage();
+      pa.fetchPage(pageNum).writeInt(0, i);
+      assertTrue(pool.size() <= pool.getNumFrames());
+    }
+
+    // Evicted pages are reloaded from the file.
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pa.fetchPage(i).readInt(0));
+    }
+
+    pa.close();
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void testPoolsAreIsolated() throws IOException {
+    File f1 = tempFolder.newFile("TestBufferPool1.temp");
+    File f2 = tempFolder.newFile("TestBufferPool2.temp");
+    BufferPool pool1 = new BufferPool(8, 1);
+    BufferPool pool2 = new BufferPool(8, 1);
+    PageAllocator pa1 = new PageAllocator(f1.getAbsolutePath(), true, false, pool1);
+    PageAllocator pa2 = new PageAllocator(f2.getAbsolutePath(), true, false, pool2);
+
+    for (int i = 0; i < 4; i++) {
+      pa1.allocPage();
+    }
+    Page p = pa1.fetchPage(0);
+
+    // Filling the second pool never evicts pages of the first.
+    for (int i = 0; i < 50; i++) {
+      pa2.allocPage();
+    }
+    assertSame(p, pa1.fetchPage(0));
+    assertEquals(4, pool1.size());
+    assertEquals(8, pool2.size());
+
+    pa1.close();
+    assertEquals(0, pool1.size());
+    assertEquals(8, pool2.size());
+    pa2.close();
+  }
+
+  @Test
+  public void testPinnedPagesAreNotEvicted() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolPin.temp");
+    BufferPool pool = new BufferPool(4, 1);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 4; i++) {
+      pa.allocPage();
+    }
+    Page pinned = pa.fetchPage(0);
+    pinned.pin();
+    assertEquals(1, pool.getNumPinnedFrames());
+
+    for (int i = 4; i < 40; i++) {
+      pa.allocPage();
+      assertSame(pinned, pa.fetchPage(0));
+    }
+    assertEquals(4, pool.size());
+
+    pinned.unpin();
+    assertEquals(0, pool.getNumPinnedFrames());
+    pa.close();
+  }
+
+  @Test
+  public void testPoolOverflowsWhenAllFramesPinned() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolOverflow.temp");
+    BufferPool pool = new BufferPool(2, 1);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    Page[] pages = new Page[4];
+    for (int i = 0; i < 4; i++) {
+      pages[i] = pa.fetchPage(pa.allocPage());
+      pages[i].pin();
+    }
+    assertEquals(4, pool.size());
+
+    for (Page p : pages) {
+      p.unpin();
+    }
+    pa.fetchPage(pa.allocPage());
+    assertEquals(2, pool.size());
+    pa.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void testUnpinUnpinnedPage() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolUnpin.temp");
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(2));
+    pa.fetchPage(pa.allocPage()).unpin();
+  }
+
+  @Test
+  public void testTwoQResistsScans() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolTwoQ.temp");
+    BufferPool pool = new BufferPool(8, 1, BufferPool.ReplacementPolicy.TWO_Q);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 10; i++) {
+      pa.allocPage();
+    }
+
+    // Page 0 was recently evicted from probation, so fetching it again admits
+    // it to the main queue.
+    Page hot = pa.fetchPage(0);
+    for (int i = 10; i < 100; i++) {
+      pa.allocPage();
+    }
+
+    PageAllocator.PageIterator iter = pa.iterator();
+    while (iter.hasNext()) {
+      iter.next();
+    }
+    assertSame(hot, pa.fetchPage(0));
+    assertTrue(pool.size() <= pool.getNumFrames());
+    pa.close();
+  }
+
+  @Test
+  public void testSequentialAllocator() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolSequential.temp");
+    File scanFile = tempFolder.newFile("TestBufferPoolScan.temp");
+    BufferPool pool = new BufferPool(8, 1, BufferPool.ReplacementPolicy.CLOCK);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    PageAllocator scan = new PageAllocator(scanFile.getAbsolutePath(), true, false, pool);
+    scan.setSequential(true);
+    assertTrue(scan.isSequential());
+
+    for (int i = 0; i < 4; i++) {
+      pa.allocPage();
+    }
+    Page[] hot = new Page[4];
+    for (int i = 0; i < 4; i++) {
+      hot[i] = pa.fetchPage(i);
+    }
+
+    // Pages of the sequential allocator are never referenced, so the CLOCK
+    // hand always finds one of them before any of the hot pages.
+    for (int i = 0; i < 100; i++) {
+      scan.allocPage();
+      for (int j = 0; j < 4; j++) {
+        assertSame(hot[j], pa.fetchPage(j));
+      }
+    }
+    pa.close();
+    scan.close();
+  }
+
+  @Test
+  public void testPageWriter() throws IOException, InterruptedException {
+    File tempFile = tempFolder.newFile("TestBufferPoolWriter.temp");
+    BufferPool pool = new BufferPool(16, 1);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, true, pool,
+                                         PageAllocator.Backend.POSITIONAL);
+    for (int i = 0; i < 8; i++) {
+      pa.fetchPage(pa.allocPage()).writeInt(0, i);
+    }
+    Page pinned = pa.fetchPage(0);
+    pinned.pin();
+    assertEquals(8, pool.getNumDirtyFrames());
+
+    assertEquals(7, pool.writeDirtyPages());
+    assertEquals(1, pool.getNumDirtyFrames());
+
+    pinned.unpin();
+    pool.startPageWriter(1);
+    for (int i = 0; i < 1000 && pool.getNumDirtyFrames() > 0; i++) {
+      Thread.sleep(5);
+    }
+    assertEquals(0, pool.getNumDirtyFrames());
+    pool.close();
+    pa.close();
+  }
+
+  @Test
+  public void testCleanPagesAreEvictedFirst() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolClean.temp");
+    BufferPool pool = new BufferPool(4, 1, BufferPool.ReplacementPolicy.CLOCK);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool,
+                                         PageAllocator.Backend.POSITIONAL);
+    for (int i = 0; i < 4; i++) {
+      pa.allocPage();
+    }
+    pool.writeDirtyPages();
+    Page dirty = pa.fetchPage(0);
+    dirty.writeInt(0, 42);
+
+    // Every new page takes the frame of a clean page, so the dirty page is
+    // never written back.
+    for (int i = 0; i < 3; i++) {
+      pa.allocPage();
+      assertTrue(dirty.isDirty());
+    }
+    assertEquals(4, pool.getNumDirtyFrames());
+
+    // Once every frame is dirty, a dirty page is written back and evicted.
+    pa.allocPage();
+    assertEquals(4, pool.size());
+    assertEquals(42, pa.fetchPage(0).readInt(0));
+    pa.close();
+  }
+
+  @Test
+  public void testPinnedPositionalPageKeepsItsBuffer() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolPinned.temp");
+    BufferPool pool = new BufferPool(2, 1);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool,
+                                         PageAllocator.Backend.POSITIONAL);
+    Page pinned = pa.fetchPage(pa.allocPage());
+    pinned.pin();
+    java.nio.ByteBuffer buf = pinned.getByteBuffer();
+    for (int i = 1; i < 10; i++) {
+      pa.fetchPage(pa.allocPage()).writeInt(0, i);
+    }
+
+    // The pinned page was never evicted, so its buffer was not handed to
+    // another page.
+    buf.putInt(0, 1000);
+    pinned.markDirty();
+    for (int i = 1; i < 10; i++) {
+      assertEquals(i, pa.fetchPage(i).readInt(0));
+    }
+    assertEquals(1000, pinned.readInt(0));
+    pinned.unpin();
+    pa.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void testUnpinnedPositionalBuffer() throws IOException {
+    File tempFile = tempFolder.newFile("TestBufferPoolUnpinned.temp");
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(2),
+                                         PageAllocator.Backend.POSITIONAL);
+    pa.fetchPage(pa.allocPage()).getByteBuffer();
+  }
+}
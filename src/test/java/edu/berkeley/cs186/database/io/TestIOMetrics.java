@@ -0,0 +1,139 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class TestIOMetrics {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testHitsMissesAndEvictions() throws IOException {
+    File f1 = tempFolder.newFile("TestIOMetrics1.temp");
+    File f2 = tempFolder.newFile("TestIOMetrics2.temp");
+    BufferPool pool = new BufferPool(8, 1);
+    PageAllocator pa1 = new PageAllocator(f1.getAbsolutePath(), true, false, pool);
+    PageAllocator pa2 = new PageAllocator(f2.getAbsolutePath(), true, false, pool);
+
+    // Allocating a page loads it.
+    for (int i = 0; i < 4; i++) {
+      pa1.allocPage();
+    }
+    assertEquals(4, pa1.getMetrics().getMisses());
+    assertEquals(0, pa1.getMetrics().getHits());
+
+    for (int i = 0; i < 4; i++) {
+      pa1.fetchPage(i);
+    }
+    assertEquals(4, pa1.getMetrics().getHits());
+    assertEquals(0.5, pa1.getMetrics().getHitRatio(), 1e-9);
+
+    // Filling the pool from the second file evicts the pages of the first.
+    for (int i = 0; i < 20; i++) {
+      pa2.allocPage();
+    }
+    assertEquals(20, pa2.getMetrics().getMisses());
+    assertEquals(16, pool.getMetrics().getEvictions());
+    assertEquals(pa1.getMetrics().getEvictions() + pa2.getMetrics().getEvictions(),
+                 pool.getMetrics().getEvictions());
+    assertEquals(24, pool.getMetrics().getMisses());
+    assertEquals(4, pool.getMetrics().getHits());
+
+    pa1.getMetrics().reset();
+    assertEquals(0, pa1.getMetrics().getMisses());
+    assertEquals(24, pool.getMetrics().getMisses());
+
+    pa1.close();
+    pa2.close();
+  }
+
+  @Test
+  public void testAllocationLatencies() throws IOException {
+    File tempFile = tempFolder.newFile("TestIOMetricsAlloc.temp");
+    BufferPool pool = new BufferPool(8, 1);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    for (int i = 0; i < 10; i++) {
+      pa.allocPage();
+    }
+
+    assertEquals(10, pa.getMetrics().getAllocations());
+    assertTrue(pa.getMetrics().getMeanAllocLatencyNanos() > 0);
+    long total = 0;
+    for (long count : pa.getMetrics().getAllocLatencyHistogram()) {
+      total += count;
+    }
+    assertEquals(10, total);
+    assertEquals(10, pool.getMetrics().getAllocations());
+    pa.close();
+  }
+
+  @Test
+  public void testDirtyFlushesAndPinnedFrames() throws IOException {
+    File tempFile = tempFolder.newFile("TestIOMetricsDirty.temp");
+    BufferPool pool = new BufferPool(8, 1);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool,
+                                         PageAllocator.Backend.POSITIONAL);
+    for (int i = 0; i < 4; i++) {
+      pa.fetchPage(pa.allocPage()).writeInt(0, i);
+    }
+    Page pinned = pa.fetchPage(0);
+    pinned.pin();
+    assertEquals(1, pa.getMetrics().getNumPinnedFrames());
+    assertEquals(1, pool.getMetrics().getNumPinnedFrames());
+
+    assertEquals(3, pool.writeDirtyPages());
+    assertEquals(3, pa.getMetrics().getDirtyFlushes());
+
+    // Flushing a clean page writes nothing.
+    pa.fetchPage(1).flush();
+    assertEquals(3, pa.getMetrics().getDirtyFlushes());
+
+    pinned.unpin();
+    assertEquals(0, pa.getMetrics().getNumPinnedFrames());
+    pa.close();
+    assertEquals(4, pool.getMetrics().getDirtyFlushes());
+  }
+
+  @Test
+  public void testMBeans() throws IOException, JMException {
+    File tempFile = tempFolder.newFile("TestIOMetricsMBean.temp");
+    BufferPool pool = new BufferPool(8, 1);
+    PageAllocator pa = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    pool.registerMBeans("TestIOMetricsPool");
+    pa.allocPage();
+    pa.fetchPage(0);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName poolName = pool.getMetrics().getObjectName();
+    ObjectName fileName = pa.getMetrics().getObjectName();
+    assertEquals(new ObjectName(IOMetrics.JMX_DOMAIN + ":type=BufferPool,name="
+                                + ObjectName.quote("TestIOMetricsPool")), poolName);
+    assertNotNull(fileName);
+    assertEquals(1L, server.getAttribute(poolName, "Hits"));
+    assertEquals(1L, server.getAttribute(fileName, "Misses"));
+
+    // PageAllocators opened after registration are registered too.
+    File other = tempFolder.newFile("TestIOMetricsMBean2.temp");
+    PageAllocator pa2 = new PageAllocator(other.getAbsolutePath(), true, false, pool);
+    ObjectName otherName = pa2.getMetrics().getObjectName();
+    assertTrue(server.isRegistered(otherName));
+
+    // Closing a PageAllocator unregisters it; closing the pool unregisters the rest.
+    pa2.close();
+    assertFalse(server.isRegistered(otherName));
+    assertTrue(server.isRegistered(fileName));
+    pool.close();
+    assertFalse(server.isRegistered(poolName));
+    assertFalse(server.isRegistered(fileName));
+    pa.close();
+  }
+}
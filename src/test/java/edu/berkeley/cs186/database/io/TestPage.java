@@ -141,4 +141,33 @@ public class TestPage {
     fc.close();
   }
 
+
+  @Test
+  public void TestPageDirtyBit() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    assertFalse(p.isDirty());
+
+    p.readBytes();
+    p.getReadOnlyByteBuffer().get();
+    assertFalse(p.isDirty());
+
+    p.writeByte(0, (byte) 1);
+    assertTrue(p.isDirty());
+    p.flush();
+    assertFalse(p.isDirty());
+
+    p.writeInt(4, 7);
+    assertTrue(p.isDirty());
+    p.flush();
+
+    p.getByteBuffer().putInt(8, 9);
+    assertFalse(p.isDirty());
+    p.markDirty();
+    assertTrue(p.isDirty());
+    p.flush();
+    assertFalse(p.isDirty());
+    assertEquals(7, p.getReadOnlyByteBuffer().getInt(4));
+  }
 }
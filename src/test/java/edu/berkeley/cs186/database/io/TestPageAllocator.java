@@ -438,4 +438,202 @@ public class TestPageAllocator {
   }
 
 
+
+  @Test
+  public void TestPageAllocatorFreePageAcrossHeaders() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    for (int i = 0; i < Page.pageSize + 10; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+
+    // Freeing pages of the full first header makes it the first with space.
+    assertTrue(pA.freePage(17));
+    assertTrue(pA.freePage(5));
+    assertFalse(pA.freePage(5));
+    assertEquals(5, pA.allocPage());
+    assertEquals(17, pA.allocPage());
+    assertEquals(Page.pageSize + 10, pA.allocPage());
+
+    assertTrue(pA.freePage(Page.pageSize + 3));
+    pA.close();
+
+    // The free page map is rebuilt from the header pages when reopened.
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(Page.pageSize + 10, pA.getNumPages());
+    assertEquals(Page.pageSize + 3, pA.allocPage());
+    assertEquals(Page.pageSize + 11, pA.allocPage());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorGroupCommit() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true);
+    pA.enableGroupCommit(0);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertTrue(pA.freePage(42));
+    pA.sync();
+
+    pA.enableGroupCommit(1);
+    for (int i = 0; i < 10; i++) {
+      pA.allocPage();
+    }
+    pA.disableGroupCommit();
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true);
+    assertEquals(109, pA.getNumPages());
+    assertEquals(109, pA.allocPage());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorRepairsHeaderCounts() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    for (int i = 0; i < 10; i++) {
+      pA.allocPage();
+    }
+    pA.close();
+
+    // Simulate a crash that persisted the header page but not the master page.
+    RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+    raf.writeInt(3);
+    raf.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(10, pA.getNumPages());
+    assertEquals(10, pA.allocPage());
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    ByteBuffer bb = ByteBuffer.allocate(4);
+    fc.read(bb, 0);
+    bb.flip();
+    assertEquals(11, bb.getInt());
+    fc.close();
+  }
+
+  @Test
+  public void TestPageAllocatorSegmentsDoNotGrowFile() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    // Enough pages that reopening maps them as views of a segment.
+    int numPages = 600;
+    for (int i = 0; i < numPages; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, i);
+    }
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    for (int i = 0; i < numPages; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    pA.fetchPage(numPages - 1).writeInt(4, 42);
+    assertEquals(numPages, pA.allocPage());
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    assertEquals(byteEstimate(numPages + 1), fc.size());
+    fc.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(42, pA.fetchPage(numPages - 1).readInt(4));
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorPositionalBackend() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(8, 1);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool,
+                                         PageAllocator.Backend.POSITIONAL);
+    assertEquals(PageAllocator.Backend.POSITIONAL, pA.getBackend());
+
+    Page first = pA.fetchPage(pA.allocPage());
+    for (int i = 1; i < 100; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, i);
+    }
+
+    // first was evicted long ago; using it reads it back in.
+    first.writeInt(0, 1000);
+    assertSame(first, pA.fetchPage(0));
+    // Clean pages are evicted before dirty ones; write first back so that
+    // reading the other pages evicts it again.
+    pool.writeDirtyPages();
+    for (int i = 1; i < 100; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    // Fetching an evicted page reads it back in without dirtying it.
+    assertSame(first, pA.fetchPage(0));
+    assertFalse(first.isDirty());
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    assertEquals(byteEstimate(100), fc.size());
+    fc.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(1000, pA.fetchPage(0).readInt(0));
+    for (int i = 1; i < 100; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorReadAhead()
+      throws IOException, FileNotFoundException, InterruptedException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    for (int i = 0; i < 40; i++) {
+      pA.fetchPage(pA.allocPage()).writeInt(0, i);
+    }
+    pA.close();
+
+    // With read-ahead disabled, the iterator only loads the pages it returns.
+    BufferPool pool = new BufferPool(64, 1);
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, pool,
+                           PageAllocator.Backend.POSITIONAL);
+    pA.setReadAhead(0);
+    assertEquals(0, pA.getReadAhead());
+    PageAllocator.PageIterator iter = pA.iterator();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, iter.next().readInt(0));
+    }
+    Thread.sleep(20);
+    assertEquals(3, pool.size());
+    pA.close();
+
+    // Otherwise the next pages are loaded in the background after two sequential fetches.
+    pool = new BufferPool(64, 1);
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, pool,
+                           PageAllocator.Backend.POSITIONAL);
+    assertEquals(PageAllocator.DEFAULT_READ_AHEAD, pA.getReadAhead());
+    iter = pA.iterator();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, iter.next().readInt(0));
+    }
+    for (int i = 0; i < 1000 && pool.size() < 10; i++) {
+      Thread.sleep(5);
+    }
+    assertTrue(pool.size() >= 10);
+
+    int count = 3;
+    while (iter.hasNext()) {
+      assertEquals(count, iter.next().readInt(0));
+      count++;
+    }
+    assertEquals(40, count);
+    pool.close();
+    pA.close();
+  }
 }
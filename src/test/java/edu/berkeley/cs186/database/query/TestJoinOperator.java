@@ -164,6 +164,20 @@ public class TestJoinOperator {
     assertEquals(100*100, numRecords);
   }
 
+  @Test(timeout=5000)
+  public void testAbandonedBNLJHoldsNoPins() throws QueryPlanException, DatabaseException, IOException {
+    TestSourceOperator sourceOperator = new TestSourceOperator();
+    File tempDir = tempFolder.newFolder("joinTest");
+    Database database = new Database(tempDir.getAbsolutePath());
+    Database.Transaction transaction = database.beginTransaction();
+    JoinOperator joinOperator = new BNLJOperator(sourceOperator, sourceOperator, "int", "int", transaction);
+
+    Iterator<Record> outputIterator = joinOperator.iterator();
+    assertTrue(outputIterator.hasNext());
+    outputIterator.next();
+    assertEquals(0, database.getBufferPool().getNumPinnedFrames());
+  }
+
 
 
 
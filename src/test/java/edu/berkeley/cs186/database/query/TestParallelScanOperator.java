@@ -0,0 +1,142 @@
+package edu.berkeley.cs186.database.query;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.table.Record;
+
+public class TestParallelScanOperator {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Database db;
+  private Database.Transaction transaction;
+  private ForkJoinPool pool;
+  private int numRecords;
+
+  @Before
+  public void beforeEach() throws Exception {
+    File tempDir = tempFolder.newFolder("parallelScanTest");
+    this.db = new Database(tempDir.getAbsolutePath());
+    this.db.createTable(TestUtils.createSchemaWithAllTypes(), "table");
+    this.transaction = this.db.beginTransaction();
+    // Enough pages for several morsels, the last one partial.
+    this.numRecords = 288 * (ParallelScanOperator.MORSEL_SIZE * 5 + 3) + 7;
+    List<List<DataBox>> values = new ArrayList<>();
+    for (int i = 0; i < this.numRecords; i++) {
+      values.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    this.transaction.addRecords("table", values.iterator());
+    this.pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void afterEach() {
+    this.pool.shutdown();
+    this.transaction.end();
+    this.db.close();
+  }
+
+  @Test
+  public void testScanReturnsEveryRecord() throws Exception {
+    ParallelScanOperator scan = new ParallelScanOperator(this.transaction, "table", this.pool);
+    assertEquals(this.transaction.getNumDataPages("table"), scan.getIOCost());
+
+    Set<Record> expected = new HashSet<>();
+    Iterator<Record> records = this.transaction.getRecordIterator("table");
+    while (records.hasNext()) {
+      expected.add(records.next());
+    }
+    Set<Record> actual = new HashSet<>();
+    Iterator<Record> iter = scan.iterator();
+    while (iter.hasNext()) {
+      assertTrue(actual.add(iter.next()));
+    }
+    assertEquals(this.numRecords, expected.size());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testScanIsInTableOrder() throws Exception {
+    ParallelScanOperator scan = new ParallelScanOperator(this.transaction, "table", this.pool);
+    Iterator<Record> expected = this.transaction.getRecordIterator("table");
+    Iterator<Record> actual = scan.iterator();
+    while (expected.hasNext()) {
+      assertTrue(actual.hasNext());
+      assertEquals(expected.next(), actual.next());
+    }
+    assertFalse(actual.hasNext());
+  }
+
+  @Test
+  public void testNaivePlanScansInParallel() throws Exception {
+    QueryPlan query = this.transaction.query("table");
+    Iterator<Record> actual = query.execute();
+    assertEquals(QueryOperator.OperatorType.PARALLELSCAN, query.getFinalOperator().getType());
+    Iterator<Record> expected = this.transaction.getRecordIterator("table");
+    while (expected.hasNext()) {
+      assertEquals(expected.next(), actual.next());
+    }
+    assertFalse(actual.hasNext());
+  }
+
+  @Test
+  public void testAbandonedScanStopsWorkers() throws Exception {
+    ParallelScanOperator scan = new ParallelScanOperator(this.transaction, "table", this.pool);
+    Iterator<Record> iter = scan.iterator();
+    assertTrue(iter.hasNext());
+    iter.next();
+    // Dropping the iterator without closing it only leaves the morsels that
+    // were scanned ahead for the pool to finish.
+    iter = null;
+    assertTrue(this.pool.awaitQuiescence(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testScanWithPredicate() throws Exception {
+    ParallelScanOperator scan = new ParallelScanOperator(
+        this.transaction, "table", "int", QueryPlan.PredicateOperator.LESS_THAN,
+        new IntDataBox(1000), this.pool);
+
+    Set<Record> actual = new HashSet<>();
+    Iterator<Record> iter = scan.iterator();
+    while (iter.hasNext()) {
+      actual.add(iter.next());
+    }
+    assertEquals(1000, actual.size());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(actual.contains(TestUtils.createRecordWithAllTypesWithValue(i)));
+    }
+  }
+
+  @Test
+  public void testCloseStopsWorkers() throws Exception {
+    ParallelScanOperator scan = new ParallelScanOperator(this.transaction, "table", this.pool);
+    ParallelScanOperator.ParallelScanIterator iter =
+        (ParallelScanOperator.ParallelScanIterator) scan.iterator();
+    assertTrue(iter.hasNext());
+    iter.next();
+    iter.close();
+    assertFalse(iter.hasNext());
+    // The morsels that were not started yet are cancelled.
+    assertTrue(this.pool.awaitQuiescence(10, TimeUnit.SECONDS));
+  }
+}
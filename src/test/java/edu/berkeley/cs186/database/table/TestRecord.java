@@ -2,17 +2,21 @@ package edu.berkeley.cs186.database.table;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Comparator;
 
 import org.junit.Test;
 
 import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 
 public class TestRecord {
   @Test
@@ -64,4 +68,39 @@ public class TestRecord {
     assertNotEquals(c, b);
     assertEquals(c, c);
   }
+
+  @Test
+  public void testPrimitiveAccessors() {
+    Record r = new Record(Arrays.asList(new BoolDataBox(true), new IntDataBox(42),
+                                        new FloatDataBox(1.5f)));
+    assertTrue(r.getBool(0));
+    assertEquals(42, r.getInt(1));
+    assertEquals(1.5f, r.getFloat(2), 0.0f);
+    assertEquals(0, r.compareInt(1, 42));
+    assertTrue(r.compareInt(1, 43) < 0);
+    assertTrue(r.compareInt(1, 41) > 0);
+    assertTrue(r.compareFloat(2, 1.0f) > 0);
+  }
+
+  @Test(expected = DataBoxException.class)
+  public void testPrimitiveAccessorWrongType() {
+    new Record(Arrays.asList(new BoolDataBox(true))).getInt(0);
+  }
+
+  @Test
+  public void testComparingFields() {
+    Record a = new Record(Arrays.asList(new IntDataBox(1), new StringDataBox("b", 1)));
+    Record b = new Record(Arrays.asList(new IntDataBox(2), new StringDataBox("a", 1)));
+
+    Comparator<Record> byInt = Record.comparingField(TypeId.INT, 0);
+    Comparator<Record> byString = Record.comparingField(TypeId.STRING, 1);
+    assertTrue(byInt.compare(a, b) < 0);
+    assertTrue(byString.compare(a, b) > 0);
+    assertEquals(0, byInt.compare(a, a));
+
+    // Field 0 of the first record against field 0 of the second, which is
+    // stored at index 1 here.
+    Record c = new Record(Arrays.asList(new StringDataBox("x", 1), new IntDataBox(1)));
+    assertEquals(0, Record.comparingFields(TypeId.INT, 0, 1).compare(a, c));
+  }
 }
@@ -0,0 +1,141 @@
+package edu.berkeley.cs186.database.table;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+public class TestRecordView {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static RecordView viewOf(Record r, Schema s) {
+    // Put the record at a non-zero offset to make sure the view honors it.
+    ByteBuffer buf = ByteBuffer.allocate(3 + s.getSizeInBytes());
+    buf.position(3);
+    buf.put(r.toBytes(s));
+    return new RecordView(s).moveTo(buf, 3);
+  }
+
+  @Test
+  public void testFields() {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record r = TestUtils.createRecordWithAllTypes();
+    RecordView v = viewOf(r, s);
+
+    assertTrue(v.getBool(0));
+    assertEquals(1, v.getInt(1));
+    assertEquals(1.2f, v.getFloat(3), 0.0f);
+    assertEquals(0, v.compareInt(1, 1));
+    assertTrue(v.compareInt(1, 2) < 0);
+    assertTrue(v.compareFloat(3, 1.0f) > 0);
+    for (int i = 0; i < 4; ++i) {
+      assertEquals(r.getValues().get(i), v.get(i));
+    }
+    assertEquals(r, v.toRecord());
+    assertEquals(new Record(Arrays.asList(r.getValues().get(2), r.getValues().get(1))),
+                 v.project(Arrays.asList(2, 1)));
+  }
+
+  @Test(expected = DataBoxException.class)
+  public void testWrongType() {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    viewOf(TestUtils.createRecordWithAllTypes(), s).getInt(0);
+  }
+
+  @Test
+  public void testCompareToMatchesDataBoxes() {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    RecordView v = viewOf(TestUtils.createRecordWithAllTypesWithValue(42), s);
+
+    List<List<DataBox>> probes = new ArrayList<List<DataBox>>();
+    probes.add(Arrays.asList(new BoolDataBox(false), new BoolDataBox(true)));
+    probes.add(Arrays.asList(new IntDataBox(41), new IntDataBox(42), new IntDataBox(43)));
+    probes.add(Arrays.asList(new StringDataBox("00041", 5), new StringDataBox("00042", 5),
+                             new StringDataBox("1", 5)));
+    probes.add(Arrays.asList(new FloatDataBox(41.5f), new FloatDataBox(42f),
+                             new FloatDataBox(43f)));
+    for (int i = 0; i < 4; ++i) {
+      for (DataBox d : probes.get(i)) {
+        assertEquals(Integer.signum(v.get(i).compareTo(d)), Integer.signum(v.compareTo(i, d)));
+        assertEquals(v.get(i).equals(d), v.fieldEquals(i, d));
+      }
+    }
+
+    // Values of another type are never equal, and can't be compared.
+    assertFalse(v.fieldEquals(1, new FloatDataBox(42f)));
+    assertFalse(v.fieldEquals(2, new StringDataBox("00042", 6)));
+    try {
+      v.compareTo(1, new FloatDataBox(42f));
+      fail();
+    } catch (DataBoxException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testCompareStringsOfOtherLengths() {
+    Schema s = new Schema(Arrays.asList("name"), Arrays.asList(Type.stringType(10)));
+    Record r = new Record(Arrays.asList(new StringDataBox("alice", 10)));
+    RecordView v = viewOf(r, s);
+
+    List<DataBox> probes = Arrays.asList(
+        new StringDataBox("bob", 3), new StringDataBox("alice", 5),
+        new StringDataBox("alice", 12), new StringDataBox("alice", 10),
+        new StringDataBox("al", 2));
+    for (DataBox d : probes) {
+      assertEquals(Integer.signum(r.getValues().get(0).compareTo(d)),
+                   Integer.signum(v.compareTo(0, d)));
+      assertEquals(r.getValues().get(0).equals(d), v.fieldEquals(0, d));
+    }
+    assertEquals(-1, v.compareTo(0, new StringDataBox("bob", 3)));
+  }
+
+  @Test
+  public void testTableViewIterator() throws Exception {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    File file = tempFolder.newFile("TestRecordView" + Table.FILENAME_EXTENSION);
+    Table table = new Table("TestRecordView", s, file.getAbsolutePath());
+
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; ++i) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    // Leave holes in the middle of pages.
+    for (int i = 0; i < 1000; i += 3) {
+      table.deleteRecord(rids.get(i));
+    }
+
+    Iterator<Record> records = table.iterator();
+    Iterator<RecordView> views = table.viewIterator();
+    int count = 0;
+    while (records.hasNext()) {
+      assertTrue(views.hasNext());
+      RecordView v = views.next();
+      Record r = records.next();
+      assertEquals(r, v.toRecord());
+      assertEquals(r, table.getRecord(v.getRecordId()));
+      count++;
+    }
+    assertFalse(views.hasNext());
+    assertEquals(table.getNumRecords(), count);
+    table.close();
+  }
+}
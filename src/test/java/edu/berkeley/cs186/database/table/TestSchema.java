@@ -11,12 +11,14 @@ import java.util.List;
 import org.junit.Test;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.databox.BoolDataBox;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 
 public class TestSchema {
   @Test
@@ -44,6 +46,19 @@ public class TestSchema {
     }
   }
 
+  @Test
+  public void testFieldOffsets() {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    assertEquals(0, s.getFieldOffset(0));
+    assertEquals(1, s.getFieldOffset(1));
+    assertEquals(5, s.getFieldOffset(2));
+    assertEquals(10, s.getFieldOffset(3));
+    assertEquals(TypeId.BOOL, s.getTypeId(0));
+    assertEquals(TypeId.INT, s.getTypeId(1));
+    assertEquals(TypeId.STRING, s.getTypeId(2));
+    assertEquals(TypeId.FLOAT, s.getTypeId(3));
+  }
+
   @Test
   public void testVerifyValidRecords() {
     try {
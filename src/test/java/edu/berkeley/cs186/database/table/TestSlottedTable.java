@@ -0,0 +1,209 @@
+package edu.berkeley.cs186.database.table;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
+
+public class TestSlottedTable {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Schema schema;
+  private BufferPool pool;
+
+  @Before
+  public void beforeEach() {
+    this.schema = new Schema(Arrays.asList("id", "name"),
+                             Arrays.asList(Type.intType(), Type.stringType(255)));
+    this.pool = new BufferPool(64, 1);
+  }
+
+  private Table createTable(String name, PageFormat format) throws Exception {
+    File file = tempFolder.newFile(name + Table.FILENAME_EXTENSION);
+    return new Table(name, schema, file.getAbsolutePath(), pool, format);
+  }
+
+  private static List<DataBox> values(int id, String name) {
+    return Arrays.asList(new IntDataBox(id), new StringDataBox(name, 255));
+  }
+
+  @Test
+  public void testShortStringsTakeFewerPages() throws Exception {
+    Table bitmap = createTable("bitmap", PageFormat.BITMAP);
+    Table slotted = createTable("slotted", PageFormat.SLOTTED);
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; ++i) {
+      bitmap.addRecord(values(i, "name" + i));
+      rids.add(slotted.addRecord(values(i, "name" + i)));
+    }
+
+    assertEquals(1000, slotted.getNumRecords());
+    assertTrue(slotted.getNumDataPages() * 10 < bitmap.getNumDataPages());
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(new Record(values(i, "name" + i)), slotted.getRecord(rids.get(i)));
+    }
+    bitmap.close();
+    slotted.close();
+  }
+
+  @Test
+  public void testDeleteAndUpdate() throws Exception {
+    Table table = createTable("t", PageFormat.SLOTTED);
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 500; ++i) {
+      rids.add(table.addRecord(values(i, "n" + i)));
+    }
+    for (int i = 0; i < 500; i += 2) {
+      table.deleteRecord(rids.get(i));
+    }
+    // Growing records forces pages to be compacted.
+    for (int i = 1; i < 500; i += 2) {
+      table.updateRecord(values(i, "longer" + i), rids.get(i));
+    }
+    // Inserts reuse the freed slots.
+    RecordId rid = table.addRecord(values(-1, "x"));
+    assertEquals(rids.get(0), rid);
+
+    assertEquals(new Record(values(-1, "x")), table.getRecord(rid));
+    for (int i = 1; i < 500; i += 2) {
+      assertEquals(new Record(values(i, "longer" + i)), table.getRecord(rids.get(i)));
+    }
+    try {
+      table.getRecord(rids.get(2));
+      fail();
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+
+    Iterator<Record> records = table.iterator();
+    Iterator<RecordView> views = table.viewIterator();
+    int count = 0;
+    while (records.hasNext()) {
+      Record r = records.next();
+      RecordView v = views.next();
+      assertEquals(r, v.toRecord());
+      assertEquals(r, table.getRecord(v.getRecordId()));
+      count++;
+    }
+    assertFalse(views.hasNext());
+    assertEquals(251, count);
+    assertEquals(251, table.getNumRecords());
+    table.close();
+  }
+
+  @Test
+  public void testUpdateThatDoesNotFit() throws Exception {
+    Table table = createTable("t", PageFormat.SLOTTED);
+    char[] chars = new char[255];
+    Arrays.fill(chars, 'z');
+    String longName = new String(chars);
+    List<RecordId> rids = new ArrayList<RecordId>();
+    do {
+      rids.add(table.addRecord(values(rids.size(), longName)));
+    } while (table.getNumDataPages() == 1);
+
+    RecordId first = rids.get(0);
+    table.updateRecord(values(0, "short"), first);
+    // Fill the space the update freed.
+    table.addRecord(values(-1, longName.substring(0, 200)));
+    try {
+      table.updateRecord(values(0, longName), first);
+      fail();
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+    assertEquals(new Record(values(0, "short")), table.getRecord(first));
+    table.close();
+  }
+
+  @Test
+  public void testRecordLargerThanAPage() throws Exception {
+    Schema wide = new Schema(Arrays.asList("id", "name"),
+                             Arrays.asList(Type.intType(), Type.stringType(5000)));
+    File file = tempFolder.newFile("wide" + Table.FILENAME_EXTENSION);
+    Table table = new Table("wide", wide, file.getAbsolutePath(), pool, PageFormat.SLOTTED);
+    char[] chars = new char[5000];
+    Arrays.fill(chars, 'z');
+    List<DataBox> huge = Arrays.asList(new IntDataBox(0),
+                                       new StringDataBox(new String(chars), 5000));
+    List<DataBox> small = Arrays.asList(new IntDataBox(1), new StringDataBox("small", 5000));
+
+    try {
+      table.addRecord(huge);
+      fail();
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+    try {
+      table.addRecords(Arrays.asList(small, huge).iterator());
+      fail();
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+    assertEquals(1, table.getNumRecords());
+    table.close();
+  }
+
+  @Test
+  public void testAddRecords() throws Exception {
+    Table table = createTable("t", PageFormat.SLOTTED);
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 100; ++i) {
+      rids.add(table.addRecord(values(i, "name" + i)));
+    }
+    table.deleteRecord(rids.get(50));
+
+    List<List<DataBox>> values = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 2000; ++i) {
+      values.add(values(i, i % 7 == 0 ? "a much longer name " + i : "n" + i));
+    }
+    List<RecordId> added = table.addRecords(values.iterator());
+
+    assertEquals(2000, added.size());
+    assertEquals(rids.get(50), added.get(0));
+    assertEquals(2099, table.getNumRecords());
+    for (int i = 0; i < 2000; ++i) {
+      assertEquals(new Record(values.get(i)), table.getRecord(added.get(i)));
+    }
+    table.close();
+  }
+
+  @Test
+  public void testLoadTableFromDisk() throws Exception {
+    Table table = createTable("t", PageFormat.SLOTTED);
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; ++i) {
+      rids.add(table.addRecord(values(i, "name" + i)));
+    }
+    table.deleteRecord(rids.get(10));
+    table.close();
+
+    table = new Table(table.getName(), table.getFilename(), pool);
+    assertEquals(PageFormat.SLOTTED, table.getPageFormat());
+    assertEquals(999, table.getNumRecords());
+    for (int i = 0; i < 1000; ++i) {
+      if (i != 10) {
+        assertEquals(new Record(values(i, "name" + i)), table.getRecord(rids.get(i)));
+      }
+    }
+    // The slot freed before closing the table is reused.
+    assertEquals(rids.get(10), table.addRecord(values(10, "again")));
+    table.close();
+  }
+}
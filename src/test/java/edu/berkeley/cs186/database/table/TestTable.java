@@ -8,8 +8,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Before;
@@ -244,6 +249,176 @@ public class TestTable {
     }
   }
 
+  @Test
+  public void testLoadTableFromCatalog() throws Exception {
+    int numRecords = table.getNumRecordsPerPage() * 2 + 42;
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecords; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    table.deleteRecord(rids.get(3));
+    table.close();
+
+    // Loading the table only reads its header page.
+    table = new Table(table.getName(), table.getFilename());
+    assertTrue(table.getAllocator().getMetrics().getMisses() <= 1);
+    assertEquals(numRecords - 1, table.getNumRecords());
+    assertEquals(numRecords - 1, table.getStats().getNumRecords());
+
+    // The freed slot is the first free slot.
+    assertEquals(rids.get(3), table.addRecord(createRecordWithAllTypes(3).getValues()));
+    for (int i = 0; i < numRecords; ++i) {
+      assertEquals(createRecordWithAllTypes(i), table.getRecord(rids.get(i)));
+    }
+  }
+
+  @Test
+  public void testLoadTableWithStaleCatalog() throws Exception {
+    int numRecords = table.getNumRecordsPerPage() + 1;
+    for (int i = 0; i < numRecords; ++i) {
+      table.addRecord(createRecordWithAllTypes(i).getValues());
+    }
+    table.checkpoint();
+    RecordId rid = table.addRecord(createRecordWithAllTypes(numRecords).getValues());
+
+    // Close the file without closing the table, as if the process had died.
+    table.getAllocator().close();
+    table = new Table(table.getName(), table.getFilename());
+    assertEquals(numRecords + 1, table.getNumRecords());
+    assertEquals(createRecordWithAllTypes(numRecords), table.getRecord(rid));
+  }
+
+  @Test
+  public void testAddRecords() throws Exception {
+    // Start from a partly full page with a hole in it, so addRecords has to
+    // fill the free slots of existing pages before allocating new ones.
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    table.deleteRecord(rids.get(4));
+
+    Table expected = createTestTable(schema, "expected");
+    for (int i = 0; i < 10; ++i) {
+      expected.addRecord(createRecordWithAllTypes(i).getValues());
+    }
+    expected.deleteRecord(rids.get(4));
+
+    int numRecords = table.getNumRecordsPerPage() * 3;
+    List<List<DataBox>> values = new ArrayList<>();
+    List<RecordId> expectedRids = new ArrayList<>();
+    for (int i = 0; i < numRecords; ++i) {
+      values.add(createRecordWithAllTypes(100 + i).getValues());
+      expectedRids.add(expected.addRecord(values.get(i)));
+    }
+    List<RecordId> added = table.addRecords(values.iterator());
+
+    assertEquals(expectedRids, added);
+    assertEquals(rids.get(4), added.get(0));
+    assertEquals(expected.getNumDataPages(), table.getNumDataPages());
+    assertEquals(numRecords + 9, table.getNumRecords());
+    assertEquals(numRecords + 9, table.getStats().getNumRecords());
+    for (int i = 0; i < numRecords; ++i) {
+      assertEquals(createRecordWithAllTypes(100 + i), table.getRecord(added.get(i)));
+    }
+    // The free space map is up to date.
+    assertEquals(expected.addRecord(values.get(0)), table.addRecord(values.get(0)));
+    expected.close();
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    int numRecords = table.getNumRecordsPerPage() * 2;
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecords; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+
+    // Half the threads read the existing records while the other half insert,
+    // update, and delete their own.
+    int numThreads = 8;
+    int numOps = 500;
+    List<List<RecordId>> added = new ArrayList<>();
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; ++t) {
+      List<RecordId> mine = new ArrayList<>();
+      added.add(mine);
+      int id = t;
+      threads.add(new Thread(() -> {
+        try {
+          for (int i = 0; i < numOps; ++i) {
+            if (id % 2 == 0) {
+              int j = (i * 31 + id) % numRecords;
+              assertEquals(createRecordWithAllTypes(j), table.getRecord(rids.get(j)));
+            } else {
+              int value = -(id * numOps + i);
+              RecordId rid = table.addRecord(createRecordWithAllTypes(value).getValues());
+              table.updateRecord(createRecordWithAllTypes(value - 1).getValues(), rid);
+              if (i % 5 == 0) {
+                table.deleteRecord(rid);
+              } else {
+                mine.add(rid);
+              }
+            }
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), errors);
+
+    Set<RecordId> seen = new HashSet<>(rids);
+    for (int t = 1; t < numThreads; t += 2) {
+      for (int i = 0, k = 0; i < numOps; ++i) {
+        if (i % 5 != 0) {
+          RecordId rid = added.get(t).get(k++);
+          assertTrue(seen.add(rid));
+          int value = -(t * numOps + i);
+          assertEquals(createRecordWithAllTypes(value - 1), table.getRecord(rid));
+        }
+      }
+    }
+    assertEquals(seen.size(), table.getNumRecords());
+    assertEquals(seen.size(), table.getStats().getNumRecords());
+  }
+
+  @Test
+  public void testStream() throws Exception {
+    int numRecords = table.getNumRecordsPerPage() * 5 + 3;
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecords; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    table.deleteRecord(rids.get(7));
+
+    List<Record> expected = new ArrayList<>();
+    table.iterator().forEachRemaining(expected::add);
+    assertEquals(expected, table.stream().collect(Collectors.toList()));
+    // A parallel stream keeps the records in order.
+    assertEquals(expected, table.parallelStream().collect(Collectors.toList()));
+    assertEquals(numRecords - 1, table.parallelStream().count());
+
+    Spliterator<Record> records = table.spliterator();
+    assertEquals(numRecords - 1, records.estimateSize());
+    Spliterator<Record> prefix = records.trySplit();
+    // Each half has 3 of the 6 data pages.
+    assertEquals((numRecords - 1) / 2, prefix.estimateSize());
+    assertEquals((numRecords - 1) / 2, records.estimateSize());
+    List<Record> split = new ArrayList<>();
+    assertTrue(prefix.tryAdvance(split::add));
+    prefix.forEachRemaining(split::add);
+    records.forEachRemaining(split::add);
+    assertEquals(expected, split);
+  }
+
   /**
    * Loads some number of pages of records. rids will be loaded with all the record IDs
    * of the new records, and the number of records will be returned.